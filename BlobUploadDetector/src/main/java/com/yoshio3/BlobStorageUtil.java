@@ -0,0 +1,110 @@
+package com.yoshio3;
+
+import com.azure.storage.blob.BlobContainerClient;
+import com.azure.storage.blob.BlobServiceClientBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.microsoft.azure.functions.ExecutionContext;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// PDF を保存した Azure Blob Storage のコンテナを操作するためのユーティリティ
+// ブロブの内容は byte[] としてヒープに読み込まず、一時ファイルへ直接ダウンロードします。
+// ページ範囲毎に処理する場合の範囲毎の PDF は、pdfs とは別のコンテナ (pdf-page-ranges) に保存します。
+// (pdfs に保存すると、Blob トリガーで登録処理が起動されるため)
+public class BlobStorageUtil {
+
+    // 注意：ProcessPageRange の @BlobInput の path と同じ値にする必要があります。
+    public static final String PAGE_RANGE_CONTAINER_NAME = "pdf-page-ranges";
+
+    private static final String STORAGE_CONNECTION_STRING;
+    private static final String CONTAINER_NAME;
+
+    static {
+        STORAGE_CONNECTION_STRING = System.getenv("AzureWebJobsStorage");
+        CONTAINER_NAME = EnvironmentUtil.getString("AzureBlobstorageContainerName", "pdfs");
+    }
+
+    // クライアントはスレッド・セーフなため、初回の利用時に作成して Functions ホスト内で共有する
+    private static volatile BlobContainerClient containerClient;
+    private static volatile BlobContainerClient pageRangeContainerClient;
+
+    private static BlobContainerClient containerClient() {
+        if (containerClient == null) {
+            synchronized (BlobStorageUtil.class) {
+                if (containerClient == null) {
+                    containerClient = new BlobServiceClientBuilder()
+                            .connectionString(STORAGE_CONNECTION_STRING).buildClient()
+                            .getBlobContainerClient(CONTAINER_NAME);
+                }
+            }
+        }
+        return containerClient;
+    }
+
+    // 範囲毎の PDF のコンテナは、存在しない場合は初回の利用時に作成する
+    private static BlobContainerClient pageRangeContainerClient() {
+        if (pageRangeContainerClient == null) {
+            synchronized (BlobStorageUtil.class) {
+                if (pageRangeContainerClient == null) {
+                    BlobContainerClient client = new BlobServiceClientBuilder()
+                            .connectionString(STORAGE_CONNECTION_STRING).buildClient()
+                            .getBlobContainerClient(PAGE_RANGE_CONTAINER_NAME);
+                    client.createIfNotExists();
+                    pageRangeContainerClient = client;
+                }
+            }
+        }
+        return pageRangeContainerClient;
+    }
+
+    // ブロブを一時ファイルにダウンロードし、そのパスを返す (不要になったら呼び出し元で削除する)
+    public Path downloadToTempFile(String blobName) throws IOException {
+        Path file = Files.createTempFile("blob-upload-detector-", ".pdf");
+        try {
+            containerClient().getBlobClient(blobName).downloadToFile(file.toString(), true);
+        } catch (RuntimeException e) {
+            Files.deleteIfExists(file);
+            throw new IOException("Failed to download blob: " + blobName, e);
+        }
+        return file;
+    }
+
+    // ページ範囲 1 つ分の PDF をアップロードする
+    public void uploadPageRange(String blobName, Path file) throws IOException {
+        try {
+            pageRangeContainerClient().getBlobClient(blobName).uploadFromFile(file.toString(), true);
+        } catch (RuntimeException e) {
+            throw new IOException("Failed to upload page range: " + blobName, e);
+        }
+    }
+
+    // 処理を終えたページ範囲の PDF を削除する (削除に失敗しても処理は続ける)
+    // (削除できなかったブロブは、コンテナのライフサイクル管理のルールなどで削除してください)
+    public void deletePageRange(String blobName, ExecutionContext context) {
+        try {
+            pageRangeContainerClient().getBlobClient(blobName).deleteIfExists();
+        } catch (RuntimeException e) {
+            context.getLogger().warning("Failed to delete page range: " + blobName + " "
+                    + e.getMessage());
+        }
+    }
+
+    // Event Grid の BlobCreated イベントから、このコンテナのブロブ名を取得する
+    // (subject の形式: /blobServices/default/containers/<コンテナ名>/blobs/<ブロブ名>)
+    // 対象外のイベントの場合は null を返す
+    public static String blobNameFromEvent(String event) {
+        JsonObject json = JsonParser.parseString(event).getAsJsonObject();
+        JsonElement eventType = json.get("eventType");
+        JsonElement subject = json.get("subject");
+        if (eventType == null || subject == null
+                || !"Microsoft.Storage.BlobCreated".equals(eventType.getAsString())) {
+            return null;
+        }
+        String prefix = "/blobServices/default/containers/" + CONTAINER_NAME + "/blobs/";
+        String value = subject.getAsString();
+        return value.startsWith(prefix) ? value.substring(prefix.length()) : null;
+    }
+}
@@ -0,0 +1,48 @@
+package com.yoshio3;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// 入力文字列を7500文字前後で分割し、句読点で区切られた部分で分割を行います。
+// トークンは 8192 で 8000 で分割した経験上では命令を出す際にオーバフローすることがあるため
+// 分割位置はオフセットで管理し、チャンク毎に 1 度だけ substring を作成します。
+public class CharacterTextChunker implements TextChunker {
+
+    // １ページに含まれる文字数の上限（これを超える場合はページを分割して処理する）
+    public static final int MAX_SEPARATE_TOKEN_LENGTH = 7500;
+
+    // 区切り文字を探す範囲（上限から遡る文字数）
+    private static final int SEARCH_WINDOW = 300;
+
+    private final int maxLength;
+
+    public CharacterTextChunker(int maxLength) {
+        this.maxLength = maxLength;
+    }
+
+    @Override
+    public List<String> split(String text) {
+        List<String> chunks = new ArrayList<>();
+        int start = 0;
+        while (text.length() - start > maxLength) {
+            int splitIndex = findSplitIndex(text, start);
+            chunks.add(text.substring(start, splitIndex));
+            start = splitIndex;
+        }
+        chunks.add(text.substring(start));
+        return chunks;
+    }
+
+    // start から maxLength 文字の前後で、区切り文字（。？！など）の位置を探します。
+    // また、適切な区切り文字が見つからない場合は、従来通り探した範囲の先頭（7500 文字の場合は 7200 文字）で分割されます。
+    private int findSplitIndex(String text, int start) {
+        int limit = start + maxLength;
+        int windowStart = limit - SEARCH_WINDOW;
+        for (int splitIndex = limit; splitIndex > windowStart; splitIndex--) {
+            if (TextChunker.isPunctuation(text.charAt(splitIndex))) {
+                return splitIndex;
+            }
+        }
+        return windowStart;
+    }
+}
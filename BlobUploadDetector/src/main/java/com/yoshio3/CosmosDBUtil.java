@@ -4,19 +4,33 @@ import com.azure.cosmos.CosmosAsyncClient;
 import com.azure.cosmos.CosmosAsyncContainer;
 import com.azure.cosmos.CosmosAsyncDatabase;
 import com.azure.cosmos.CosmosClientBuilder;
-import com.azure.cosmos.models.CosmosItemResponse;
+import com.azure.cosmos.CosmosException;
+import com.azure.cosmos.models.CosmosBulkOperations;
+import com.azure.cosmos.models.CosmosItemOperation;
+import com.azure.cosmos.models.CosmosPatchItemRequestOptions;
+import com.azure.cosmos.models.CosmosPatchOperations;
 import com.azure.cosmos.models.CosmosQueryRequestOptions;
 import com.azure.cosmos.models.FeedResponse;
 import com.azure.cosmos.models.PartitionKey;
+import com.azure.cosmos.models.SqlParameter;
 import com.azure.cosmos.models.SqlQuerySpec;
 import com.microsoft.azure.functions.ExecutionContext;
 import com.yoshio3.models.CosmosDBDocument;
 import com.yoshio3.models.CosmosDBDocumentStatus;
+import com.yoshio3.models.IngestionJobDocument;
+import com.yoshio3.models.IngestionJobStatus;
+import com.yoshio3.models.RetryDocument;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
-public class CosmosDBUtil {
+public class CosmosDBUtil implements StatusStore {
+
+    private static final String RETRIVE_DUE_RETRIES_QUERY = "SELECT TOP @limit * FROM c"
+            + " WHERE c.type = @type AND c.attempts < @maxAttempts AND c.nextAttemptAt <= @now"
+            + " ORDER BY c.nextAttemptAt ASC";
 
     private static final String COSMOS_DB_ENDPOINT;
     private static final String COSMOS_DB_KEY;
@@ -40,38 +54,189 @@ public class CosmosDBUtil {
         container = database.getContainer(COSMOS_DB_CONTAINER_NAME);
     }
 
-    public Mono<CosmosItemResponse<CosmosDBDocument>> createDocument(String id, String fileName,
-            CosmosDBDocumentStatus status, int pageNumber, ExecutionContext context) {
-        CosmosDBDocument document = new CosmosDBDocument(id, fileName, status, pageNumber);
-        context.getLogger().info("Cosmos DB create Document: " + document);
-        return container.createItem(document, null);
+    // Bulk で書き込み (作成は upsert、状態の変更は読み込みを伴わない patch で行う)
+    @Override
+    public void write(List<CosmosDBDocument> documents,
+            Map<String, CosmosDBDocumentStatus> statuses, ExecutionContext context) {
+        List<CosmosItemOperation> operations = new ArrayList<>();
+        documents.forEach(document -> operations.add(CosmosBulkOperations
+                .getUpsertItemOperation(document, new PartitionKey(document.id()))));
+        statuses.forEach((id, status) -> operations.add(CosmosBulkOperations.getPatchItemOperation(
+                id, new PartitionKey(id), CosmosPatchOperations.create().set("/status", status))));
+        executeBulk(operations, context);
+    }
+
+    // Bulk で実行し、全ての操作が完了するまで待機する (失敗した操作はログに出力する)
+    private void executeBulk(List<CosmosItemOperation> operations, ExecutionContext context) {
+        executeBulk(operations, false, context);
+    }
+
+    // ignoreNotFound が true の場合は、対象のドキュメントが存在しない (404) 操作を失敗として扱わない
+    private void executeBulk(List<CosmosItemOperation> operations, boolean ignoreNotFound,
+            ExecutionContext context) {
+        if (operations.isEmpty()) {
+            return;
+        }
+        container.executeBulkOperations(Flux.fromIterable(operations))
+                .doOnNext(response -> {
+                    if (ignoreNotFound && response.getResponse() != null
+                            && response.getResponse().getStatusCode() == 404) {
+                        return;
+                    }
+                    if (response.getException() != null) {
+                        context.getLogger().severe("Cosmos DB bulk operation Failed: "
+                                + response.getOperation().getId() + ":"
+                                + response.getException().getMessage());
+                    } else if (!response.getResponse().isSuccessStatusCode()) {
+                        context.getLogger().severe("Cosmos DB bulk operation Failed: "
+                                + response.getOperation().getId() + ":"
+                                + response.getResponse().getStatusCode());
+                    }
+                })
+                .onErrorResume(error -> {
+                    context.getLogger().severe("Cosmos DB bulk Failed: " + error.getMessage());
+                    return Flux.empty();
+                })
+                .blockLast();
+    }
+
+    // ファイル単位の進捗を upsert (書き込みの完了まで待機する)
+    @Override
+    public void writeJob(IngestionJobDocument job, ExecutionContext context) {
+        container.upsertItem(job, new PartitionKey(job.id()), null)
+                .doOnError(error -> context.getLogger()
+                        .severe("Cosmos DB job upsert Failed: " + error.getMessage()))
+                .onErrorResume(error -> Mono.empty())
+                .block();
+    }
+
+    // ページ範囲 1 つ分の件数・処理時間を加算 (patch の increment は Cosmos DB 上で原子的に行われる)
+    // 加算後のドキュメントを返す (失敗した場合は null)
+    @Override
+    public IngestionJobDocument addJobProgress(IngestionJobDocument delta,
+            ExecutionContext context) {
+        return container.patchItem(delta.id(), new PartitionKey(delta.id()),
+                progressOperations(delta), IngestionJobDocument.class)
+                .map(response -> response.getItem())
+                .onErrorResume(error -> {
+                    context.getLogger().severe("Cosmos DB job patch Failed: " + error.getMessage());
+                    return Mono.empty();
+                })
+                .block();
+    }
+
+    // 範囲の番号を completedRangeIndexes に追加する patch を、その番号を含まない場合のみ実行する
+    // (条件を満たさない場合は 412 となり、件数は加算されない)
+    @Override
+    public IngestionJobDocument addRangeProgress(IngestionJobDocument delta, int rangeIndex,
+            ExecutionContext context) {
+        CosmosPatchItemRequestOptions options = new CosmosPatchItemRequestOptions();
+        options.setFilterPredicate("FROM c WHERE NOT ARRAY_CONTAINS(c.completedRangeIndexes, "
+                + rangeIndex + ")");
+        return container.patchItem(delta.id(), new PartitionKey(delta.id()),
+                progressOperations(delta).add("/completedRangeIndexes/-", rangeIndex), options,
+                IngestionJobDocument.class)
+                .map(response -> response.getItem())
+                .onErrorResume(error -> error instanceof CosmosException cosmosException
+                        && cosmosException.getStatusCode() == 412, error -> {
+                            context.getLogger().info("Page range already counted: "
+                                    + delta.fileName() + " " + rangeIndex);
+                            return container.readItem(delta.id(), new PartitionKey(delta.id()),
+                                    IngestionJobDocument.class).map(response -> response.getItem());
+                        })
+                .onErrorResume(error -> {
+                    context.getLogger().severe("Cosmos DB job patch Failed: " + error.getMessage());
+                    return Mono.empty();
+                })
+                .block();
+    }
+
+    // 件数・処理時間を加算する patch (1 回の patch の操作数の上限は 10)
+    private static CosmosPatchOperations progressOperations(IngestionJobDocument delta) {
+        return CosmosPatchOperations.create()
+                .increment("/totalChunks", delta.totalChunks())
+                .increment("/embeddedChunks", delta.embeddedChunks())
+                .increment("/insertedChunks", delta.insertedChunks())
+                .increment("/failedChunks", delta.failedChunks())
+                .increment("/completedRanges", delta.completedRanges())
+                .increment("/extractionMillis", delta.extractionMillis())
+                .increment("/embeddingMillis", delta.embeddingMillis())
+                .increment("/insertionMillis", delta.insertionMillis())
+                .set("/updatedAt", delta.updatedAt());
+    }
+
+    @Override
+    public void writeJobStatus(String jobId, IngestionJobStatus status, ExecutionContext context) {
+        container.patchItem(jobId, new PartitionKey(jobId), CosmosPatchOperations.create()
+                .set("/status", status)
+                .set("/updatedAt", System.currentTimeMillis()), IngestionJobDocument.class)
+                .doOnError(error -> context.getLogger()
+                        .severe("Cosmos DB job status patch Failed: " + error.getMessage()))
+                .onErrorResume(error -> Mono.empty())
+                .block();
+    }
+
+    // ファイル単位の進捗を取得 (存在しない場合は null)
+    public IngestionJobDocument readJob(String fileName, ExecutionContext context) {
+        String id = IngestionJobDocument.jobId(fileName);
+        return container.readItem(id, new PartitionKey(id), IngestionJobDocument.class)
+                .map(response -> response.getItem())
+                .onErrorResume(error -> {
+                    context.getLogger().warning("Cosmos DB job read Failed: " + error.getMessage());
+                    return Mono.empty();
+                })
+                .block();
     }
 
-    public void updateStatus(String id, CosmosDBDocumentStatus status, 
+    // 再処理用のドキュメントを Bulk で作成・上書き
+    public void writeRetries(List<RetryDocument> retries, ExecutionContext context) {
+        List<CosmosItemOperation> operations = new ArrayList<>();
+        retries.forEach(retry -> operations.add(CosmosBulkOperations
+                .getUpsertItemOperation(retry, new PartitionKey(retry.id()))));
+        executeBulk(operations, context);
+    }
+
+    // 再処理の時刻を過ぎたドキュメントを、時刻の古い順に最大 limit 件取得
+    public List<RetryDocument> findDueRetries(long now, int maxAttempts, int limit,
             ExecutionContext context) {
-        context.getLogger().info("Cosmos DB update Status: Start " + id + ":" + status);
-        container.readItem(id, new PartitionKey(id), CosmosDBDocument.class)
-                .subscribe(responseItem -> {
-                    CosmosDBDocument item = responseItem.getItem();
-                    context.getLogger().info("Cosmos DB read Document: " + item);                 
-                    context.getLogger().info("Cosmos DB read Document: " + item);
-                    String updateid = item.id();
-                    CosmosDBDocument updateDocument =
-                            new CosmosDBDocument(updateid, item.fileName(), status, item.pageNumber());
-
-                    container.replaceItem(updateDocument, item.id(), new PartitionKey(item.id()), null)
-                            .subscribe(response -> {
-                                context.getLogger().info(
-                                        "Cosmos DB update Status: " + id + ":" + updateDocument);
-                                context.getLogger().fine("Cosmos DB Update Response Code : "
-                                        + response.getStatusCode());
-                            }, error -> {
-                                context.getLogger()
-                                        .severe("Cosmos DB update Failed: " + error.getMessage());
-                            }, () -> {
-                                context.getLogger().fine("Cosmos DB update Completed");
-                            });
-                });
+        SqlQuerySpec querySpec = new SqlQuerySpec(RETRIVE_DUE_RETRIES_QUERY, List.of(
+                new SqlParameter("@limit", limit),
+                new SqlParameter("@type", RetryDocument.TYPE),
+                new SqlParameter("@maxAttempts", maxAttempts),
+                new SqlParameter("@now", now)));
+        return container.queryItems(querySpec, new CosmosQueryRequestOptions(), RetryDocument.class)
+                .collectList()
+                .onErrorResume(error -> {
+                    context.getLogger().severe("Cosmos DB retry query Failed: " + error.getMessage());
+                    return Mono.just(List.of());
+                })
+                .block();
+    }
+
+    // 再処理に成功したチャンクの再処理用のドキュメントを削除し、チャンクの状態を COMPLETED にする
+    public void completeRetries(List<RetryDocument> retries, ExecutionContext context) {
+        List<CosmosItemOperation> operations = new ArrayList<>();
+        retries.forEach(retry -> {
+            operations.add(CosmosBulkOperations.getDeleteItemOperation(retry.id(),
+                    new PartitionKey(retry.id())));
+            operations.add(CosmosBulkOperations.getPatchItemOperation(retry.chunkId(),
+                    new PartitionKey(retry.chunkId()), CosmosPatchOperations.create()
+                            .set("/status", CosmosDBDocumentStatus.COMPLETED)));
+        });
+        executeBulk(operations, context);
+    }
+
+    // チャンクの状態のドキュメントを Bulk で削除し、完了するまで待機する
+    // 失敗したチャンクのみ状態を書き込む設定では、ドキュメントがないことが多いため、存在しない場合は無視する
+    public void deleteDocuments(List<String> ids, ExecutionContext context) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        List<CosmosItemOperation> operations = new ArrayList<>(ids.size());
+        ids.forEach(id -> operations.add(
+                CosmosBulkOperations.getDeleteItemOperation(id, new PartitionKey(id))));
+        executeBulk(operations, true, context);
+        context.getLogger().info("Cosmos DB deleted documents: " + ids.size());
     }
 
     public List<CosmosDBDocument> getAllDocuments() {
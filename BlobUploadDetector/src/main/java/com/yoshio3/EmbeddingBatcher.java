@@ -0,0 +1,233 @@
+package com.yoshio3;
+
+import com.azure.ai.openai.OpenAIClient;
+import com.azure.ai.openai.models.EmbeddingItem;
+import com.azure.ai.openai.models.EmbeddingsOptions;
+import com.azure.core.exception.HttpResponseException;
+import com.azure.core.http.HttpResponse;
+import com.microsoft.azure.functions.ExecutionContext;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+
+// 複数のチャンクを 1 回の EmbeddingsOptions にまとめて Azure OpenAI Embedding を呼び出すクラス
+// 1 リクエストに含めるチャンク数とトークン数の上限は設定で変更できます。
+// 返却された EmbeddingItem の index を元に、どのページ・チャンクのベクターかを対応付けます。
+// バッチはスレッド・プールから並列に呼び出し、OpenAIRateLimiter でクォータの上限まで呼び出します。
+public class EmbeddingBatcher {
+
+    // ベクター化したチャンク (index は embed() に渡したリスト内での位置)
+    // ベクター配列は PostgreSQL の vector 型 (float4) に合わせて float[] で保持する
+    public record EmbeddedChunk(int index, PageInfo pageInfo, float[] embedding) {}
+
+    // 1 バッチ分のテキストをベクター化する処理 (入力と同じ順序で返す。テストでは Azure OpenAI の代わりに利用する)
+    interface EmbeddingFunction {
+        List<float[]> embed(List<String> inputs, ExecutionContext context) throws Exception;
+    }
+
+    private static final float[] EMPTY_EMBEDDING = new float[0];
+
+    // リトライ時の待機時間の初期値と上限（ミリ秒）
+    private static final long INITIAL_BACKOFF_MILLIS = 1000;
+    private static final long MAX_BACKOFF_MILLIS = 60000;
+
+    private final EmbeddingFunction embeddingFunction;
+    // 1 リクエストに含めるチャンク数の上限
+    private final int maxItemsPerRequest;
+    // 1 リクエストに含めるトークン数の上限
+    private final int maxTokensPerRequest;
+    // Azure OpenAI の呼び出しリトライ回数
+    private final int maxRetryCount;
+    // クォータに合わせて呼び出しを制御するリミッター
+    private final OpenAIRateLimiter rateLimiter;
+    // バッチを並列に呼び出すためのスレッド・プール
+    private final ExecutorService executor;
+
+    public EmbeddingBatcher(OpenAIClient client, String modelName, int maxItemsPerRequest,
+            int maxTokensPerRequest, int maxRetryCount, OpenAIRateLimiter rateLimiter,
+            ExecutorService executor) {
+        this((inputs, context) -> getEmbeddings(client, modelName, inputs, context),
+                maxItemsPerRequest, maxTokensPerRequest, maxRetryCount, rateLimiter, executor);
+    }
+
+    EmbeddingBatcher(EmbeddingFunction embeddingFunction, int maxItemsPerRequest,
+            int maxTokensPerRequest, int maxRetryCount, OpenAIRateLimiter rateLimiter,
+            ExecutorService executor) {
+        this.embeddingFunction = embeddingFunction;
+        this.maxItemsPerRequest = Math.max(1, maxItemsPerRequest);
+        this.maxTokensPerRequest = Math.max(1, maxTokensPerRequest);
+        this.maxRetryCount = Math.max(1, maxRetryCount);
+        this.rateLimiter = rateLimiter;
+        this.executor = executor;
+    }
+
+    // チャンクの一覧をバッチに分けて並列にベクター化し、入力と同じ順序で結果を返します。
+    // リトライが発生した場合は、そのバッチに含まれるチャンクの index を onRetry に通知します。
+    // リトライ回数の上限に達したチャンクのベクター配列は空になります。
+    public List<EmbeddedChunk> embed(List<PageInfo> chunks, IntConsumer onRetry,
+            ExecutionContext context) {
+        List<Future<List<float[]>>> futures = new ArrayList<>();
+        List<Integer> batchStarts = new ArrayList<>();
+        int start = 0;
+        while (start < chunks.size()) {
+            int batchStart = start;
+            int[] tokens = new int[1];
+            int batchEnd = nextBatchEnd(chunks, batchStart, tokens);
+            futures.add(executor.submit(() -> invokeBatch(chunks, batchStart, batchEnd, tokens[0],
+                    onRetry, context)));
+            batchStarts.add(batchStart);
+            start = batchEnd;
+        }
+
+        // 中断された場合は残りのバッチを取り消し、結果を待たずにベクター配列を空 (失敗) にする
+        List<EmbeddedChunk> results = new ArrayList<>(chunks.size());
+        boolean interrupted = false;
+        for (int batch = 0; batch < futures.size(); batch++) {
+            int batchStart = batchStarts.get(batch);
+            List<float[]> embeddings = List.of();
+            if (!interrupted) {
+                try {
+                    embeddings = futures.get(batch).get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    futures.forEach(future -> future.cancel(true));
+                    interrupted = true;
+                    context.getLogger().warning("Interrupted while waiting for OpenAI");
+                } catch (CancellationException e) {
+                    context.getLogger().warning("OpenAI invocation was cancelled");
+                } catch (ExecutionException e) {
+                    context.getLogger().severe("Error while invoking OpenAI: " + e.getMessage());
+                }
+            }
+            int batchEnd = batch + 1 < batchStarts.size() ? batchStarts.get(batch + 1)
+                    : chunks.size();
+            for (int i = batchStart; i < batchEnd; i++) {
+                float[] embedding = i - batchStart < embeddings.size()
+                        ? embeddings.get(i - batchStart) : EMPTY_EMBEDDING;
+                results.add(new EmbeddedChunk(i, chunks.get(i), embedding));
+            }
+        }
+        return results;
+    }
+
+    // start から詰め込めるだけ詰め込んだバッチの終了位置 (exclusive) を返します。
+    // 1 チャンクだけでトークン上限を超える場合も、そのチャンク単独で 1 バッチとします。
+    // バッチのトークン数は tokens[0] に設定します。
+    private int nextBatchEnd(List<PageInfo> chunks, int start, int[] tokens) {
+        int end = start;
+        tokens[0] = 0;
+        while (end < chunks.size() && end - start < maxItemsPerRequest) {
+            int chunkTokens = estimateTokens(chunks.get(end).text());
+            if (end > start && tokens[0] + chunkTokens > maxTokensPerRequest) {
+                break;
+            }
+            tokens[0] += chunkTokens;
+            end++;
+        }
+        return end;
+    }
+
+    private List<float[]> invokeBatch(List<PageInfo> chunks, int start, int end,
+            int tokens, IntConsumer onRetry, ExecutionContext context)
+            throws InterruptedException {
+        List<String> inputs = new ArrayList<>(end - start);
+        for (int i = start; i < end; i++) {
+            inputs.add(chunks.get(i).text());
+        }
+
+        List<float[]> embeddings = List.of();
+        int retryCount = 0;
+        while (retryCount < maxRetryCount) {
+            rateLimiter.acquire(tokens);
+            try {
+                embeddings = embeddingFunction.embed(inputs, context);
+                break;
+            } catch (Exception e) {
+                context.getLogger().severe("Error while invoking OpenAI: " + e.getMessage());
+                for (int i = start; i < end; i++) {
+                    onRetry.accept(i);
+                }
+                long backoffMillis = backoffMillis(retryCount, e);
+                retryCount++;
+                if (retryCount < maxRetryCount) {
+                    TimeUnit.MILLISECONDS.sleep(backoffMillis);
+                }
+            }
+        }
+        return embeddings;
+    }
+
+    // リトライまでの待機時間を求めます。
+    // 429 で Retry-After が返された場合はその時間、全スレッドの呼び出しを停止します。
+    // それ以外はジッター付きの指数バックオフとします。
+    private long backoffMillis(int retryCount, Exception e) {
+        long exponential = Math.min(MAX_BACKOFF_MILLIS, INITIAL_BACKOFF_MILLIS << retryCount);
+        long backoff = exponential / 2
+                + ThreadLocalRandom.current().nextLong(exponential / 2 + 1);
+        if (e instanceof HttpResponseException responseException
+                && responseException.getResponse() != null
+                && responseException.getResponse().getStatusCode() == 429) {
+            long retryAfter = retryAfterMillis(responseException.getResponse());
+            if (retryAfter > 0) {
+                backoff = retryAfter + ThreadLocalRandom.current().nextLong(250);
+            }
+            rateLimiter.pause(backoff);
+        }
+        return backoff;
+    }
+
+    // Retry-After (秒) もしくは retry-after-ms (ミリ秒) ヘッダの値を返します。
+    private long retryAfterMillis(HttpResponse response) {
+        try {
+            String retryAfterMs = response.getHeaderValue("retry-after-ms");
+            if (retryAfterMs != null) {
+                return Long.parseLong(retryAfterMs.trim());
+            }
+            String retryAfter = response.getHeaderValue("Retry-After");
+            if (retryAfter != null) {
+                return TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim()));
+            }
+        } catch (NumberFormatException numberFormatException) {
+            // HTTP 日付形式の場合は指数バックオフで代用する
+        }
+        return -1;
+    }
+
+    // Azure OpenAI Embedding を呼び出し、入力と同じ順序でベクター配列を返します。
+    private static List<float[]> getEmbeddings(OpenAIClient client, String modelName,
+            List<String> inputs, ExecutionContext context) {
+        var result = client.getEmbeddings(modelName, new EmbeddingsOptions(inputs));
+        // 利用状況を取得（使用したトークン数）
+        var usage = result.getUsage();
+        context.getLogger().info("Number of Chunks: " + inputs.size()
+                + " Number of Prompt Token: " + usage.getPromptTokens()
+                + " Number of Total Token: " + usage.getTotalTokens());
+        List<float[]> embeddings =
+                new ArrayList<>(Collections.nCopies(inputs.size(), EMPTY_EMBEDDING));
+        // EmbeddingItem の index はリクエスト内の入力順を表す
+        for (EmbeddingItem item : result.getData()) {
+            embeddings.set(item.getIndex(), toFloatArray(item.getEmbedding()));
+        }
+        return embeddings;
+    }
+
+    private static float[] toFloatArray(List<Double> embedding) {
+        float[] vector = new float[embedding.size()];
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] = embedding.get(i).floatValue();
+        }
+        return vector;
+    }
+
+    // トークン数の見積もり（text-embedding-ada-002 と同じ cl100k_base で数える）
+    private int estimateTokens(String text) {
+        return TokenCounter.count(text);
+    }
+}
@@ -0,0 +1,205 @@
+package com.yoshio3;
+
+import com.microsoft.azure.functions.ExecutionContext;
+import com.yoshio3.EmbeddingBatcher.EmbeddedChunk;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntConsumer;
+
+// チャンクのテキストのハッシュ値をキーに、過去に取得したベクター配列を再利用するキャッシュ
+// キーは「モデル名 + 正規化したテキスト」の SHA-256 とし、PostgreSQL のテーブルに保存します。
+// プロセス内の LRU キャッシュを前段に置き、同じ Functions ホストでの再アップロードでは DB にも問い合わせません。
+// (Function のインスタンスは呼び出し毎に作成されるため、LRU キャッシュは static に保持してホスト内で共有する)
+// キャッシュの読み書きに失敗した場合は、キャッシュがないものとして Embedding を呼び出します。
+public class EmbeddingCache {
+
+    private final EmbeddingBatcher embeddingBatcher;
+    private final String modelName;
+    private final String tableName;
+    private final Map<String, float[]> localCache;
+
+    // プロセス内の LRU キャッシュ (Functions ホスト内で共有し、サイズは最初に作成した時の値とする)
+    // キーにモデル名を含むため、異なるモデルのインスタンスで共有しても混ざらない
+    private static Map<String, float[]> sharedLocalCache;
+
+    // テーブルの作成済みフラグ (Functions ホスト内で 1 度だけ作成を試みる)
+    private static volatile boolean tableCreated = false;
+
+    public EmbeddingCache(EmbeddingBatcher embeddingBatcher, String modelName, String tableName,
+            int localCacheSize) {
+        this.embeddingBatcher = embeddingBatcher;
+        this.modelName = modelName;
+        this.tableName = tableName;
+        this.localCache = sharedLocalCache(localCacheSize);
+    }
+
+    // キャッシュにないチャンクのみ Embedding を呼び出し、入力と同じ順序で結果を返します。
+    public List<EmbeddedChunk> embed(List<PageInfo> chunks, IntConsumer onRetry,
+            ExecutionContext context) {
+        List<String> hashes = new ArrayList<>(chunks.size());
+        chunks.forEach(chunk -> hashes.add(hash(chunk.text())));
+
+        Map<String, float[]> found = lookup(hashes, context);
+        List<PageInfo> misses = new ArrayList<>();
+        List<Integer> missIndexes = new ArrayList<>();
+        for (int i = 0; i < chunks.size(); i++) {
+            if (!found.containsKey(hashes.get(i))) {
+                misses.add(chunks.get(i));
+                missIndexes.add(i);
+            }
+        }
+        context.getLogger().info("Embedding cache hit: " + (chunks.size() - misses.size())
+                + " miss: " + misses.size());
+
+        EmbeddedChunk[] results = new EmbeddedChunk[chunks.size()];
+        if (!misses.isEmpty()) {
+            Map<String, float[]> embedded = new HashMap<>();
+            var missResults = embeddingBatcher.embed(misses,
+                    index -> onRetry.accept(missIndexes.get(index)), context);
+            for (EmbeddedChunk missResult : missResults) {
+                int index = missIndexes.get(missResult.index());
+                results[index] = new EmbeddedChunk(index, chunks.get(index), missResult.embedding());
+                // 取得に失敗した (空の) ベクター配列はキャッシュしない
+                if (missResult.embedding().length > 0) {
+                    embedded.put(hashes.get(index), missResult.embedding());
+                }
+            }
+            store(embedded, context);
+        }
+        for (int i = 0; i < chunks.size(); i++) {
+            if (results[i] == null) {
+                results[i] = new EmbeddedChunk(i, chunks.get(i), found.get(hashes.get(i)));
+            }
+        }
+        return List.of(results);
+    }
+
+    // プロセス内のキャッシュ、PostgreSQL の順に検索
+    private Map<String, float[]> lookup(List<String> hashes, ExecutionContext context) {
+        Map<String, float[]> found = new HashMap<>();
+        List<String> remaining = new ArrayList<>();
+        synchronized (localCache) {
+            for (String hash : hashes) {
+                float[] embedding = localCache.get(hash);
+                if (embedding != null) {
+                    found.put(hash, embedding);
+                } else {
+                    remaining.add(hash);
+                }
+            }
+        }
+        if (remaining.isEmpty()) {
+            return found;
+        }
+
+        var querySql = "SELECT content_hash, embedding FROM " + tableName
+                + " WHERE content_hash = ANY(?)";
+        try (Connection connection = PostgreSQLUtil.getDataSource().getConnection()) {
+            createTableIfNotExists(connection);
+            PgVector.register(connection);
+            try (PreparedStatement queryStatement = connection.prepareStatement(querySql)) {
+                queryStatement.setArray(1,
+                        connection.createArrayOf("varchar", remaining.toArray()));
+                try (ResultSet resultSet = queryStatement.executeQuery()) {
+                    while (resultSet.next()) {
+                        found.put(resultSet.getString(1),
+                                resultSet.getObject(2, PgVector.class).toArray());
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            context.getLogger().warning("Embedding cache lookup failed: " + e.getMessage());
+        }
+        putLocal(found);
+        return found;
+    }
+
+    // 新たに取得したベクター配列を保存
+    private void store(Map<String, float[]> embedded, ExecutionContext context) {
+        if (embedded.isEmpty()) {
+            return;
+        }
+        putLocal(embedded);
+        var insertSql = "INSERT INTO " + tableName
+                + " (content_hash, model, embedding) VALUES (?, ?, ?)"
+                + " ON CONFLICT (content_hash) DO NOTHING";
+        try (Connection connection = PostgreSQLUtil.getDataSource().getConnection()) {
+            createTableIfNotExists(connection);
+            PgVector.register(connection);
+            try (PreparedStatement insertStatement = connection.prepareStatement(insertSql)) {
+                for (var entry : embedded.entrySet()) {
+                    insertStatement.setString(1, entry.getKey());
+                    insertStatement.setString(2, modelName);
+                    insertStatement.setObject(3, new PgVector(entry.getValue()));
+                    insertStatement.addBatch();
+                }
+                insertStatement.executeBatch();
+            }
+        } catch (SQLException e) {
+            context.getLogger().warning("Embedding cache store failed: " + e.getMessage());
+        }
+    }
+
+    private void createTableIfNotExists(Connection connection) throws SQLException {
+        if (tableCreated) {
+            return;
+        }
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE IF NOT EXISTS " + tableName
+                    + " (content_hash char(64) PRIMARY KEY, model varchar(128) NOT NULL,"
+                    + " embedding VECTOR(1536) NOT NULL,"
+                    + " created_at timestamp with time zone NOT NULL DEFAULT now())");
+        }
+        tableCreated = true;
+    }
+
+    private void putLocal(Map<String, float[]> embeddings) {
+        synchronized (localCache) {
+            localCache.putAll(embeddings);
+        }
+    }
+
+    // モデル名と正規化したテキスト (NFKC、連続する空白を 1 つに) の SHA-256
+    private String hash(String text) {
+        String normalized = Normalizer.normalize(text, Normalizer.Form.NFKC)
+                .replaceAll("\\s+", " ").strip();
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(modelName.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(normalized.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static synchronized Map<String, float[]> sharedLocalCache(int maxEntries) {
+        if (sharedLocalCache == null) {
+            sharedLocalCache = createLocalCache(maxEntries);
+        }
+        return sharedLocalCache;
+    }
+
+    private static Map<String, float[]> createLocalCache(int maxEntries) {
+        return new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, float[]> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+}
@@ -0,0 +1,164 @@
+package com.yoshio3;
+
+import com.microsoft.azure.functions.ExecutionContext;
+import com.yoshio3.EmbeddingBatcher.EmbeddedChunk;
+import com.yoshio3.PostgreSQLUtil.VectorRow;
+import com.yoshio3.models.IngestionJobDocument;
+import com.yoshio3.models.IngestionJobStatus;
+import com.yoshio3.models.RetryDocument;
+import com.yoshio3.models.RetryStage;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.BiFunction;
+
+// 登録に失敗したチャンク (RetryDocument) をまとめて再処理するクラス
+// Embedding に失敗したチャンクは、通常の登録と同じくバッチでベクター化し、
+// 挿入はまとめて 1 トランザクションで行います。(失敗した場合は 1 行ずつ挿入し、失敗した行のみを残す)
+// 再処理に失敗したチャンクは、失敗する度に次の再処理までの間隔を空けます。
+public class FailedChunkReprocessor {
+
+    // 再処理の間隔の初期値と上限 (ミリ秒)
+    private static final long INITIAL_BACKOFF_MILLIS = 60_000;
+    private static final long MAX_BACKOFF_MILLIS = 3_600_000;
+
+    private final CosmosDBUtil cosmosDBUtil;
+    private final PostgreSQLUtil postgreSQLUtil;
+    // チャンクの一覧をベクター化する処理 (EmbeddingCache もしくは EmbeddingBatcher)
+    private final BiFunction<List<PageInfo>, ExecutionContext, List<EmbeddedChunk>> embedder;
+    // 1 回の再処理で処理するチャンク数の上限
+    private final int batchSize;
+    // 自動で再処理する回数の上限 (超えたものは、一覧画面から再試行した場合のみ再処理する)
+    private final int maxAttempts;
+
+    public FailedChunkReprocessor(CosmosDBUtil cosmosDBUtil, PostgreSQLUtil postgreSQLUtil,
+            BiFunction<List<PageInfo>, ExecutionContext, List<EmbeddedChunk>> embedder,
+            int batchSize, int maxAttempts) {
+        this.cosmosDBUtil = cosmosDBUtil;
+        this.postgreSQLUtil = postgreSQLUtil;
+        this.embedder = embedder;
+        this.batchSize = Math.max(1, batchSize);
+        this.maxAttempts = Math.max(1, maxAttempts);
+    }
+
+    // 再処理の時刻を過ぎたチャンクを最大 batchSize 件再処理する
+    public void process(ExecutionContext context) {
+        List<RetryDocument> retries = cosmosDBUtil.findDueRetries(System.currentTimeMillis(),
+                maxAttempts, batchSize, context);
+        if (retries.isEmpty()) {
+            return;
+        }
+        context.getLogger().info("Reprocessing failed chunks: " + retries.size());
+
+        List<RetryDocument> failed = new ArrayList<>();
+        Map<RetryDocument, VectorRow> rows = new LinkedHashMap<>();
+        List<RetryDocument> embeddingTargets = new ArrayList<>();
+        for (RetryDocument retry : retries) {
+            if (retry.stage() == RetryStage.DB_INSERTION && retry.embedding() != null
+                    && retry.embedding().length > 0) {
+                rows.put(retry, toRow(retry, retry.embedding()));
+            } else {
+                embeddingTargets.add(retry);
+            }
+        }
+
+        // Embedding に失敗したチャンクをまとめてベクター化
+        int reembedded = 0;
+        if (!embeddingTargets.isEmpty()) {
+            List<PageInfo> chunks = new ArrayList<>(embeddingTargets.size());
+            embeddingTargets.forEach(retry -> chunks.add(
+                    new PageInfo(retry.pageNumber(), 0, retry.originText())));
+            for (EmbeddedChunk embeddedChunk : embedder.apply(chunks, context)) {
+                RetryDocument retry = embeddingTargets.get(embeddedChunk.index());
+                if (embeddedChunk.embedding().length == 0) {
+                    failed.add(retry.failed(RetryStage.EMBEDDING, null,
+                            "Embedding retry count exceeded", nextAttemptAt(retry)));
+                } else {
+                    rows.put(retry, toRow(retry, embeddedChunk.embedding()));
+                    reembedded++;
+                }
+            }
+        }
+
+        List<RetryDocument> succeeded = insert(rows, failed, context);
+        if (!succeeded.isEmpty()) {
+            cosmosDBUtil.completeRetries(succeeded, context);
+            updateJobs(succeeded, context);
+        }
+        if (!failed.isEmpty()) {
+            cosmosDBUtil.writeRetries(failed, context);
+        }
+        context.getLogger().info("Reprocessed failed chunks: succeeded " + succeeded.size()
+                + " (re-embedded " + reembedded + ") failed " + failed.size());
+    }
+
+    // まとめて挿入し、失敗した場合は 1 行ずつ挿入して、挿入できたチャンクを返す
+    private List<RetryDocument> insert(Map<RetryDocument, VectorRow> rows,
+            List<RetryDocument> failed, ExecutionContext context) {
+        if (rows.isEmpty()) {
+            return List.of();
+        }
+        try {
+            postgreSQLUtil.upsert(new ArrayList<>(rows.values()));
+            return new ArrayList<>(rows.keySet());
+        } catch (Exception e) {
+            context.getLogger().warning("Error while upserting data to PostgreSQL: "
+                    + e.getMessage() + " Retrying row by row.");
+        }
+        List<RetryDocument> succeeded = new ArrayList<>();
+        rows.forEach((retry, row) -> {
+            try {
+                postgreSQLUtil.upsert(List.of(row));
+                succeeded.add(retry);
+            } catch (Exception e) {
+                failed.add(retry.failed(RetryStage.DB_INSERTION, row.embedding(), e.getMessage(),
+                        nextAttemptAt(retry)));
+            }
+        });
+        return succeeded;
+    }
+
+    // 再処理できたチャンク数をファイル単位の進捗に反映する
+    // 範囲毎の処理と同時に更新されることがあるため、読み込んで書き戻さず、件数の差分を加算する (patch の increment)
+    private void updateJobs(List<RetryDocument> succeeded, ExecutionContext context) {
+        Map<String, Integer> recovered = new LinkedHashMap<>();
+        Map<String, Integer> reembedded = new LinkedHashMap<>();
+        succeeded.forEach(retry -> {
+            recovered.merge(retry.fileName(), 1, Integer::sum);
+            if (retry.stage() == RetryStage.EMBEDDING) {
+                reembedded.merge(retry.fileName(), 1, Integer::sum);
+            }
+        });
+        recovered.forEach((fileName, count) -> {
+            IngestionJobDocument delta = new IngestionJobDocument(
+                    IngestionJobDocument.jobId(fileName), IngestionJobDocument.TYPE, fileName,
+                    IngestionJobStatus.RUNNING, 0, reembedded.getOrDefault(fileName, 0), count,
+                    -count, 0, 0, 0, 0, 0, 0, System.currentTimeMillis(), List.of());
+            IngestionJobDocument job = cosmosDBUtil.addJobProgress(delta, context);
+            // 処理中のファイルは、処理の終了時に状態を書き込む
+            if (job == null || job.status() == IngestionJobStatus.RUNNING) {
+                return;
+            }
+            IngestionJobStatus status = job.failedChunks() > 0
+                    || job.insertedChunks() < job.totalChunks()
+                            ? IngestionJobStatus.COMPLETED_WITH_FAILURES
+                            : IngestionJobStatus.COMPLETED;
+            if (status != job.status()) {
+                cosmosDBUtil.writeJobStatus(job.id(), status, context);
+            }
+        });
+    }
+
+    private static VectorRow toRow(RetryDocument retry, float[] embedding) {
+        return new VectorRow(UUID.fromString(retry.chunkId()), embedding, retry.originText(),
+                retry.fileName(), retry.pageNumber());
+    }
+
+    // 失敗する度に間隔を 2 倍にする
+    private static long nextAttemptAt(RetryDocument retry) {
+        long backoff = INITIAL_BACKOFF_MILLIS << Math.min(retry.attempts(), 16);
+        return System.currentTimeMillis() + Math.min(MAX_BACKOFF_MILLIS, backoff);
+    }
+}
@@ -1,22 +1,29 @@
 package com.yoshio3;
 
 import com.microsoft.azure.functions.annotation.*;
+import com.yoshio3.PostgreSQLUtil.VectorRow;
 import com.yoshio3.models.CosmosDBDocumentStatus;
+import com.yoshio3.models.PageRangeWorkItem;
+import com.yoshio3.models.RetryDocument;
+import com.yoshio3.models.RetryStage;
 import com.azure.ai.openai.OpenAIClient;
 import com.azure.ai.openai.OpenAIClientBuilder;
-import com.azure.ai.openai.models.EmbeddingsOptions;
 import com.azure.core.credential.AzureKeyCredential;
+import com.azure.core.http.policy.FixedDelay;
+import com.azure.core.http.policy.RetryPolicy;
 import com.microsoft.azure.functions.*;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
-import java.sql.DriverManager;
-import java.sql.PreparedStatement;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 import java.util.UUID;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.IntConsumer;
 import java.util.stream.IntStream;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.text.PDFTextStripper;
@@ -28,96 +35,357 @@ public class Function {
     // Azure OpenAI のインスタンスの URL
     private static final String OPENAI_URL;
 
-    // Azure PostgreSQL の JDBC URL
-    private static final String POSTGRESQL_JDBC_URL;
-    // Azure PostgreSQL のユーザー名
-    private static final String POSTGRESQL_USER;
-    // Azure PostgreSQL のパスワード
-    private static final String POSTGRESQL_PASSWORD;
-    // Azure PostgreSQL のテーブル名
-    private static final String POSTGRESQL_TABLE_NAME;
-    // １ページに含まれる文字数の上限（これを超える場合はページを分割して処理する）
-    private static final int MAX_SEPARATE_TOKEN_LENGTH = 7500;
+    // Cosmos DB に処理状況をまとめて書き込む件数
+    private static final int COSMOS_DB_STATUS_MAX_PENDING;
+    // チャンク毎の処理状況を Cosmos DB に書き込む範囲 ("failures": 失敗したチャンクのみ, "all": 全チャンク)
+    // ファイル単位の進捗 (IngestionJobDocument) はどちらの場合も書き込む
+    private static final boolean COSMOS_DB_CHUNK_STATUS_FAILURES_ONLY;
+    // PostgreSQL への挿入を 1 トランザクションでまとめて行うか否か
+    private static final boolean POSTGRESQL_BULK_INSERT_ENABLED;
+    // 同じファイルの再登録時に、変更のあった行のみ更新し、なくなった行を削除するか否か
+    private static final boolean INCREMENTAL_INGESTION_ENABLED;
+    // PDF のテキスト抽出を並列に行い、抽出できたものから順次処理するか否か
+    private static final boolean PIPELINE_ENABLED;
+    // パイプラインで並列にテキスト抽出を行うスレッド数
+    private static final int PIPELINE_WORKERS;
+    // パイプラインのキューに保持するチャンク数の上限
+    private static final int PIPELINE_QUEUE_CAPACITY;
+    // パイプラインの抽出スレッドが 1 度に処理するページ数
+    private static final int PIPELINE_PAGES_PER_RANGE;
+    // パイプラインから Embedding・挿入処理に 1 度に渡すチャンク数
+    // (Embedding の並列数分のバッチを同時に呼び出せるよう、既定値は 1 バッチの件数 x 並列数)
+    private static final int PIPELINE_BATCH_SIZE;
+    // テキストの分割方法 ("token": トークン数で分割, "character": 文字数で分割)
+    private static final String CHUNKER_TYPE;
+    // 1 チャンクに含めるトークン数の上限
+    private static final int CHUNK_MAX_TOKENS;
+    // 前後のチャンクで重複させるトークン数
+    private static final int CHUNK_OVERLAP_TOKENS;
+    // このサイズ（バイト）を超える PDF は一時ファイル経由で読み込む
+    private static final long PDF_LARGE_FILE_THRESHOLD_BYTES;
+    // 一時ファイル経由で読み込む場合に PDFBox がヒープ上に保持するバッファの上限（バイト）
+    private static final long PDF_MAX_MAIN_MEMORY_BYTES;
+    // Azure OpenAI Embedding のモデル名
+    private static final String TEXT_EMBEDDING_ADA = "text-embedding-ada-002";
+    // Azure OpenAI Embedding の呼び出し先 URL（ローカルのスタブを利用する場合に設定）
+    private static final String OPENAI_EMBEDDING_URL;
+    // 1 回の Embedding 呼び出しにまとめるチャンク数の上限
+    private static final int EMBEDDING_BATCH_MAX_ITEMS;
+    // 1 回の Embedding 呼び出しにまとめるトークン数の上限
+    private static final int EMBEDDING_BATCH_MAX_TOKENS;
+    // Azure OpenAI の呼び出しリトライ回数
+    private static final int MAX_OPENAI_INVOCATION_RETRY_COUNT;
+    // Azure OpenAI のクォータに合わせて呼び出しを制御するリミッター（Functions ホスト内で共有）
+    private static final OpenAIRateLimiter OPENAI_RATE_LIMITER;
+    // Azure OpenAI Embedding を並列に呼び出す数
+    private static final int EMBEDDING_CONCURRENCY;
+    // Azure OpenAI Embedding を並列に呼び出すためのスレッド・プール（Functions ホスト内で共有）
+    private static final ExecutorService EMBEDDING_EXECUTOR;
+    // チャンクのハッシュ値をキーに、取得済みのベクター配列を再利用するか否か
+    private static final boolean EMBEDDING_CACHE_ENABLED;
+    // ベクター配列のキャッシュを保存する PostgreSQL のテーブル名
+    private static final String EMBEDDING_CACHE_TABLE_NAME;
+    // プロセス内に保持するベクター配列のキャッシュ数 (0 の場合は PostgreSQL のみ利用)
+    private static final int EMBEDDING_CACHE_LOCAL_SIZE;
+    // PDF をページ範囲毎のメッセージに分けてキューに送信し、複数のインスタンスで並行して処理するか否か
+    private static final boolean QUEUE_FAN_OUT_ENABLED;
+    // キューに送信する 1 メッセージあたりのページ数
+    private static final int QUEUE_FAN_OUT_PAGES_PER_ITEM;
+    // 登録に失敗したチャンクを 1 回の再処理で処理する件数
+    private static final int RETRY_BATCH_SIZE;
+    // 登録に失敗したチャンクを自動で再処理する回数の上限
+    private static final int RETRY_MAX_ATTEMPTS;
     // Azure OpenAI のクライアント・インスタンス
     private OpenAIClient client;
+    // 複数チャンクをまとめて Embedding を呼び出すためのインスタンス
+    private EmbeddingBatcher embeddingBatcher;
+    // 取得済みのベクター配列を再利用するためのインスタンス
+    private EmbeddingCache embeddingCache;
+    // PDF のページからテキストを抽出するためのインスタンス
+    private PdfTextExtractor pdfTextExtractor;
+    // キューから受信したページ範囲を処理するためのインスタンス
+    private PageRangeProcessor pageRangeProcessor;
+    // テキスト抽出と Embedding・挿入を並行して行うためのインスタンス
+    private IngestionPipeline ingestionPipeline;
+    // 登録に失敗したチャンクを再処理するためのインスタンス
+    private FailedChunkReprocessor failedChunkReprocessor;
 
-    // Azure OpenAI の呼び出し間隔（ミリ秒）
-    private final static int OPENAI_INVOCATION_INTERVAL = 20;
-
-    // Azure OpenAI の呼び出しリトライ回数
-    private static final int MAX_OPENAI_INVOCATION_RETRY_COUNT = 3;
     // Azure Cosmos DB のクライアント・インスタンス
     CosmosDBUtil cosmosDBUtil;
+    // Azure PostgreSQL への書き込み用インスタンス
+    PostgreSQLUtil postgreSQLUtil;
+    // Azure Blob Storage から PDF をダウンロードするためのインスタンス
+    BlobStorageUtil blobStorageUtil;
 
     static {
         OPENAI_API_KEY = System.getenv("AzureOpenaiApiKey");
         OPENAI_URL = System.getenv("AzureOpenaiUrl");
 
-        POSTGRESQL_JDBC_URL = System.getenv("AzurePostgresqlJdbcurl");
-        POSTGRESQL_USER = System.getenv("AzurePostgresqlUser");
-        POSTGRESQL_PASSWORD = System.getenv("AzurePostgresqlPassword");
-        POSTGRESQL_TABLE_NAME = System.getenv("AzurePostgresqlDbTableName");
+        POSTGRESQL_BULK_INSERT_ENABLED =
+                EnvironmentUtil.getBoolean("AzurePostgresqlBulkInsertEnabled", false);
+        COSMOS_DB_STATUS_MAX_PENDING = EnvironmentUtil.getInt("AzureCosmosDbStatusMaxPending", 100);
+        COSMOS_DB_CHUNK_STATUS_FAILURES_ONLY = !"all".equalsIgnoreCase(
+                EnvironmentUtil.getString("AzureCosmosDbChunkStatusMode", "failures"));
+        INCREMENTAL_INGESTION_ENABLED =
+                EnvironmentUtil.getBoolean("IncrementalIngestionEnabled", false);
+        PIPELINE_ENABLED = EnvironmentUtil.getBoolean("PdfPipelineEnabled", false);
+        PIPELINE_WORKERS = EnvironmentUtil.getInt("PdfPipelineWorkers",
+                Runtime.getRuntime().availableProcessors());
+        PIPELINE_QUEUE_CAPACITY = EnvironmentUtil.getInt("PdfPipelineQueueCapacity", 64);
+        PIPELINE_PAGES_PER_RANGE = EnvironmentUtil.getInt("PdfPipelinePagesPerRange", 8);
+        CHUNKER_TYPE = EnvironmentUtil.getString("PdfChunkerType", "token");
+        CHUNK_MAX_TOKENS = EnvironmentUtil.getInt("PdfChunkMaxTokens", 7000);
+        CHUNK_OVERLAP_TOKENS = EnvironmentUtil.getInt("PdfChunkOverlapTokens", 0);
+        PDF_LARGE_FILE_THRESHOLD_BYTES =
+                EnvironmentUtil.getLong("PdfLargeFileThresholdBytes", 50L * 1024 * 1024);
+        PDF_MAX_MAIN_MEMORY_BYTES =
+                EnvironmentUtil.getLong("PdfMaxMainMemoryBytes", 64L * 1024 * 1024);
+
+        OPENAI_EMBEDDING_URL = EnvironmentUtil.getString("AzureOpenaiEmbeddingUrl", OPENAI_URL);
+        EMBEDDING_BATCH_MAX_ITEMS = EnvironmentUtil.getInt("AzureOpenaiEmbeddingBatchMaxItems", 16);
+        EMBEDDING_BATCH_MAX_TOKENS =
+                EnvironmentUtil.getInt("AzureOpenaiEmbeddingBatchMaxTokens", 60000);
+        MAX_OPENAI_INVOCATION_RETRY_COUNT = EnvironmentUtil.getInt("AzureOpenaiMaxRetryCount", 5);
+        OPENAI_RATE_LIMITER = new OpenAIRateLimiter(
+                EnvironmentUtil.getInt("AzureOpenaiEmbeddingTokensPerMinute", 120000),
+                EnvironmentUtil.getInt("AzureOpenaiEmbeddingRequestsPerMinute", 720));
+        EMBEDDING_CACHE_ENABLED = EnvironmentUtil.getBoolean("EmbeddingCacheEnabled", true);
+        EMBEDDING_CACHE_TABLE_NAME = EnvironmentUtil
+                .getString("AzurePostgresqlEmbeddingCacheTableName", "EMBEDDING_CACHE");
+        EMBEDDING_CACHE_LOCAL_SIZE = EnvironmentUtil.getInt("EmbeddingCacheLocalSize", 1000);
+        QUEUE_FAN_OUT_ENABLED = EnvironmentUtil.getBoolean("QueueFanOutEnabled", false);
+        QUEUE_FAN_OUT_PAGES_PER_ITEM =
+                Math.max(1, EnvironmentUtil.getInt("QueueFanOutPagesPerItem", 16));
+        RETRY_BATCH_SIZE = EnvironmentUtil.getInt("RetryBatchSize", 100);
+        RETRY_MAX_ATTEMPTS = EnvironmentUtil.getInt("RetryMaxAttempts", 10);
+        EMBEDDING_CONCURRENCY =
+                Math.max(1, EnvironmentUtil.getInt("AzureOpenaiEmbeddingConcurrency", 4));
+        PIPELINE_BATCH_SIZE = EnvironmentUtil.getInt("PdfPipelineBatchSize",
+                EMBEDDING_BATCH_MAX_ITEMS * EMBEDDING_CONCURRENCY);
+        EMBEDDING_EXECUTOR = Executors.newFixedThreadPool(EMBEDDING_CONCURRENCY,
+                runnable -> {
+                    Thread thread = new Thread(runnable, "embedding-dispatcher");
+                    thread.setDaemon(true);
+                    return thread;
+                });
     }
 
     public Function() {
+        // 429 などのリトライは EmbeddingBatcher で行うため、SDK の既定のリトライは無効にする
+        // (SDK と二重にリトライすると、待機時間と呼び出し回数が maxRetryCount の想定を超える)
         client = new OpenAIClientBuilder().credential(new AzureKeyCredential(OPENAI_API_KEY))
-                .endpoint(OPENAI_URL).buildClient();
+                .endpoint(OPENAI_EMBEDDING_URL)
+                .retryPolicy(new RetryPolicy(new FixedDelay(0, Duration.ZERO))).buildClient();
+        embeddingBatcher = new EmbeddingBatcher(client, TEXT_EMBEDDING_ADA,
+                EMBEDDING_BATCH_MAX_ITEMS, EMBEDDING_BATCH_MAX_TOKENS,
+                MAX_OPENAI_INVOCATION_RETRY_COUNT, OPENAI_RATE_LIMITER, EMBEDDING_EXECUTOR);
+        embeddingCache = new EmbeddingCache(embeddingBatcher, TEXT_EMBEDDING_ADA,
+                EMBEDDING_CACHE_TABLE_NAME, EMBEDDING_CACHE_LOCAL_SIZE);
         cosmosDBUtil = new CosmosDBUtil();
+        postgreSQLUtil = new PostgreSQLUtil();
+        blobStorageUtil = new BlobStorageUtil();
+        pdfTextExtractor = new PdfTextExtractor(
+                TextChunker.create(CHUNKER_TYPE, CHUNK_MAX_TOKENS, CHUNK_OVERLAP_TOKENS));
+        pageRangeProcessor = new PageRangeProcessor(cosmosDBUtil, pdfTextExtractor,
+                PDF_LARGE_FILE_THRESHOLD_BYTES, PDF_MAX_MAIN_MEMORY_BYTES,
+                blobStorageUtil::deletePageRange);
+        ingestionPipeline = new IngestionPipeline(pdfTextExtractor, PIPELINE_WORKERS,
+                PIPELINE_QUEUE_CAPACITY, PIPELINE_PAGES_PER_RANGE, PIPELINE_BATCH_SIZE, 200);
+        // 再処理でのリトライは RetryDocument の attempts で数えるため、状態の通知は不要
+        failedChunkReprocessor = new FailedChunkReprocessor(cosmosDBUtil, postgreSQLUtil,
+                (chunks, context) -> EMBEDDING_CACHE_ENABLED
+                        ? embeddingCache.embed(chunks, index -> {}, context)
+                        : embeddingBatcher.embed(chunks, index -> {}, context),
+                RETRY_BATCH_SIZE, RETRY_MAX_ATTEMPTS);
     }
 
     // 注意：applications.properties で "azure.blobstorage.container.name=pdfs" を変更した場合は
     // @BlobTrigger, @BlobInput の path も変更する必要があります。 デフォルト値：(pdfs/{name})
     // 理由は、path で指定できる値は、constants で定義されているものだけで、プロパティから取得することはできないためです。
+    // QueueFanOutEnabled が true の場合は、ページ数のみを取得してページ範囲毎のメッセージをキューに送信し、
+    // 各範囲の処理は ProcessPageRange が複数のインスタンスで並行して行います。
+    // Blob トリガーは PDF 全体を byte[] で受け取るため、サイズの大きな PDF を扱う場合は
+    // ProcessUploadedFileEvent を利用してください。
     @FunctionName("ProcessUploadedFile")
     @StorageAccount("AzureWebJobsStorage")
     public void run(
             @BlobTrigger(
                     name = "content", path = "pdfs/{name}", dataType = "binary") byte[] content,
             @BindingName("name") String fileName,
-            @BlobInput(name = "inputBlob", path = "pdfs/{name}",
-                    dataType = "binary") byte[] inputBlob,
+            @QueueOutput(name = "workItems", queueName = "pdf-page-ranges",
+                    connection = "AzureWebJobsStorage") OutputBinding<List<String>> workItems,
             final ExecutionContext context) throws UnsupportedEncodingException {
         String encodedFileName = URLEncoder.encode(fileName, "UTF-8");
         context.getLogger().info(encodedFileName);
 
-        if (fileName.endsWith(".pdf")) {
-            var extractPDFtoTextByPage = extractPDFtoTextByPage(content, context);
-            extractPDFtoTextByPage.forEach(pageInfo -> insertDataToPostgreSQL(pageInfo.text(),
-                    context, fileName, pageInfo.pageNumber()));
+        if (!fileName.endsWith(".pdf")) {
+            return;
+        }
+        // ファイル単位の進捗 (チャンク数と各段階の処理時間) を記録する
+        IngestionJobTracker jobTracker = new IngestionJobTracker(cosmosDBUtil, fileName, context);
+        // サイズの大きな PDF は一時ファイル経由で、ヒープの使用量を抑えて読み込む
+        try (PdfSource source = PdfSource.create(content, PDF_LARGE_FILE_THRESHOLD_BYTES,
+                PDF_MAX_MAIN_MEMORY_BYTES, context)) {
+            ingest(source, fileName, jobTracker, workItems, context);
+        } catch (IOException e) {
+            context.getLogger().severe("Error while loading PDF: " + e.getMessage());
+            e.printStackTrace();
+            jobTracker.finish();
+        }
+    }
+
+    // Event Grid の BlobCreated イベントで起動し、PDF をヒープに読み込まずに一時ファイルへダウンロードして処理する
+    // 利用する場合は、pdfs コンテナの BlobCreated イベントのサブスクリプションをこの関数に作成し、
+    // アプリケーション設定 "AzureWebJobs.ProcessUploadedFile.Disabled" を true にして Blob トリガーを無効にします。
+    @FunctionName("ProcessUploadedFileEvent")
+    public void runFromEvent(
+            @EventGridTrigger(name = "event") String event,
+            @QueueOutput(name = "workItems", queueName = "pdf-page-ranges",
+                    connection = "AzureWebJobsStorage") OutputBinding<List<String>> workItems,
+            final ExecutionContext context) {
+        String fileName = BlobStorageUtil.blobNameFromEvent(event);
+        if (fileName == null || !fileName.endsWith(".pdf")) {
+            return;
+        }
+        context.getLogger().info(fileName);
+        IngestionJobTracker jobTracker = new IngestionJobTracker(cosmosDBUtil, fileName, context);
+        try (PdfSource source = PdfSource.fromFile(blobStorageUtil.downloadToTempFile(fileName),
+                PDF_MAX_MAIN_MEMORY_BYTES)) {
+            ingest(source, fileName, jobTracker, workItems, context);
+        } catch (IOException e) {
+            context.getLogger().severe("Error while loading PDF: " + e.getMessage());
+            e.printStackTrace();
+            jobTracker.finish();
+        }
+    }
+
+    // PDF のテキストを抽出してベクター化し、PostgreSQL に登録する
+    // QueueFanOutEnabled が true の場合は、ページ範囲毎のメッセージをキューに送信する
+    private void ingest(PdfSource source, String fileName, IngestionJobTracker jobTracker,
+            OutputBinding<List<String>> workItems, ExecutionContext context) {
+        if (QUEUE_FAN_OUT_ENABLED) {
+            enqueuePageRanges(source, fileName, jobTracker, workItems, context);
+            return;
+        }
+        jobTracker.progress();
+        // 差分登録モードでは PDF 全体を 1 トランザクションで登録し直すため、パイプラインは利用しない
+        if (PIPELINE_ENABLED && !INCREMENTAL_INGESTION_ENABLED) {
+            ingestionPipeline.run(source, chunks -> {
+                processChunks(chunks, fileName, jobTracker, false, context);
+                jobTracker.progress();
+            }, context);
+            jobTracker.addExtractionFromElapsed();
+        } else {
+            long extractionStart = System.nanoTime();
+            var extractPDFtoTextByPage = extractPDFtoTextByPage(source, context);
+            jobTracker.addExtraction((System.nanoTime() - extractionStart) / 1_000_000);
+            processChunks(extractPDFtoTextByPage, fileName, jobTracker, false, context);
+        }
+        jobTracker.finish();
+    }
+
+    // キューに送信されたページ範囲 1 つ分のテキストを抽出し、ベクター化して PostgreSQL に挿入する
+    // PDF 全体ではなく、送信時に分割したその範囲のページのみの PDF (pdf-page-ranges コンテナ) を受け取る
+    // キューのメッセージは少なくとも 1 回配信される (同じ範囲が再度配信される場合もある) ため、
+    // チャンクの ID はファイル名・ページ番号から決まる ID とし、挿入は upsert で行う
+    // 進捗の件数も範囲毎に 1 回のみ加算し、範囲の PDF は加算した後に削除する
+    @FunctionName("ProcessPageRange")
+    @StorageAccount("AzureWebJobsStorage")
+    public void processPageRange(
+            @QueueTrigger(name = "message", queueName = "pdf-page-ranges",
+                    connection = "AzureWebJobsStorage") String message,
+            @BlobInput(name = "content", path = "pdf-page-ranges/{rangeBlobName}",
+                    dataType = "binary") byte[] content,
+            final ExecutionContext context) {
+        PageRangeWorkItem workItem = PageRangeWorkItem.fromJson(message);
+        if (content == null) {
+            // 範囲の PDF は処理の終了後に削除するため、存在しない場合は処理済み
+            context.getLogger().info("Page range already processed: " + workItem.fileName()
+                    + " (" + (workItem.rangeIndex() + 1) + "/" + workItem.totalRanges() + ")");
+            return;
+        }
+        context.getLogger().info("Processing page range: " + workItem.fileName() + " ("
+                + workItem.startPage() + "-" + workItem.endPage() + ", "
+                + (workItem.rangeIndex() + 1) + "/" + workItem.totalRanges() + ")");
+        // 失敗した場合は例外を送出し、キューの再配信に任せる (進捗の加算と範囲の PDF の削除は成功した場合のみ)
+        pageRangeProcessor.process(workItem, content,
+                (chunks, jobTracker) -> processChunks(chunks, workItem.fileName(), jobTracker,
+                        true, context),
+                context);
+    }
+
+    // 登録に失敗したチャンクを定期的に再処理する (実行間隔は RetrySchedule の CRON 式で指定)
+    // 一覧画面の「すべて再試行」は、再処理の時刻と回数をリセットし、次回の実行で再処理させる
+    @FunctionName("ReprocessFailedChunks")
+    public void reprocessFailedChunks(
+            @TimerTrigger(name = "timer", schedule = "%RetrySchedule%") String timerInfo,
+            final ExecutionContext context) {
+        failedChunkReprocessor.process(context);
+    }
+
+    // PDF をページ範囲毎の PDF に分割して pdf-page-ranges コンテナに保存し、範囲毎のメッセージをキューに送信する
+    // (各範囲の処理では、PDF 全体ではなくその範囲の PDF のみをダウンロードする)
+    // (メッセージは関数の終了時に送信されるため、範囲の数を含む進捗はその前に書き込まれる)
+    private void enqueuePageRanges(PdfSource source, String fileName,
+            IngestionJobTracker jobTracker, OutputBinding<List<String>> workItems,
+            ExecutionContext context) {
+        // 同じファイルが再度アップロードされた場合に、処理中の範囲の PDF を上書きしないよう、実行毎の ID を付ける
+        String uploadId = UUID.randomUUID().toString();
+        List<String> messages = new ArrayList<>();
+        List<String> rangeBlobNames = new ArrayList<>();
+        int numberOfPages;
+        int totalRanges;
+        try (PDDocument document = source.load()) {
+            numberOfPages = document.getNumberOfPages();
+            if (numberOfPages == 0) {
+                jobTracker.finish();
+                return;
+            }
+            List<PageRangeWorkItem> ranges = PageRangeProcessor.plan(fileName, numberOfPages,
+                    QUEUE_FAN_OUT_PAGES_PER_ITEM, uploadId);
+            totalRanges = ranges.size();
+            for (PageRangeWorkItem range : ranges) {
+                uploadPageRange(document, range);
+                rangeBlobNames.add(range.rangeBlobName());
+                messages.add(range.toJson());
+            }
+        } catch (IOException e) {
+            context.getLogger().severe("Error while splitting PDF: " + e.getMessage());
+            e.printStackTrace();
+            rangeBlobNames.forEach(name -> blobStorageUtil.deletePageRange(name, context));
+            jobTracker.finish();
+            return;
+        }
+        jobTracker.startRanges(totalRanges);
+        workItems.setValue(messages);
+        context.getLogger().info("Enqueued page ranges: " + fileName + " pages " + numberOfPages
+                + " ranges " + totalRanges);
+    }
+
+    // document の範囲のページのみを含む PDF を作成し、pdf-page-ranges コンテナに保存する
+    private void uploadPageRange(PDDocument document, PageRangeWorkItem range)
+            throws IOException {
+        Path file = Files.createTempFile("blob-upload-detector-range-", ".pdf");
+        try {
+            PageRangeProcessor.writeRange(document, range.startPage(), range.endPage(), file);
+            blobStorageUtil.uploadPageRange(range.rangeBlobName(), file);
+        } finally {
+            Files.deleteIfExists(file);
         }
     }
 
-    private List<PageInfo> extractPDFtoTextByPage(byte[] content, ExecutionContext context) {
-        // String pdfFilePath = "/tmp/azure-app-service.pdf";
+    private List<PageInfo> extractPDFtoTextByPage(PdfSource source, ExecutionContext context) {
         List<PageInfo> allPages = new ArrayList<>();
 
-        try (PDDocument document = PDDocument.load(content)) {
-            // try (PDDocument document = PDDocument.load(new File(pdfFilePath))) {
-            PDFTextStripper textStripper = new PDFTextStripper();
+        try (PDDocument document = source.load()) {
+            PDFTextStripper textStripper = pdfTextExtractor.createTextStripper();
             int numberOfPages = document.getNumberOfPages();
 
             // PDF ファイルのページ数分ループ
             IntStream.rangeClosed(1, numberOfPages).forEach(pageNumber -> {
                 try {
-                    textStripper.setStartPage(pageNumber);
-                    textStripper.setEndPage(pageNumber);
-                    String pageText = textStripper.getText(document);
-                    // 改行コードを空白文字に置き換え
-                    pageText = pageText.replace("\n", " ");
-                    pageText = pageText.replaceAll("\\s{2,}", " ");
-
-                    // 1 ページのテキストが 7500 文字を超える場合は分割する
-                    if (pageText.length() > MAX_SEPARATE_TOKEN_LENGTH) {
-                        context.getLogger().fine("Split text: " + pageText.length());
-                        List<String> splitText = splitText(pageText, MAX_SEPARATE_TOKEN_LENGTH);
-                        splitText.forEach(text -> {
-                            PageInfo pageInfo = new PageInfo(pageNumber, text);
-                            allPages.add(pageInfo);
-                        });
-                    } else {
-                        PageInfo pageInfo = new PageInfo(pageNumber, pageText);
-                        allPages.add(pageInfo);
-                    }
+                    allPages.addAll(pdfTextExtractor.extractPage(document, textStripper,
+                            pageNumber, context));
                 } catch (IOException e) {
                     context.getLogger()
                             .severe("Error while extracting text from PDF: " + e.getMessage());
@@ -131,140 +399,166 @@ public class Function {
         return allPages;
     }
 
-    // PostgreSQL に Vector データを挿入するサンプル (text-embedding-ada-001)
-    private void insertDataToPostgreSQL(String originText, ExecutionContext context,
-            String fileName, int pageNumber) {
-        UUID uuid = UUID.randomUUID();
-        String uuidString = uuid.toString();
-        try {
-            cosmosDBUtil
-                    .createDocument(uuidString, fileName,
-                            CosmosDBDocumentStatus.PAGE_SEPARATE_FINISHED, pageNumber, context)
-                    .block();
+    // ページ毎に分割したテキストをまとめてベクター化し、PostgreSQL に挿入する
+    // pageRange が true の場合は、PDF の一部の範囲のみのため、なくなった行の削除は行わず upsert する
+    private void processChunks(List<PageInfo> chunks, String fileName,
+            IngestionJobTracker jobTracker, boolean pageRange, ExecutionContext context) {
+        StatusTracker statusTracker = new StatusTracker(cosmosDBUtil, COSMOS_DB_STATUS_MAX_PENDING,
+                COSMOS_DB_CHUNK_STATUS_FAILURES_ONLY, context);
+        jobTracker.addTotal(chunks.size());
+        List<String> uuids = new ArrayList<>(chunks.size());
+        chunks.forEach(pageInfo -> {
+            String uuidString = INCREMENTAL_INGESTION_ENABLED || pageRange
+                    ? pageInfo.chunkId(fileName).toString()
+                    : UUID.randomUUID().toString();
+            statusTracker.register(uuidString, fileName, pageInfo.pageNumber());
+            uuids.add(uuidString);
+        });
+        statusTracker.flush();
+
+        // OpenAI Text Embedding(text-embedding-ada-002) を複数チャンクまとめて呼び出しベクター配列を取得
+        // キャッシュが有効な場合は、内容が変わっていないチャンクのベクター配列を再利用する
+        IntConsumer onRetry = index -> statusTracker.transition(uuids.get(index),
+                CosmosDBDocumentStatus.RETRY_OAI_INVOCATION);
+        long embeddingStart = System.nanoTime();
+        var embeddedChunks = EMBEDDING_CACHE_ENABLED
+                ? embeddingCache.embed(chunks, onRetry, context)
+                : embeddingBatcher.embed(chunks, onRetry, context);
+        List<VectorRow> rows = new ArrayList<>(embeddedChunks.size());
+        // 登録できなかったチャンクは、PDF を再アップロードせずに再処理できるよう保存する
+        List<RetryDocument> retries = new ArrayList<>();
+        embeddedChunks.forEach(embeddedChunk -> {
+            String uuidString = uuids.get(embeddedChunk.index());
+            PageInfo pageInfo = embeddedChunk.pageInfo();
+            // リトライ回数の上限に達したチャンクは、空のベクター配列で挿入しない
+            if (embeddedChunk.embedding().length == 0) {
+                statusTracker.transition(uuidString, CosmosDBDocumentStatus.FAILED_OAI_INVOCATION);
+                retries.add(RetryDocument.create(uuidString, fileName, pageInfo.pageNumber(),
+                        pageInfo.text(), RetryStage.EMBEDDING, null,
+                        "Embedding retry count exceeded"));
+                return;
+            }
+            statusTracker.transition(uuidString, CosmosDBDocumentStatus.FINISH_OAI_INVOCATION);
+            rows.add(new VectorRow(UUID.fromString(uuidString), embeddedChunk.embedding(),
+                    pageInfo.text(), fileName, pageInfo.pageNumber()));
+        });
+        jobTracker.addEmbedded(rows.size(), (System.nanoTime() - embeddingStart) / 1_000_000);
 
-            // OpenAI Text Embedding(text-embedding-ada-002) を呼び出しベクター配列を取得
-            List<Double> embedding = invokeTextEmbedding(uuidString, originText, context);
-            cosmosDBUtil.updateStatus(uuidString, CosmosDBDocumentStatus.FINISH_OAI_INVOCATION,
+        long insertionStart = System.nanoTime();
+        List<VectorRow> failedRows = new ArrayList<>();
+        if (pageRange) {
+            upsertDataToPostgreSQL(rows, failedRows, statusTracker, context);
+        } else if (INCREMENTAL_INGESTION_ENABLED) {
+            List<UUID> retainedIds = new ArrayList<>(retries.size());
+            retries.forEach(retry -> retainedIds.add(UUID.fromString(retry.chunkId())));
+            replaceDataInPostgreSQL(fileName, rows, retainedIds, failedRows, statusTracker,
                     context);
+        } else if (POSTGRESQL_BULK_INSERT_ENABLED) {
+            bulkInsertDataToPostgreSQL(rows, failedRows, statusTracker, context);
+        } else {
+            for (VectorRow row : rows) {
+                insertDataToPostgreSQL(row, failedRows, statusTracker, context);
+            }
+        }
+        int inserted = rows.size() - failedRows.size();
+        jobTracker.addInserted(inserted, failedRows.size() + retries.size(),
+                (System.nanoTime() - insertionStart) / 1_000_000);
+        statusTracker.flush();
 
+        // 挿入に失敗したチャンクは、取得済みのベクター配列と共に保存する
+        failedRows.forEach(row -> retries.add(RetryDocument.create(row.id().toString(),
+                fileName, row.pageNumber(), row.originText(), RetryStage.DB_INSERTION,
+                row.embedding(), "Failed to insert data to PostgreSQL")));
+        if (!retries.isEmpty()) {
+            context.getLogger().info("Saving failed chunks for reprocessing: " + retries.size());
+            cosmosDBUtil.writeRetries(retries, context);
+        }
+    }
+
+    // PostgreSQL に Vector データを挿入するサンプル (text-embedding-ada-001)
+    // 挿入に失敗した行は failedRows に追加する
+    private void insertDataToPostgreSQL(VectorRow row, List<VectorRow> failedRows,
+            StatusTracker statusTracker, ExecutionContext context) {
+        String uuidString = row.id().toString();
+        try {
             // ベクター配列を PostgreSQL に挿入
-            var insertSql = "INSERT INTO " + POSTGRESQL_TABLE_NAME
-                    + " (id, embedding, origntext, fileName, pageNumber) VALUES (?, ?::vector, ?, ?, ?)";
-            try (var connection = DriverManager.getConnection(POSTGRESQL_JDBC_URL, POSTGRESQL_USER,
-                    POSTGRESQL_PASSWORD);
-                    PreparedStatement insertStatement = connection.prepareStatement(insertSql)) {
-                insertStatement.setObject(1, uuid);
-                insertStatement.setArray(2,
-                        connection.createArrayOf("double", embedding.toArray()));
-                insertStatement.setString(3, originText);
-                insertStatement.setString(4, fileName);
-                insertStatement.setInt(5, pageNumber);
-                insertStatement.executeUpdate();
-                cosmosDBUtil.updateStatus(uuidString, CosmosDBDocumentStatus.FINISH_DB_INSERTION,
-                        context);
-            }
-            // 暫定的対応：短時間に大量のリクエストを送るとエラーになるため、10秒間スリープ
-            sleep();
+            postgreSQLUtil.insert(row);
+            statusTracker.transition(uuidString, CosmosDBDocumentStatus.FINISH_DB_INSERTION);
         } catch (Exception e) {
             context.getLogger()
                     .severe("Error while inserting data to PostgreSQL: " + e.getMessage());
-            cosmosDBUtil.updateStatus(uuidString, CosmosDBDocumentStatus.FAILED_DB_INSERTION,
-                    context);
-            Thread.currentThread().interrupt();
+            statusTracker.transition(uuidString, CosmosDBDocumentStatus.FAILED_DB_INSERTION);
+            failedRows.add(row);
         }
-        cosmosDBUtil.updateStatus(uuidString, CosmosDBDocumentStatus.COMPLETED, context);
+        // 失敗した場合は FAILED_DB_INSERTION のまま (StatusTracker は失敗した状態を上書きしない)
+        statusTracker.transition(uuidString, CosmosDBDocumentStatus.COMPLETED);
     }
 
-    /**
-     * テキスト・エンべディングの検証サンプル (text-embedding-ada-002)
-     */
-    private List<Double> invokeTextEmbedding(String uuid, String originalText,
+    // PDF の全チャンクを 1 トランザクションで PostgreSQL に登録し直し、なくなったチャンクを削除
+    // 失敗した場合は全ての行を failedRows に追加する
+    private void replaceDataInPostgreSQL(String fileName, List<VectorRow> rows,
+            List<UUID> retainedIds, List<VectorRow> failedRows, StatusTracker statusTracker,
             ExecutionContext context) {
-        List<Double> embedding = new ArrayList<>();
-        var embeddingsOptions = new EmbeddingsOptions(Arrays.asList(originalText));
-
-        int retryCount = 0;
-        while (retryCount < MAX_OPENAI_INVOCATION_RETRY_COUNT) {
-            try {
-                // OpenAI API を呼び出し
-                var result = client.getEmbeddings("text-embedding-ada-002", embeddingsOptions);
-                // 利用状況を取得（使用したトークン数）
-                var usage = result.getUsage();
-                context.getLogger().info("Number of Prompt Token: " + usage.getPromptTokens()
-                        + "Number of Total Token: " + usage.getTotalTokens());
-                // ベクター配列を取得
-                var findFirst = result.getData().stream().findFirst();
-                if (findFirst.isPresent()) {
-                    embedding.addAll(findFirst.get().getEmbedding());
-                }
-                break;
-            } catch (Exception e) {
-                context.getLogger().severe("Error while invoking OpenAI: " + e.getMessage());
-                cosmosDBUtil.updateStatus(uuid, CosmosDBDocumentStatus.RETRY_OAI_INVOCATION,
-                        context);
-                retryCount++;
-                retrySleep();
-            }
+        CosmosDBDocumentStatus status;
+        try {
+            List<UUID> deletedIds = postgreSQLUtil.replaceFile(fileName, rows, retainedIds);
+            context.getLogger().info("Upserted rows to PostgreSQL: " + rows.size()
+                    + " Deleted stale rows: " + deletedIds.size());
+            List<String> deletedDocumentIds = new ArrayList<>(deletedIds.size());
+            deletedIds.forEach(id -> deletedDocumentIds.add(id.toString()));
+            cosmosDBUtil.deleteDocuments(deletedDocumentIds, context);
+            status = CosmosDBDocumentStatus.FINISH_DB_INSERTION;
+        } catch (Exception e) {
+            context.getLogger()
+                    .severe("Error while upserting data to PostgreSQL: " + e.getMessage());
+            status = CosmosDBDocumentStatus.FAILED_DB_INSERTION;
+            failedRows.addAll(rows);
         }
-        return embedding;
-    }
-
-    // 入力文字列を7500文字前後で分割し、句読点で区切られた部分で分割を行います。
-    // トークンは 8192 で 8000 で分割した経験上では命令を出す際にオーバフローすることがあるため
-    private List<String> splitText(String text, int maxLength) {
-        List<String> chunks = new ArrayList<>();
-        int textLength = text.length();
-
-        while (textLength > maxLength) {
-            int splitIndex = findSplitIndex(text, maxLength);
-            chunks.add(text.substring(0, splitIndex));
-            text = text.substring(splitIndex);
-            textLength = text.length();
+        for (VectorRow row : rows) {
+            statusTracker.transition(row.id().toString(), status);
+            statusTracker.transition(row.id().toString(), CosmosDBDocumentStatus.COMPLETED);
         }
-        chunks.add(text);
-        return chunks;
     }
 
-    // 入力文字列を7500文字の前後で分割し、区切り文字（。？！など）で分割を行います。
-    // また、適切な区切り文字が見つからない場合、単純に7500文字ごとに分割されます。
-    private int findSplitIndex(String text, int maxLength) {
-        // 7200-7500の文字の範囲で区切り文字を探す
-        int start = maxLength - 300;
-        int splitIndex = maxLength;
-        while (splitIndex > start) {
-            char c = text.charAt(splitIndex);
-            if (isPunctuation(c)) {
-                break;
-            }
-            splitIndex--;
+    // ページ範囲のチャンクを 1 トランザクションでまとめて PostgreSQL に upsert
+    // 失敗した場合は全ての行を failedRows に追加する
+    private void upsertDataToPostgreSQL(List<VectorRow> rows, List<VectorRow> failedRows,
+            StatusTracker statusTracker, ExecutionContext context) {
+        CosmosDBDocumentStatus status;
+        try {
+            postgreSQLUtil.upsert(rows);
+            context.getLogger().info("Upserted rows to PostgreSQL: " + rows.size());
+            status = CosmosDBDocumentStatus.FINISH_DB_INSERTION;
+        } catch (Exception e) {
+            context.getLogger()
+                    .severe("Error while upserting data to PostgreSQL: " + e.getMessage());
+            status = CosmosDBDocumentStatus.FAILED_DB_INSERTION;
+            failedRows.addAll(rows);
         }
-        if (splitIndex == 0) {
-            splitIndex = maxLength;
+        for (VectorRow row : rows) {
+            statusTracker.transition(row.id().toString(), status);
+            statusTracker.transition(row.id().toString(), CosmosDBDocumentStatus.COMPLETED);
         }
-        return splitIndex;
-    }
-
-    // 区切り文字の判定
-    private boolean isPunctuation(char c) {
-        return c == '.' || c == '。' || c == ';' || c == '；' || c == '!' || c == '！' || c == '?'
-                || c == '？';
     }
 
-    private void sleep() {
+    // PDF の全チャンクを 1 トランザクションでまとめて PostgreSQL に挿入
+    // 失敗した場合は全ての行を failedRows に追加する
+    private void bulkInsertDataToPostgreSQL(List<VectorRow> rows, List<VectorRow> failedRows,
+            StatusTracker statusTracker, ExecutionContext context) {
+        CosmosDBDocumentStatus status;
         try {
-            TimeUnit.MILLISECONDS.sleep(OPENAI_INVOCATION_INTERVAL);
-        } catch (InterruptedException interruptedException) {
-            interruptedException.printStackTrace();
-            Thread.currentThread().interrupt();
+            postgreSQLUtil.bulkInsert(rows);
+            context.getLogger().info("Bulk inserted rows to PostgreSQL: " + rows.size());
+            status = CosmosDBDocumentStatus.FINISH_DB_INSERTION;
+        } catch (Exception e) {
+            context.getLogger()
+                    .severe("Error while bulk inserting data to PostgreSQL: " + e.getMessage());
+            status = CosmosDBDocumentStatus.FAILED_DB_INSERTION;
+            failedRows.addAll(rows);
         }
-    }
-
-    private void retrySleep() {
-        try {
-            TimeUnit.SECONDS.sleep(10);
-        } catch (InterruptedException interruptedException) {
-            interruptedException.printStackTrace();
-            Thread.currentThread().interrupt();
+        for (VectorRow row : rows) {
+            statusTracker.transition(row.id().toString(), status);
+            statusTracker.transition(row.id().toString(), CosmosDBDocumentStatus.COMPLETED);
         }
     }
 
@@ -0,0 +1,153 @@
+package com.yoshio3;
+
+import com.microsoft.azure.functions.ExecutionContext;
+import com.yoshio3.models.IngestionJobDocument;
+import com.yoshio3.models.IngestionJobStatus;
+import java.util.List;
+
+// 1 ファイル分の登録処理の進捗を集計し、ファイル単位のドキュメント (IngestionJobDocument) として書き込むクラス
+// チャンク毎の状態の代わりに件数と処理時間のみを保持するため、Cosmos DB への書き込みは
+// 開始時・バッチ毎の進捗・終了時の数回で済みます。
+// ページ範囲毎に別のインスタンスで処理する場合は forRange() で作成し、各範囲の終了時に件数と処理時間を
+// 加算します。(同じファイルの範囲が並行して処理されるため、上書きせずに Cosmos DB 上で加算する)
+// 最後の範囲を加算した呼び出しが、ファイル全体の終了状態を書き込みます。
+// 同じ範囲の加算は 1 回のみ行うため、キューのメッセージが再度配信されても件数は変わりません。
+public class IngestionJobTracker {
+
+    private final StatusStore store;
+    private final String fileName;
+    private final ExecutionContext context;
+    private final long startedAt;
+    private final long startNanos;
+    // ページ範囲の 1 つを処理するか否か
+    private final boolean rangeMode;
+    // 処理するページ範囲の番号 (rangeMode の場合のみ)
+    private final int rangeIndex;
+
+    private int totalRanges = 1;
+    private int completedRanges;
+
+    private int totalChunks;
+    private int embeddedChunks;
+    private int insertedChunks;
+    private int failedChunks;
+    private long extractionMillis;
+    private long embeddingMillis;
+    private long insertionMillis;
+
+    public IngestionJobTracker(StatusStore store, String fileName, ExecutionContext context) {
+        this(store, fileName, false, 0, context);
+    }
+
+    private IngestionJobTracker(StatusStore store, String fileName, boolean rangeMode,
+            int rangeIndex, ExecutionContext context) {
+        this.store = store;
+        this.fileName = fileName;
+        this.rangeMode = rangeMode;
+        this.rangeIndex = rangeIndex;
+        this.context = context;
+        this.startedAt = System.currentTimeMillis();
+        this.startNanos = System.nanoTime();
+    }
+
+    // ページ範囲の 1 つ (rangeIndex) を処理するためのインスタンスを作成
+    public static IngestionJobTracker forRange(StatusStore store, String fileName, int rangeIndex,
+            ExecutionContext context) {
+        return new IngestionJobTracker(store, fileName, true, rangeIndex, context);
+    }
+
+    // ページ範囲毎に処理を分ける場合に、範囲の数を設定して開始を書き込む
+    public void startRanges(int ranges) {
+        synchronized (this) {
+            totalRanges = ranges;
+        }
+        progress();
+    }
+
+    public synchronized void addTotal(int chunks) {
+        totalChunks += chunks;
+    }
+
+    public synchronized void addEmbedded(int chunks, long millis) {
+        embeddedChunks += chunks;
+        embeddingMillis += millis;
+    }
+
+    public synchronized void addInserted(int inserted, int failed, long millis) {
+        insertedChunks += inserted;
+        failedChunks += failed;
+        insertionMillis += millis;
+    }
+
+    public synchronized void addExtraction(long millis) {
+        extractionMillis += millis;
+    }
+
+    // 開始からの経過時間のうち、Embedding と挿入以外に掛かった時間をテキスト抽出の時間とする
+    // (パイプラインでは抽出が後段と並行して行われるため、後段が抽出を待っていた時間になる)
+    public synchronized void addExtractionFromElapsed() {
+        long elapsedMillis = (System.nanoTime() - startNanos) / 1_000_000;
+        extractionMillis = Math.max(0, elapsedMillis - embeddingMillis - insertionMillis);
+    }
+
+    // 処理中の進捗を書き込む (ページ範囲の場合は、他の範囲の進捗を上書きしないよう終了時のみ加算する)
+    public void progress() {
+        if (rangeMode) {
+            return;
+        }
+        save(IngestionJobStatus.RUNNING);
+    }
+
+    // 処理の終了を書き込む
+    public void finish() {
+        if (rangeMode) {
+            finishRange();
+            return;
+        }
+        IngestionJobStatus status;
+        synchronized (this) {
+            completedRanges = totalRanges;
+            status = statusOf(totalChunks, insertedChunks, failedChunks);
+        }
+        save(status);
+        context.getLogger().info("Ingestion job finished: " + fileName + " " + snapshot(status));
+    }
+
+    // この範囲の件数と処理時間を加算し、全ての範囲が終了した場合はファイル全体の終了状態を書き込む
+    // (加算済みの範囲が再度配信された場合も、終了状態の書き込み前に中断した場合に備えて状態を確認する)
+    private void finishRange() {
+        IngestionJobDocument delta;
+        synchronized (this) {
+            completedRanges = 1;
+            delta = snapshot(IngestionJobStatus.RUNNING);
+        }
+        IngestionJobDocument job = store.addRangeProgress(delta, rangeIndex, context);
+        if (job == null || job.completedRanges() < job.totalRanges()
+                || job.status() != IngestionJobStatus.RUNNING) {
+            return;
+        }
+        IngestionJobStatus status =
+                statusOf(job.totalChunks(), job.insertedChunks(), job.failedChunks());
+        store.writeJobStatus(job.id(), status, context);
+        context.getLogger().info("Ingestion job finished: " + fileName + " " + status + " "
+                + job);
+    }
+
+    private static IngestionJobStatus statusOf(int total, int inserted, int failed) {
+        return failed > 0 || inserted < total
+                ? IngestionJobStatus.COMPLETED_WITH_FAILURES
+                : IngestionJobStatus.COMPLETED;
+    }
+
+    private void save(IngestionJobStatus status) {
+        store.writeJob(snapshot(status), context);
+    }
+
+    private synchronized IngestionJobDocument snapshot(IngestionJobStatus status) {
+        return new IngestionJobDocument(IngestionJobDocument.jobId(fileName),
+                IngestionJobDocument.TYPE, fileName, status, totalChunks, embeddedChunks,
+                insertedChunks, failedChunks, totalRanges, completedRanges, extractionMillis,
+                embeddingMillis, insertionMillis, startedAt, System.currentTimeMillis(),
+                List.of());
+    }
+}
@@ -0,0 +1,156 @@
+package com.yoshio3;
+
+import com.microsoft.azure.functions.ExecutionContext;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.text.PDFTextStripper;
+
+// PDF のテキスト抽出を複数スレッドで並列に行い、抽出できたチャンクから順次
+// Embedding・PostgreSQL への挿入処理に渡すパイプライン
+//
+// 抽出スレッドはページ範囲単位で処理を取得し、スレッド毎に PDDocument と PDFTextStripper を持ちます。
+// 抽出したチャンクはサイズ上限付きのキューに入れるため、後段の処理が遅い場合は抽出側が待機し、
+// 全ページ分のテキストがヒープに載ることはありません。
+public class IngestionPipeline {
+
+    // 抽出の終了を後段に伝えるためのマーカー
+    private static final PageInfo END_OF_PAGES = new PageInfo(-1, -1, "");
+
+    private final PdfTextExtractor pdfTextExtractor;
+    // 抽出スレッド数
+    private final int workers;
+    // 抽出スレッドと後段の間のキューのサイズ
+    private final int queueCapacity;
+    // 抽出スレッドが 1 度に取得するページ数
+    private final int pagesPerRange;
+    // 後段に 1 度に渡すチャンク数の上限
+    // 後段は呼び出し元のスレッドで 1 度に 1 つずつ処理されるため、Embedding を並列に呼び出せるよう
+    // 複数の Embedding のバッチ分の件数を指定する (Function では 1 バッチの件数 x 並列数)
+    private final int batchSize;
+    // キューが空の場合に、溜まっているチャンクを後段に渡すまでの待ち時間（ミリ秒）
+    private final long flushIntervalMillis;
+
+    public IngestionPipeline(PdfTextExtractor pdfTextExtractor, int workers, int queueCapacity,
+            int pagesPerRange, int batchSize, long flushIntervalMillis) {
+        this.pdfTextExtractor = pdfTextExtractor;
+        this.workers = Math.max(1, workers);
+        this.queueCapacity = Math.max(1, queueCapacity);
+        this.pagesPerRange = Math.max(1, pagesPerRange);
+        this.batchSize = Math.max(1, batchSize);
+        this.flushIntervalMillis = Math.max(1, flushIntervalMillis);
+    }
+
+    // PDF を処理し、抽出したチャンクを batchSize 件毎に batchConsumer に渡します。
+    // batchConsumer は呼び出し元のスレッドで実行されます。
+    public void run(PdfSource source, Consumer<List<PageInfo>> batchConsumer,
+            ExecutionContext context) {
+        long startTime = System.nanoTime();
+        int numberOfPages;
+        try (PDDocument document = source.load()) {
+            numberOfPages = document.getNumberOfPages();
+        } catch (IOException e) {
+            context.getLogger().severe("Error while extracting text from PDF: " + e.getMessage());
+            e.printStackTrace();
+            return;
+        }
+
+        BlockingQueue<PageInfo> queue = new ArrayBlockingQueue<>(queueCapacity);
+        AtomicInteger nextPage = new AtomicInteger(1);
+        int workerCount = Math.min(workers, (numberOfPages + pagesPerRange - 1) / pagesPerRange);
+        AtomicInteger runningWorkers = new AtomicInteger(workerCount);
+        if (workerCount == 0) {
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(workerCount);
+        for (int i = 0; i < workerCount; i++) {
+            executor.submit(() -> extractPages(source, workerCount, numberOfPages, nextPage,
+                    queue, runningWorkers, context));
+        }
+
+        boolean firstBatch = true;
+        int processed = 0;
+        List<PageInfo> batch = new ArrayList<>(batchSize);
+        try {
+            while (true) {
+                PageInfo pageInfo = batch.isEmpty() ? queue.take()
+                        : queue.poll(flushIntervalMillis, TimeUnit.MILLISECONDS);
+                boolean finished = pageInfo == END_OF_PAGES;
+                if (pageInfo != null && !finished) {
+                    batch.add(pageInfo);
+                }
+                if (!batch.isEmpty()
+                        && (pageInfo == null || finished || batch.size() >= batchSize)) {
+                    if (firstBatch) {
+                        context.getLogger().info("Time to first batch (ms): "
+                                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+                        firstBatch = false;
+                    }
+                    processed += batch.size();
+                    batchConsumer.accept(batch);
+                    batch = new ArrayList<>(batchSize);
+                }
+                if (finished) {
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            context.getLogger().severe("Ingestion pipeline interrupted: " + e.getMessage());
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+        }
+        context.getLogger().info("Pipeline processed chunks: " + processed + " pages: "
+                + numberOfPages + " elapsed (ms): "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+    }
+
+    // 抽出スレッドの処理：未処理のページ範囲がなくなるまでテキストを抽出しキューに入れる
+    // 各スレッドが PDDocument を開くため、ヒープ上のバッファの上限はスレッド数で等分する
+    private void extractPages(PdfSource source, int workerCount, int numberOfPages,
+            AtomicInteger nextPage, BlockingQueue<PageInfo> queue, AtomicInteger runningWorkers,
+            ExecutionContext context) {
+        try (PDDocument document = source.load(workerCount)) {
+            PDFTextStripper textStripper = pdfTextExtractor.createTextStripper();
+            int startPage;
+            while ((startPage = nextPage.getAndAdd(pagesPerRange)) <= numberOfPages) {
+                int endPage = Math.min(startPage + pagesPerRange - 1, numberOfPages);
+                for (int pageNumber = startPage; pageNumber <= endPage; pageNumber++) {
+                    try {
+                        for (PageInfo pageInfo : pdfTextExtractor.extractPage(document,
+                                textStripper, pageNumber, context)) {
+                            queue.put(pageInfo);
+                        }
+                    } catch (IOException e) {
+                        context.getLogger().severe(
+                                "Error while extracting text from PDF: " + e.getMessage());
+                        e.printStackTrace();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            context.getLogger().severe("Error while extracting text from PDF: " + e.getMessage());
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } finally {
+            if (runningWorkers.decrementAndGet() == 0 && !Thread.currentThread().isInterrupted()) {
+                try {
+                    queue.put(END_OF_PAGES);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+}
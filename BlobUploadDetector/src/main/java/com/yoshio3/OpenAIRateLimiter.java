@@ -0,0 +1,77 @@
+package com.yoshio3;
+
+import java.util.concurrent.TimeUnit;
+
+// Azure OpenAI のクォータ (1 分あたりのトークン数・リクエスト数) に合わせて呼び出しを制御するトークン・バケット
+// Azure OpenAI は 1 分より短い間隔でもクォータを評価するため、バケットの容量は 1 分あたりの値の 1/6 (10 秒分) とします。
+// 429 (Too Many Requests) を受け取った場合は pause() で全スレッドの呼び出しを一時停止します。
+public class OpenAIRateLimiter {
+
+    private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private static final long MINUTE_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final double tokenCapacity;
+    private final double requestCapacity;
+    // 1 ナノ秒あたりに補充するトークン数・リクエスト数
+    private final double tokensPerNano;
+    private final double requestsPerNano;
+
+    private double availableTokens;
+    private double availableRequests;
+    private long lastRefillNanos;
+    private long pausedUntilNanos;
+
+    public OpenAIRateLimiter(int tokensPerMinute, int requestsPerMinute) {
+        this.tokensPerNano = (double) Math.max(1, tokensPerMinute) / MINUTE_NANOS;
+        this.requestsPerNano = (double) Math.max(1, requestsPerMinute) / MINUTE_NANOS;
+        this.tokenCapacity = Math.max(1, tokensPerNano * WINDOW_NANOS);
+        this.requestCapacity = Math.max(1, requestsPerNano * WINDOW_NANOS);
+        this.availableTokens = tokenCapacity;
+        this.availableRequests = requestCapacity;
+        this.lastRefillNanos = System.nanoTime();
+        this.pausedUntilNanos = lastRefillNanos;
+    }
+
+    // tokens 分のトークンと 1 リクエスト分の枠が空くまで待機します。
+    // バケットの容量を超えるリクエストは、バケットが満杯になった時点で実行します。
+    public synchronized void acquire(int tokens) throws InterruptedException {
+        double cost = Math.min(tokens, tokenCapacity);
+        while (true) {
+            long now = System.nanoTime();
+            refill(now);
+            long waitNanos;
+            if (pausedUntilNanos - now > 0) {
+                waitNanos = pausedUntilNanos - now;
+            } else if (availableTokens >= cost && availableRequests >= 1) {
+                availableTokens -= cost;
+                availableRequests -= 1;
+                return;
+            } else {
+                waitNanos = Math.max((long) ((cost - availableTokens) / tokensPerNano),
+                        (long) ((1 - availableRequests) / requestsPerNano));
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, Math.max(1, waitNanos));
+        }
+    }
+
+    // 指定した時間、全ての呼び出しを停止します (Retry-After への対応)
+    public synchronized void pause(long millis) {
+        long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        if (until - pausedUntilNanos > 0) {
+            pausedUntilNanos = until;
+        }
+        // 停止中はバケットに溜まった枠を使わせない
+        availableTokens = 0;
+        availableRequests = 0;
+    }
+
+    private void refill(long now) {
+        long elapsed = now - lastRefillNanos;
+        if (elapsed > 0) {
+            availableTokens = Math.min(tokenCapacity, availableTokens + elapsed * tokensPerNano);
+            availableRequests =
+                    Math.min(requestCapacity, availableRequests + elapsed * requestsPerNano);
+            lastRefillNanos = now;
+        }
+    }
+}
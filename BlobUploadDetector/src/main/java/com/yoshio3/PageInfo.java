@@ -1,3 +1,14 @@
 package com.yoshio3;
 
-public record PageInfo (int pageNumber, String text) {}
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+// chunkIndex: 1 ページを複数に分割した場合の、ページ内での分割番号 (0 から開始)
+public record PageInfo (int pageNumber, int chunkIndex, String text) {
+
+    // ファイル名・ページ番号・分割番号から決まる ID (同じファイルを再登録した場合に同じ ID になる)
+    public UUID chunkId(String fileName) {
+        String key = fileName + "#page=" + pageNumber + "#chunk=" + chunkIndex;
+        return UUID.nameUUIDFromBytes(key.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,109 @@
+package com.yoshio3;
+
+import com.microsoft.azure.functions.ExecutionContext;
+import com.yoshio3.models.PageRangeWorkItem;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+import org.apache.pdfbox.multipdf.Splitter;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.text.PDFTextStripper;
+
+// PDF をページ範囲毎に分けて処理する場合の、範囲の分割と、キューから受信した 1 範囲分の処理
+//
+// 送信側 (Function.enqueuePageRanges) は plan() で範囲を決め、writeRange() で範囲毎の PDF を作成します。
+// 受信側 (Function.processPageRange) は process() でその範囲の PDF のテキストを抽出して登録します。
+// 処理に失敗した場合は例外を送出し、キューの再配信 (上限を超えた場合は poison キュー) に任せます。
+// 進捗の加算と範囲の PDF の削除は、処理が成功した場合のみ行います。
+public class PageRangeProcessor {
+
+    private final StatusStore statusStore;
+    private final PdfTextExtractor pdfTextExtractor;
+    // このサイズ（バイト）を超える PDF は一時ファイル経由で読み込む
+    private final long largeFileThresholdBytes;
+    // 一時ファイル経由で読み込む場合に PDFBox がヒープ上に保持するバッファの上限（バイト）
+    private final long maxMainMemoryBytes;
+    // 処理の終了した範囲の PDF を削除する (引数はブロブ名)
+    private final BiConsumer<String, ExecutionContext> rangeDeleter;
+
+    public PageRangeProcessor(StatusStore statusStore, PdfTextExtractor pdfTextExtractor,
+            long largeFileThresholdBytes, long maxMainMemoryBytes,
+            BiConsumer<String, ExecutionContext> rangeDeleter) {
+        this.statusStore = statusStore;
+        this.pdfTextExtractor = pdfTextExtractor;
+        this.largeFileThresholdBytes = largeFileThresholdBytes;
+        this.maxMainMemoryBytes = maxMainMemoryBytes;
+        this.rangeDeleter = rangeDeleter;
+    }
+
+    // numberOfPages ページの PDF を pagesPerItem ページ毎の範囲に分ける (最後の範囲は残りのページのみ)
+    // 範囲の PDF のブロブ名は "<uploadId>/<範囲の番号>.pdf" とする
+    public static List<PageRangeWorkItem> plan(String fileName, int numberOfPages,
+            int pagesPerItem, String uploadId) {
+        int totalRanges = (numberOfPages + pagesPerItem - 1) / pagesPerItem;
+        List<PageRangeWorkItem> workItems = new ArrayList<>(totalRanges);
+        for (int rangeIndex = 0; rangeIndex < totalRanges; rangeIndex++) {
+            int startPage = rangeIndex * pagesPerItem + 1;
+            int endPage = Math.min(numberOfPages, startPage + pagesPerItem - 1);
+            workItems.add(new PageRangeWorkItem(fileName, startPage, endPage, rangeIndex,
+                    totalRanges, uploadId + "/" + rangeIndex + ".pdf"));
+        }
+        return workItems;
+    }
+
+    // document の startPage から endPage までのページのみを含む PDF を作成し、file に保存する
+    public static void writeRange(PDDocument document, int startPage, int endPage, Path file)
+            throws IOException {
+        Splitter splitter = new Splitter();
+        splitter.setStartPage(startPage);
+        splitter.setEndPage(endPage);
+        splitter.setSplitAtPage(endPage - startPage + 1);
+        List<PDDocument> parts = splitter.split(document);
+        try {
+            parts.get(0).save(file.toFile());
+        } finally {
+            for (PDDocument part : parts) {
+                part.close();
+            }
+        }
+    }
+
+    // 範囲の PDF (content) のテキストを抽出し、chunkProcessor でベクター化・挿入する
+    // 読み込みや抽出に失敗した場合は UncheckedIOException を送出し、進捗の加算と範囲の PDF の削除は行わない
+    public void process(PageRangeWorkItem workItem, byte[] content,
+            BiConsumer<List<PageInfo>, IngestionJobTracker> chunkProcessor,
+            ExecutionContext context) {
+        IngestionJobTracker jobTracker = IngestionJobTracker.forRange(statusStore,
+                workItem.fileName(), workItem.rangeIndex(), context);
+        try (PdfSource source = PdfSource.create(content, largeFileThresholdBytes,
+                maxMainMemoryBytes, context)) {
+            long extractionStart = System.nanoTime();
+            List<PageInfo> chunks = extract(source, workItem, context);
+            jobTracker.addExtraction((System.nanoTime() - extractionStart) / 1_000_000);
+            chunkProcessor.accept(chunks, jobTracker);
+        } catch (IOException e) {
+            context.getLogger().severe("Error while loading PDF: " + workItem.fileName() + " ("
+                    + workItem.startPage() + "-" + workItem.endPage() + "): " + e.getMessage());
+            throw new UncheckedIOException(e);
+        }
+        jobTracker.finish();
+        rangeDeleter.accept(workItem.rangeBlobName(), context);
+    }
+
+    // 範囲の PDF のテキストを抽出する (ページ番号は元の PDF のページ番号にする)
+    private List<PageInfo> extract(PdfSource source, PageRangeWorkItem workItem,
+            ExecutionContext context) throws IOException {
+        List<PageInfo> pages = new ArrayList<>();
+        try (PDDocument document = source.load()) {
+            PDFTextStripper textStripper = pdfTextExtractor.createTextStripper();
+            for (int page = 1; page <= document.getNumberOfPages(); page++) {
+                pages.addAll(pdfTextExtractor.extractPage(document, textStripper, page,
+                        workItem.startPage() + page - 1, context));
+            }
+        }
+        return pages;
+    }
+}
@@ -0,0 +1,69 @@
+package com.yoshio3;
+
+import com.microsoft.azure.functions.ExecutionContext;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+// PDF の読み込み元
+// サイズが閾値を超える PDF は一時ファイルに書き出し、PDFBox のスクラッチ・ファイルを利用して
+// ヒープの使用量に上限を設けて読み込みます。閾値以下の場合は従来通りメモリ上から読み込みます。
+// Blob トリガーは内容を byte[] で受け取るため、ヒープに 1 度は全体が載ります。
+// これを避ける場合は、ダウンロード済みの一時ファイルから fromFile() で作成します。
+public class PdfSource implements Closeable {
+
+    private final byte[] content;
+    private final Path file;
+    // スクラッチ・ファイル利用時にヒープ上に保持するバッファの上限（バイト）
+    private final long maxMainMemoryBytes;
+
+    private PdfSource(byte[] content, Path file, long maxMainMemoryBytes) {
+        this.content = content;
+        this.file = file;
+        this.maxMainMemoryBytes = maxMainMemoryBytes;
+    }
+
+    // thresholdBytes を超える場合は一時ファイルに書き出した読み込み元を作成します。
+    public static PdfSource create(byte[] content, long thresholdBytes, long maxMainMemoryBytes,
+            ExecutionContext context) throws IOException {
+        if (content.length <= thresholdBytes) {
+            return new PdfSource(content, null, maxMainMemoryBytes);
+        }
+        Path file = Files.createTempFile("blob-upload-detector-", ".pdf");
+        Files.write(file, content);
+        context.getLogger().info("Large PDF (" + content.length
+                + " bytes) is loaded from temporary file: " + file);
+        return new PdfSource(null, file, maxMainMemoryBytes);
+    }
+
+    // ダウンロード済みの一時ファイルから作成します（一時ファイルは close() で削除されます）。
+    public static PdfSource fromFile(Path file, long maxMainMemoryBytes) {
+        return new PdfSource(null, file, maxMainMemoryBytes);
+    }
+
+    // 呼び出す度に新しい PDDocument を作成します（並列処理でスレッド毎に利用するため）。
+    public PDDocument load() throws IOException {
+        return load(1);
+    }
+
+    // concurrentLoads 個の PDDocument を同時に開く場合は、ヒープ上のバッファの上限を等分します。
+    public PDDocument load(int concurrentLoads) throws IOException {
+        if (file == null) {
+            return PDDocument.load(content);
+        }
+        long maxMainMemory = maxMainMemoryBytes / Math.max(1, concurrentLoads);
+        return PDDocument.load(file.toFile(), MemoryUsageSetting.setupMixed(maxMainMemory)
+                .setTempDir(file.getParent().toFile()));
+    }
+
+    // 一時ファイルを削除
+    @Override
+    public void close() throws IOException {
+        if (file != null) {
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.yoshio3;
+
+import com.microsoft.azure.functions.ExecutionContext;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.text.PDFTextStripper;
+
+// PDF の 1 ページ分のテキストを抽出し、Embedding に渡せる長さのチャンクに分割するクラス
+// PDDocument と PDFTextStripper はスレッド・セーフではないため、
+// 並列に処理する場合はスレッド毎に別のインスタンスを渡してください。
+public class PdfTextExtractor {
+
+    // PDFTextStripper が段落の終わりに出力する文字 (改行コードの置き換え後に改行に戻す)
+    private static final String PARAGRAPH_END = "\u2029";
+
+    private final TextChunker textChunker;
+
+    public PdfTextExtractor(TextChunker textChunker) {
+        this.textChunker = textChunker;
+    }
+
+    // 段落の終わりを識別できるように設定した PDFTextStripper を作成
+    public PDFTextStripper createTextStripper() throws IOException {
+        PDFTextStripper textStripper = new PDFTextStripper();
+        textStripper.setParagraphEnd(PARAGRAPH_END);
+        return textStripper;
+    }
+
+    // 指定したページのテキストを抽出し、チャンクの一覧を返します。
+    public List<PageInfo> extractPage(PDDocument document, PDFTextStripper textStripper,
+            int pageNumber, ExecutionContext context) throws IOException {
+        return extractPage(document, textStripper, pageNumber, pageNumber, context);
+    }
+
+    // document の page ページ目のテキストを抽出し、元の PDF のページ番号 pageNumber のチャンクとして返します。
+    // (ページ範囲毎に分割した PDF では、page と元の PDF のページ番号が異なるため)
+    public List<PageInfo> extractPage(PDDocument document, PDFTextStripper textStripper,
+            int page, int pageNumber, ExecutionContext context) throws IOException {
+        List<PageInfo> chunks = new ArrayList<>();
+        textStripper.setStartPage(page);
+        textStripper.setEndPage(page);
+        String pageText = textStripper.getText(document);
+        // 改行コードを空白文字に置き換え、段落の終わりのみ改行として残す
+        pageText = pageText.replace("\n", " ");
+        pageText = pageText.replaceAll("\\s{2,}", " ");
+        pageText = pageText.replaceAll(" ?" + PARAGRAPH_END + "[ " + PARAGRAPH_END + "]*", "\n");
+
+        // 1 ページのテキストが上限を超える場合は分割する
+        List<String> splitText = textChunker.split(pageText);
+        if (splitText.size() > 1) {
+            context.getLogger().fine("Split text: " + pageText.length() + " into " + splitText.size());
+        }
+        for (int chunkIndex = 0; chunkIndex < splitText.size(); chunkIndex++) {
+            chunks.add(new PageInfo(pageNumber, chunkIndex, splitText.get(chunkIndex)));
+        }
+        return chunks;
+    }
+}
@@ -0,0 +1,129 @@
+package com.yoshio3;
+
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+import org.postgresql.PGConnection;
+import org.postgresql.core.BaseConnection;
+import org.postgresql.util.PGBinaryObject;
+import org.postgresql.util.PGobject;
+
+// pgvector の vector 型を JDBC で送受信するためのクラス
+// register() を呼び出した接続では、pgvector のバイナリ形式 (次元数 int16、未使用 int16、float4 の配列) で
+// 送受信するため、"[0.1,0.2,...]" の文字列の生成・解析が不要になります。
+// バイナリ転送を利用できない場合は、テキスト形式で送受信します。
+public class PgVector extends PGobject implements PGBinaryObject {
+
+    private static final String TYPE_NAME = "vector";
+    private static final int HEADER_BYTES = 4;
+
+    private float[] vector;
+
+    public PgVector() {
+        setType(TYPE_NAME);
+    }
+
+    public PgVector(float[] vector) {
+        this();
+        this.vector = vector;
+    }
+
+    // 接続に vector 型を登録し、バイナリ形式での送受信を有効にします。(接続毎に 1 度だけ処理する)
+    public static void register(Connection connection) throws SQLException {
+        BaseConnection baseConnection = connection.unwrap(BaseConnection.class);
+        int oid = baseConnection.getTypeInfo().getPGType(TYPE_NAME);
+        if (oid == 0 || baseConnection.binaryTransferSend(oid)) {
+            return;
+        }
+        connection.unwrap(PGConnection.class).addDataType(TYPE_NAME, PgVector.class);
+        baseConnection.getQueryExecutor().addBinarySendOid(oid);
+        baseConnection.getQueryExecutor().addBinaryReceiveOid(oid);
+    }
+
+    @Override
+    public boolean isNull() {
+        return vector == null;
+    }
+
+    public float[] toArray() {
+        return vector;
+    }
+
+    @Override
+    public void setValue(String value) throws SQLException {
+        super.setValue(value);
+        if (value == null) {
+            vector = null;
+            return;
+        }
+        String body = value.substring(1, value.length() - 1);
+        if (body.isEmpty()) {
+            vector = new float[0];
+            return;
+        }
+        String[] values = body.split(",");
+        vector = new float[values.length];
+        for (int i = 0; i < values.length; i++) {
+            vector[i] = Float.parseFloat(values[i]);
+        }
+    }
+
+    @Override
+    public String getValue() {
+        if (vector == null) {
+            return null;
+        }
+        StringBuilder builder = new StringBuilder(vector.length * 12).append('[');
+        for (int i = 0; i < vector.length; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append(vector[i]);
+        }
+        return builder.append(']').toString();
+    }
+
+    @Override
+    public void setByteValue(byte[] value, int offset) {
+        ByteBuffer buffer = ByteBuffer.wrap(value, offset, value.length - offset);
+        int dimensions = buffer.getShort();
+        buffer.getShort();
+        vector = new float[dimensions];
+        for (int i = 0; i < dimensions; i++) {
+            vector[i] = buffer.getFloat();
+        }
+    }
+
+    @Override
+    public int lengthInBytes() {
+        return vector == null ? 0 : HEADER_BYTES + vector.length * Float.BYTES;
+    }
+
+    @Override
+    public void toBytes(byte[] bytes, int offset) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, lengthInBytes());
+        buffer.putShort((short) vector.length);
+        buffer.putShort((short) 0);
+        for (float value : vector) {
+            buffer.putFloat(value);
+        }
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof PgVector other && Arrays.equals(vector, other.vector);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(vector);
+    }
+
+    @Override
+    public PgVector clone() throws CloneNotSupportedException {
+        PgVector cloned = (PgVector) super.clone();
+        cloned.vector = vector == null ? null : vector.clone();
+        return cloned;
+    }
+}
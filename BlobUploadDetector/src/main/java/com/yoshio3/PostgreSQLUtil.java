@@ -0,0 +1,193 @@
+package com.yoshio3;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import javax.sql.DataSource;
+
+// PostgreSQL (pgvector) にベクター・データを書き込むためのユーティリティ
+// 接続はコネクション・プールから取得し、Functions ホストの起動中は同じプールを再利用します。
+public class PostgreSQLUtil {
+
+    // PostgreSQL に書き込む 1 行分のデータ
+    public record VectorRow(UUID id, float[] embedding, String originText, String fileName,
+            int pageNumber) {}
+
+    // Azure PostgreSQL の JDBC URL
+    private static final String POSTGRESQL_JDBC_URL;
+    // Azure PostgreSQL のユーザー名
+    private static final String POSTGRESQL_USER;
+    // Azure PostgreSQL のパスワード
+    private static final String POSTGRESQL_PASSWORD;
+    // Azure PostgreSQL のテーブル名
+    private static final String POSTGRESQL_TABLE_NAME;
+    // コネクション・プールの最大接続数
+    private static final int POSTGRESQL_MAX_POOL_SIZE;
+
+    private static final String INSERT_SQL;
+    private static final String UPSERT_SQL;
+    private static final String DELETE_STALE_SQL;
+
+    // Functions ホスト (JVM) 内で共有するコネクション・プール
+    private static volatile HikariDataSource dataSource;
+
+    static {
+        POSTGRESQL_JDBC_URL = System.getenv("AzurePostgresqlJdbcurl");
+        POSTGRESQL_USER = System.getenv("AzurePostgresqlUser");
+        POSTGRESQL_PASSWORD = System.getenv("AzurePostgresqlPassword");
+        POSTGRESQL_TABLE_NAME = System.getenv("AzurePostgresqlDbTableName");
+        POSTGRESQL_MAX_POOL_SIZE = EnvironmentUtil.getInt("AzurePostgresqlMaxPoolSize", 4);
+
+        INSERT_SQL = "INSERT INTO " + POSTGRESQL_TABLE_NAME
+                + " (id, embedding, origntext, fileName, pageNumber) VALUES (?, ?, ?, ?, ?)";
+        // 内容が変わっていない行は更新しない
+        UPSERT_SQL = INSERT_SQL + " ON CONFLICT (id) DO UPDATE SET embedding = EXCLUDED.embedding,"
+                + " origntext = EXCLUDED.origntext, fileName = EXCLUDED.fileName,"
+                + " pageNumber = EXCLUDED.pageNumber WHERE " + POSTGRESQL_TABLE_NAME
+                + ".origntext IS DISTINCT FROM EXCLUDED.origntext";
+        DELETE_STALE_SQL = "DELETE FROM " + POSTGRESQL_TABLE_NAME
+                + " WHERE fileName = ? AND id <> ALL(?) RETURNING id";
+    }
+
+    // コネクション・プールを取得 (初回呼び出し時に作成)
+    public static DataSource getDataSource() {
+        HikariDataSource current = dataSource;
+        if (current == null) {
+            synchronized (PostgreSQLUtil.class) {
+                current = dataSource;
+                if (current == null) {
+                    HikariConfig config = new HikariConfig();
+                    config.setJdbcUrl(POSTGRESQL_JDBC_URL);
+                    config.setUsername(POSTGRESQL_USER);
+                    config.setPassword(POSTGRESQL_PASSWORD);
+                    config.setMaximumPoolSize(POSTGRESQL_MAX_POOL_SIZE);
+                    config.setMinimumIdle(1);
+                    config.setPoolName("BlobUploadDetector-PostgreSQL");
+                    // executeBatch() を複数行の INSERT 文に書き換えて送信する
+                    config.addDataSourceProperty("reWriteBatchedInserts", "true");
+                    current = new HikariDataSource(config);
+                    dataSource = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    // 1 行ずつ挿入
+    public void insert(VectorRow row) throws SQLException {
+        try (Connection connection = getDataSource().getConnection();
+                PreparedStatement insertStatement = connection.prepareStatement(INSERT_SQL)) {
+            bind(connection, insertStatement, row);
+            insertStatement.executeUpdate();
+        }
+    }
+
+    // 1 つの PDF の全チャンクを 1 トランザクションでまとめて挿入
+    // 失敗した場合はロールバックし、1 行も挿入されません。
+    public void bulkInsert(List<VectorRow> rows) throws SQLException {
+        if (rows.isEmpty()) {
+            return;
+        }
+        try (Connection connection = getDataSource().getConnection()) {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try (PreparedStatement insertStatement = connection.prepareStatement(INSERT_SQL)) {
+                for (VectorRow row : rows) {
+                    bind(connection, insertStatement, row);
+                    insertStatement.addBatch();
+                }
+                insertStatement.executeBatch();
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        }
+    }
+
+    // ページ範囲 1 つ分のチャンク、もしくは再処理するチャンクを 1 トランザクションでまとめて upsert
+    // 同じ ID の行がある場合は上書きします。(同じページ範囲のメッセージが再度配信された場合や、
+    // 前回の挿入が失敗として記録されていても実際には完了していた場合に、行を重複させないため)
+    public void upsert(List<VectorRow> rows) throws SQLException {
+        if (rows.isEmpty()) {
+            return;
+        }
+        try (Connection connection = getDataSource().getConnection()) {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try (PreparedStatement upsertStatement = connection.prepareStatement(UPSERT_SQL)) {
+                for (VectorRow row : rows) {
+                    bind(connection, upsertStatement, row);
+                    upsertStatement.addBatch();
+                }
+                upsertStatement.executeBatch();
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        }
+    }
+
+    // 1 つの PDF の全チャンクを 1 トランザクションで登録し直す
+    // 既存の行は ID (ファイル名・ページ番号・分割番号から決まる) が一致すれば上書きし、
+    // 今回の PDF に含まれない行 (削除されたページなど) は削除します。削除した行の ID を返します。
+    // retainedIds は今回登録できなかった (再処理する) チャンクの ID で、既存の行を削除せずに残します。
+    public List<UUID> replaceFile(String fileName, List<VectorRow> rows, List<UUID> retainedIds)
+            throws SQLException {
+        List<UUID> deletedIds = new ArrayList<>();
+        try (Connection connection = getDataSource().getConnection()) {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try (PreparedStatement upsertStatement = connection.prepareStatement(UPSERT_SQL);
+                    PreparedStatement deleteStatement =
+                            connection.prepareStatement(DELETE_STALE_SQL)) {
+                for (VectorRow row : rows) {
+                    bind(connection, upsertStatement, row);
+                    upsertStatement.addBatch();
+                }
+                if (!rows.isEmpty()) {
+                    upsertStatement.executeBatch();
+                }
+                deleteStatement.setString(1, fileName);
+                List<UUID> keepIds = new ArrayList<>(rows.size() + retainedIds.size());
+                rows.forEach(row -> keepIds.add(row.id()));
+                keepIds.addAll(retainedIds);
+                deleteStatement.setArray(2, connection.createArrayOf("uuid", keepIds.toArray()));
+                try (ResultSet resultSet = deleteStatement.executeQuery()) {
+                    while (resultSet.next()) {
+                        deletedIds.add(resultSet.getObject(1, UUID.class));
+                    }
+                }
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        }
+        return deletedIds;
+    }
+
+    // ベクター配列は pgvector のバイナリ形式で送信する
+    private void bind(Connection connection, PreparedStatement statement, VectorRow row)
+            throws SQLException {
+        PgVector.register(connection);
+        statement.setObject(1, row.id());
+        statement.setObject(2, new PgVector(row.embedding()));
+        statement.setString(3, row.originText());
+        statement.setString(4, row.fileName());
+        statement.setInt(5, row.pageNumber());
+    }
+}
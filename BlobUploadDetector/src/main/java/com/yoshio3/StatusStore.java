@@ -0,0 +1,35 @@
+package com.yoshio3;
+
+import com.microsoft.azure.functions.ExecutionContext;
+import com.yoshio3.models.CosmosDBDocument;
+import com.yoshio3.models.CosmosDBDocumentStatus;
+import com.yoshio3.models.IngestionJobDocument;
+import com.yoshio3.models.IngestionJobStatus;
+import java.util.List;
+import java.util.Map;
+
+// 処理状況 (CosmosDBDocument, IngestionJobDocument) の保存先
+// StatusTracker がまとめた書き込みを 1 回で反映します。
+public interface StatusStore {
+
+    // documents は新規作成 (upsert)、statuses は既存のドキュメントの status のみを更新します。
+    // 書き込みが全て完了してから戻ります。
+    void write(List<CosmosDBDocument> documents, Map<String, CosmosDBDocumentStatus> statuses,
+            ExecutionContext context);
+
+    // ファイル単位の進捗を作成・上書きします。
+    void writeJob(IngestionJobDocument job, ExecutionContext context);
+
+    // ページ範囲 1 つ分の件数・処理時間 (delta) をファイル単位の進捗に加算し、加算後の進捗を返します。
+    // 同じファイルの複数の範囲から同時に呼び出されても、加算が失われないようにします。
+    IngestionJobDocument addJobProgress(IngestionJobDocument delta, ExecutionContext context);
+
+    // addJobProgress() と同様に加算しますが、ページ範囲 rangeIndex を加算済みの場合は加算しません。
+    // (キューのメッセージが再度配信された場合に、件数を二重に加算して、全ての範囲の終了前に完了としないため)
+    // 加算済みの場合は、現在の進捗を返します。
+    IngestionJobDocument addRangeProgress(IngestionJobDocument delta, int rangeIndex,
+            ExecutionContext context);
+
+    // ファイル単位の進捗の状態のみを更新します。
+    void writeJobStatus(String jobId, IngestionJobStatus status, ExecutionContext context);
+}
@@ -0,0 +1,124 @@
+package com.yoshio3;
+
+import com.microsoft.azure.functions.ExecutionContext;
+import com.yoshio3.models.CosmosDBDocument;
+import com.yoshio3.models.CosmosDBDocumentStatus;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+// チャンク毎の処理状況の変化をメモリ上でまとめ、flush() の呼び出し時にまとめて StatusStore に書き込むクラス
+// 同じドキュメントの状態が flush() までに複数回変化した場合は、最後に設定した状態のみを書き込みます。
+// flush() は前回の書き込みが完了するまで待機するため、書き込みの順序は呼び出し順と一致します。
+// failuresOnly を指定した場合は、失敗したチャンクのみドキュメントを作成し、正常なチャンクは書き込みません。
+// (正常なチャンクの進捗は IngestionJobTracker がファイル単位で記録する)
+// 失敗した状態 (FAILED_*) は、以降の状態の変更 (COMPLETED など) で上書きしません。
+public class StatusTracker {
+
+    private final StatusStore store;
+    // 未書き込みの件数がこの値に達した場合は自動で flush() する
+    private final int maxPending;
+    private final ExecutionContext context;
+    // 失敗したチャンクのみ書き込むか否か
+    private final boolean failuresOnly;
+
+    // まだ作成していないドキュメント
+    private final Map<String, CosmosDBDocument> pendingDocuments = new LinkedHashMap<>();
+    // 作成済みのドキュメントの状態の変化
+    private final Map<String, CosmosDBDocumentStatus> pendingStatuses = new LinkedHashMap<>();
+    // failuresOnly の場合に、まだ失敗していない (書き込まない) ドキュメント
+    private final Map<String, CosmosDBDocument> unwrittenDocuments = new HashMap<>();
+    // 失敗した状態を設定したドキュメントの ID
+    private final Set<String> failedIds = new HashSet<>();
+
+    public StatusTracker(StatusStore store, int maxPending, ExecutionContext context) {
+        this(store, maxPending, false, context);
+    }
+
+    public StatusTracker(StatusStore store, int maxPending, boolean failuresOnly,
+            ExecutionContext context) {
+        this.store = store;
+        this.maxPending = Math.max(1, maxPending);
+        this.failuresOnly = failuresOnly;
+        this.context = context;
+    }
+
+    // 新しいチャンクを登録
+    public synchronized void register(String id, String fileName, int pageNumber) {
+        var document = new CosmosDBDocument(id, fileName,
+                CosmosDBDocumentStatus.PAGE_SEPARATE_FINISHED, pageNumber);
+        if (failuresOnly) {
+            unwrittenDocuments.put(id, document);
+            return;
+        }
+        pendingDocuments.put(id, document);
+        flushIfFull();
+    }
+
+    // チャンクの状態を変更
+    public synchronized void transition(String id, CosmosDBDocumentStatus status) {
+        if (failedIds.contains(id)) {
+            return;
+        }
+        if (failuresOnly) {
+            transitionFailuresOnly(id, status);
+            return;
+        }
+        CosmosDBDocument document = pendingDocuments.get(id);
+        if (document != null) {
+            pendingDocuments.put(id, new CosmosDBDocument(id, document.fileName(), status,
+                    document.pageNumber()));
+        } else {
+            pendingStatuses.put(id, status);
+        }
+        if (isFailure(status)) {
+            failedIds.add(id);
+        }
+        flushIfFull();
+    }
+
+    private static boolean isFailure(CosmosDBDocumentStatus status) {
+        return status == CosmosDBDocumentStatus.FAILED_OAI_INVOCATION
+                || status == CosmosDBDocumentStatus.FAILED_DB_INSERTION;
+    }
+
+    // 失敗した時点でドキュメントを作成し、以降の状態の変更 (COMPLETED など) は書き込まない
+    private void transitionFailuresOnly(String id, CosmosDBDocumentStatus status) {
+        CosmosDBDocument document = unwrittenDocuments.get(id);
+        if (document == null) {
+            return;
+        }
+        if (isFailure(status)) {
+            unwrittenDocuments.remove(id);
+            failedIds.add(id);
+            pendingDocuments.put(id, new CosmosDBDocument(id, document.fileName(), status,
+                    document.pageNumber()));
+            flushIfFull();
+        } else if (status == CosmosDBDocumentStatus.COMPLETED) {
+            unwrittenDocuments.remove(id);
+        }
+    }
+
+    // まとめた変更を書き込む
+    public synchronized void flush() {
+        if (pendingDocuments.isEmpty() && pendingStatuses.isEmpty()) {
+            return;
+        }
+        var documents = new ArrayList<>(pendingDocuments.values());
+        var statuses = new LinkedHashMap<>(pendingStatuses);
+        pendingDocuments.clear();
+        pendingStatuses.clear();
+        context.getLogger().info("Status flush: created " + documents.size() + " updated "
+                + statuses.size());
+        store.write(documents, statuses, context);
+    }
+
+    private void flushIfFull() {
+        if (pendingDocuments.size() + pendingStatuses.size() >= maxPending) {
+            flush();
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.yoshio3;
+
+import java.util.List;
+
+// 1 ページ分のテキストを Embedding に渡すチャンクに分割するためのインターフェース
+public interface TextChunker {
+
+    // テキストを分割し、チャンクの一覧を返します。分割の必要がない場合は text のみを返します。
+    List<String> split(String text);
+
+    // 設定値から TextChunker を作成 ("character" の場合は従来の文字数による分割)
+    static TextChunker create(String type, int maxTokens, int overlapTokens) {
+        if ("character".equalsIgnoreCase(type)) {
+            return new CharacterTextChunker(CharacterTextChunker.MAX_SEPARATE_TOKEN_LENGTH);
+        }
+        return new TokenTextChunker(maxTokens, overlapTokens);
+    }
+
+    // 区切り文字の判定
+    static boolean isPunctuation(char c) {
+        return c == '.' || c == '。' || c == ';' || c == '；' || c == '!' || c == '！' || c == '?'
+                || c == '？';
+    }
+}
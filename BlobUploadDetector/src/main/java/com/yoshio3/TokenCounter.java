@@ -0,0 +1,19 @@
+package com.yoshio3;
+
+import com.knuddels.jtokkit.Encodings;
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.EncodingType;
+
+// text-embedding-ada-002 と同じ BPE トークナイザ (cl100k_base) でトークン数を数えるユーティリティ
+// Encoding はスレッド・セーフなため、プロセス内で 1 つのインスタンスを共有します。
+public final class TokenCounter {
+
+    private static final Encoding ENCODING =
+            Encodings.newLazyEncodingRegistry().getEncoding(EncodingType.CL100K_BASE);
+
+    private TokenCounter() {}
+
+    public static int count(CharSequence text) {
+        return ENCODING.countTokensOrdinary(text.toString());
+    }
+}
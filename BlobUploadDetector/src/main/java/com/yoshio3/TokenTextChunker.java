@@ -0,0 +1,124 @@
+package com.yoshio3;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// cl100k_base のトークン数を元にテキストを分割するクラス
+// テキストを 1 度だけ走査して文（句読点）と段落（改行）の境界のオフセットを求め、
+// 文単位のトークン数を数えたうえで、上限に収まるだけ文を詰めてチャンクを作成します。
+// チャンクの後半に段落の境界がある場合は、段落の境界で区切ります。
+// overlapTokens を指定した場合は、直前のチャンクの末尾の文を次のチャンクの先頭に含めます。
+public class TokenTextChunker implements TextChunker {
+
+    // 段落の区切り (PdfTextExtractor で段落の終わりを改行に変換している)
+    private static final char PARAGRAPH_SEPARATOR = '\n';
+
+    // 1 チャンクに含めるトークン数の上限
+    private final int maxTokens;
+    // 前のチャンクと重複させるトークン数
+    private final int overlapTokens;
+
+    public TokenTextChunker(int maxTokens, int overlapTokens) {
+        this.maxTokens = Math.max(1, maxTokens);
+        this.overlapTokens = Math.max(0, Math.min(overlapTokens, this.maxTokens / 2));
+    }
+
+    @Override
+    public List<String> split(String text) {
+        List<String> chunks = new ArrayList<>();
+        if (TokenCounter.count(text) <= maxTokens) {
+            chunks.add(text);
+            return chunks;
+        }
+
+        // 文の境界を求める (unitEnds の i 番目は i 番目の文の終了位置 (exclusive))
+        List<Integer> unitEnds = new ArrayList<>();
+        List<Boolean> paragraphEnds = new ArrayList<>();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            boolean paragraphEnd = c == PARAGRAPH_SEPARATOR;
+            if (paragraphEnd || TextChunker.isPunctuation(c)) {
+                unitEnds.add(i + 1);
+                paragraphEnds.add(paragraphEnd);
+            }
+        }
+        if (unitEnds.isEmpty() || unitEnds.get(unitEnds.size() - 1) < text.length()) {
+            unitEnds.add(text.length());
+            paragraphEnds.add(true);
+        }
+
+        int unitCount = unitEnds.size();
+        int[] unitStarts = new int[unitCount];
+        int[] unitTokens = new int[unitCount];
+        for (int i = 0; i < unitCount; i++) {
+            unitStarts[i] = i == 0 ? 0 : unitEnds.get(i - 1);
+            unitTokens[i] = TokenCounter.count(text.subSequence(unitStarts[i], unitEnds.get(i)));
+        }
+
+        int unit = 0;
+        while (unit < unitCount) {
+            // 上限に収まるだけ文を詰める
+            int end = unit;
+            int tokens = 0;
+            int paragraphCut = -1;
+            while (end < unitCount && tokens + unitTokens[end] <= maxTokens) {
+                tokens += unitTokens[end];
+                if (paragraphEnds.get(end) && tokens >= maxTokens / 2) {
+                    paragraphCut = end + 1;
+                }
+                end++;
+            }
+            // 1 文だけで上限を超える場合は文の途中で分割する
+            if (end == unit) {
+                splitLongUnit(text, unitStarts[unit], unitEnds.get(unit), unitTokens[unit], chunks);
+                unit++;
+                continue;
+            }
+            if (end < unitCount && paragraphCut > unit) {
+                end = paragraphCut;
+            }
+            addChunk(chunks, text, unitStarts[unit], unitEnds.get(end - 1));
+            if (end >= unitCount) {
+                break;
+            }
+
+            // 重複させる文の分だけ、次のチャンクの開始位置を戻す
+            int next = end;
+            int overlap = 0;
+            while (next - 1 > unit && overlap + unitTokens[next - 1] <= overlapTokens) {
+                overlap += unitTokens[next - 1];
+                next--;
+            }
+            unit = next;
+        }
+        return chunks;
+    }
+
+    // 区切り文字を含まない長い文を、トークン数が上限に収まる長さで分割する
+    private void splitLongUnit(String text, int start, int end, int tokens, List<String> chunks) {
+        // 1 トークンあたりの文字数から、上限に収まる文字数を見積もる (1 割の余裕を持たせる)
+        int pieceLength = Math.max(1, (int) ((long) (end - start) * maxTokens / tokens * 9 / 10));
+        int pieceStart = start;
+        while (pieceStart < end) {
+            int pieceEnd = Math.min(end, pieceStart + pieceLength);
+            while (pieceEnd - pieceStart > 1
+                    && TokenCounter.count(text.subSequence(pieceStart, pieceEnd)) > maxTokens) {
+                pieceEnd = pieceStart + (pieceEnd - pieceStart) * 4 / 5;
+            }
+            // サロゲート・ペアの途中で分割しない
+            if (pieceEnd < end && pieceEnd - 1 > pieceStart
+                    && Character.isHighSurrogate(text.charAt(pieceEnd - 1))) {
+                pieceEnd--;
+            }
+            addChunk(chunks, text, pieceStart, pieceEnd);
+            pieceStart = pieceEnd;
+        }
+    }
+
+    private void addChunk(List<String> chunks, String text, int start, int end) {
+        String chunk = text.substring(start, end).strip();
+        if (!chunk.isEmpty()) {
+            chunks.add(chunk);
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.yoshio3.models;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.UUID;
+
+// ファイル毎の登録処理の進捗 (チャンク毎の CosmosDBDocument と同じコンテナに保存し、type で区別する)
+// 処理時間 (ミリ秒) は各段階の処理に掛かった時間の合計です。
+// ページ範囲毎にキュー経由で処理する場合は、totalRanges が範囲の数、completedRanges が処理済みの範囲の数です。
+// (1 回の呼び出しで処理する場合は、どちらも 1 として扱います)
+// completedRangeIndexes は加算済みの範囲の番号で、同じ範囲のメッセージが再度配信された場合に二重に加算しないために利用します。
+public record IngestionJobDocument(String id, String type, String fileName,
+        IngestionJobStatus status, int totalChunks, int embeddedChunks, int insertedChunks,
+        int failedChunks, int totalRanges, int completedRanges, long extractionMillis,
+        long embeddingMillis, long insertionMillis, long startedAt, long updatedAt,
+        List<Integer> completedRangeIndexes) {
+
+    public static final String TYPE = "job";
+
+    // ファイル名から決まる ID (同じファイルを再登録した場合は同じドキュメントを上書きする)
+    public static String jobId(String fileName) {
+        return "job-" + UUID.nameUUIDFromBytes(fileName.getBytes(StandardCharsets.UTF_8));
+    }
+}
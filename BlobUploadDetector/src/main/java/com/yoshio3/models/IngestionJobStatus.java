@@ -0,0 +1,18 @@
+package com.yoshio3.models;
+
+public enum IngestionJobStatus {
+
+    RUNNING("running"),
+    COMPLETED("completed"),
+    COMPLETED_WITH_FAILURES("completed_with_failures");
+
+    private final String status;
+
+    IngestionJobStatus(String status) {
+        this.status = status;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+}
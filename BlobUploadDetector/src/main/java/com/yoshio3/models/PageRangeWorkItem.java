@@ -0,0 +1,22 @@
+package com.yoshio3.models;
+
+import com.google.gson.Gson;
+
+// PDF をページ範囲毎に分けて処理する場合の、キュー (pdf-page-ranges) に送信する 1 範囲分のメッセージ
+// startPage, endPage は 1 始まりで、どちらもその範囲に含みます。
+// rangeIndex は 0 始まりの範囲の番号、totalRanges はファイル全体の範囲の数です。
+// rangeBlobName は、この範囲のページのみを含む PDF のブロブ名 (pdf-page-ranges コンテナ) です。
+// (各範囲の処理で PDF 全体をダウンロードしないよう、送信時に範囲毎の PDF に分割する)
+public record PageRangeWorkItem(String fileName, int startPage, int endPage, int rangeIndex,
+        int totalRanges, String rangeBlobName) {
+
+    private static final Gson GSON = new Gson();
+
+    public String toJson() {
+        return GSON.toJson(this);
+    }
+
+    public static PageRangeWorkItem fromJson(String json) {
+        return GSON.fromJson(json, PageRangeWorkItem.class);
+    }
+}
@@ -0,0 +1,33 @@
+package com.yoshio3.models;
+
+// 登録に失敗したチャンクの再処理用のドキュメント (チャンク毎の CosmosDBDocument と同じコンテナに保存し、type で区別する)
+// PDF を再アップロードせずに再処理できるよう、チャンクのテキストを保持します。
+// DB_INSERTION の段階で失敗した場合は、取得済みのベクター配列も保持し、Embedding を再度呼び出さないようにします。
+// nextAttemptAt (エポック・ミリ秒) を過ぎたものから再処理し、失敗する度に attempts を増やして間隔を空けます。
+public record RetryDocument(String id, String type, String chunkId, String fileName,
+        int pageNumber, String originText, RetryStage stage, float[] embedding,
+        int attempts, String lastError, long nextAttemptAt, long createdAt, long updatedAt) {
+
+    public static final String TYPE = "retry";
+
+    // チャンクの ID から決まる ID (同じチャンクが再度失敗した場合は同じドキュメントを上書きする)
+    public static String retryId(String chunkId) {
+        return "retry-" + chunkId;
+    }
+
+    // 新しく失敗したチャンクのドキュメントを作成 (すぐに再処理の対象とする)
+    public static RetryDocument create(String chunkId, String fileName, int pageNumber,
+            String originText, RetryStage stage, float[] embedding, String lastError) {
+        long now = System.currentTimeMillis();
+        return new RetryDocument(retryId(chunkId), TYPE, chunkId, fileName, pageNumber,
+                originText, stage, embedding, 0, lastError, now, now, now);
+    }
+
+    // 再処理に失敗した場合のドキュメントを作成
+    public RetryDocument failed(RetryStage stage, float[] embedding, String lastError,
+            long nextAttemptAt) {
+        return new RetryDocument(id, type, chunkId, fileName, pageNumber, originText,
+                stage, embedding, attempts + 1, lastError, nextAttemptAt, createdAt,
+                System.currentTimeMillis());
+    }
+}
@@ -0,0 +1,18 @@
+package com.yoshio3.models;
+
+// 再処理が必要なチャンクが失敗した段階
+public enum RetryStage {
+
+    EMBEDDING("embedding"),
+    DB_INSERTION("db_insertion");
+
+    private final String stage;
+
+    RetryStage(String stage) {
+        this.stage = stage;
+    }
+
+    public String getStage() {
+        return stage;
+    }
+}
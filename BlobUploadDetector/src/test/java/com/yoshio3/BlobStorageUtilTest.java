@@ -0,0 +1,25 @@
+package com.yoshio3;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.junit.jupiter.api.Test;
+
+class BlobStorageUtilTest {
+
+    @Test
+    void extractsBlobNameFromBlobCreatedEvent() {
+        String event = "{\"eventType\":\"Microsoft.Storage.BlobCreated\","
+                + "\"subject\":\"/blobServices/default/containers/pdfs/blobs/dir/manual.pdf\","
+                + "\"data\":{\"url\":\"https://example.blob.core.windows.net/pdfs/dir/manual.pdf\"}}";
+        assertEquals("dir/manual.pdf", BlobStorageUtil.blobNameFromEvent(event));
+    }
+
+    @Test
+    void ignoresOtherContainersAndEventTypes() {
+        assertNull(BlobStorageUtil.blobNameFromEvent("{\"eventType\":\"Microsoft.Storage.BlobCreated\","
+                + "\"subject\":\"/blobServices/default/containers/other/blobs/manual.pdf\"}"));
+        assertNull(BlobStorageUtil.blobNameFromEvent("{\"eventType\":\"Microsoft.Storage.BlobDeleted\","
+                + "\"subject\":\"/blobServices/default/containers/pdfs/blobs/manual.pdf\"}"));
+    }
+}
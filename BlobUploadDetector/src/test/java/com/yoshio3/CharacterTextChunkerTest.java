@@ -0,0 +1,36 @@
+package com.yoshio3;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class CharacterTextChunkerTest {
+
+    private final CharacterTextChunker chunker =
+            new CharacterTextChunker(CharacterTextChunker.MAX_SEPARATE_TOKEN_LENGTH);
+
+    @Test
+    void keepsShortTextAsIs() {
+        assertEquals(List.of("短いテキスト。"), chunker.split("短いテキスト。"));
+    }
+
+    @Test
+    void splitsAtLastPunctuationInSearchWindow() {
+        String text = "a".repeat(7300) + "。" + "a".repeat(99) + "！" + "a".repeat(600);
+        List<String> chunks = chunker.split(text);
+        assertEquals(2, chunks.size());
+        // 区切り文字は次のチャンクの先頭に含まれる
+        assertEquals(7400, chunks.get(0).length());
+        assertEquals(text, String.join("", chunks));
+    }
+
+    @Test
+    void fallsBackToStartOfSearchWindowWithoutPunctuation() {
+        String text = "a".repeat(16000);
+        List<String> chunks = chunker.split(text);
+        assertEquals(List.of(7200, 7200, 1600),
+                chunks.stream().map(String::length).toList());
+        assertEquals(text, String.join("", chunks));
+    }
+}
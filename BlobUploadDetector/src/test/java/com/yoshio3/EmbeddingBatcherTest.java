@@ -0,0 +1,180 @@
+package com.yoshio3;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.microsoft.azure.functions.ExecutionContext;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+// Azure OpenAI の代わりに、各テキストの番号をベクター配列として返す処理でバッチの分け方と結果の順序を確認するテスト
+class EmbeddingBatcherTest {
+
+    private final TestExecutionContext context = new TestExecutionContext();
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+    // テストでは待機しないよう、クォータは十分に大きくする
+    private final OpenAIRateLimiter rateLimiter =
+            new OpenAIRateLimiter(Integer.MAX_VALUE, Integer.MAX_VALUE);
+    private final List<List<String>> batches = Collections.synchronizedList(new ArrayList<>());
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void splitsBatchesAtTokenAndItemLimits() {
+        List<PageInfo> chunks = chunks(40, 12);
+        int maxTokens = 60;
+        int maxItems = 8;
+        new EmbeddingBatcher(this::embedByNumber, maxItems, maxTokens, 1, rateLimiter, executor)
+                .embed(chunks, index -> {}, context);
+
+        List<List<String>> ordered = inputOrder();
+        assertTrue(ordered.size() > 1);
+        int next = 0;
+        for (List<String> batch : ordered) {
+            int tokens = tokens(batch);
+            assertTrue(batch.size() <= maxItems);
+            assertTrue(tokens <= maxTokens, "tokens: " + tokens);
+            next += batch.size();
+            // 次のチャンクを加えると上限を超える場合のみバッチを分ける
+            if (next < chunks.size()) {
+                assertTrue(batch.size() == maxItems
+                        || tokens + TokenCounter.count(chunks.get(next).text()) > maxTokens);
+            }
+        }
+        assertEquals(chunks.size(), next);
+    }
+
+    @Test
+    void returnsResultsInInputOrderAcrossBatches() {
+        List<PageInfo> chunks = chunks(30, 4);
+        // 先に送信したバッチほど遅く返し、バッチの完了順を入力順と逆にする
+        EmbeddingBatcher.EmbeddingFunction slowFirst = (inputs, context) -> {
+            TimeUnit.MILLISECONDS.sleep(Math.max(0, 60 - number(inputs.get(0)) * 2));
+            return embedByNumber(inputs, context);
+        };
+        List<EmbeddingBatcher.EmbeddedChunk> results =
+                new EmbeddingBatcher(slowFirst, 3, 10_000, 1, rateLimiter, executor)
+                        .embed(chunks, index -> {}, context);
+
+        assertEquals(10, batches.size());
+        assertEquals(chunks.size(), results.size());
+        for (int i = 0; i < chunks.size(); i++) {
+            assertEquals(i, results.get(i).index());
+            assertEquals(chunks.get(i), results.get(i).pageInfo());
+            assertEquals(i, (int) results.get(i).embedding()[0]);
+        }
+    }
+
+    @Test
+    void sendsChunkOverTokenLimitAloneInItsOwnBatch() {
+        List<PageInfo> chunks = new ArrayList<>(chunks(6, 8));
+        chunks.set(3, chunk(3, 200));
+        int maxTokens = 40;
+        assertTrue(TokenCounter.count(chunks.get(3).text()) > maxTokens);
+
+        List<EmbeddingBatcher.EmbeddedChunk> results =
+                new EmbeddingBatcher(this::embedByNumber, 16, maxTokens, 1, rateLimiter, executor)
+                        .embed(chunks, index -> {}, context);
+
+        assertTrue(inputOrder().contains(List.of(chunks.get(3).text())));
+        assertEquals(3, (int) results.get(3).embedding()[0]);
+        assertEquals(6, results.size());
+    }
+
+    @Test
+    void leavesEmbeddingEmptyAndReportsRetryWhenBatchFails() {
+        List<PageInfo> chunks = chunks(6, 4);
+        EmbeddingBatcher.EmbeddingFunction failFirstBatch = (inputs, context) -> {
+            if (number(inputs.get(0)) == 0) {
+                throw new IllegalStateException("failure");
+            }
+            return embedByNumber(inputs, context);
+        };
+        List<Integer> retried = Collections.synchronizedList(new ArrayList<>());
+        List<EmbeddingBatcher.EmbeddedChunk> results =
+                new EmbeddingBatcher(failFirstBatch, 3, 10_000, 1, rateLimiter, executor)
+                        .embed(chunks, retried::add, context);
+
+        assertEquals(List.of(0, 1, 2), retried.stream().sorted().toList());
+        for (int i = 0; i < chunks.size(); i++) {
+            assertEquals(i < 3 ? 0 : 1, results.get(i).embedding().length);
+        }
+    }
+
+    @Test
+    void returnsEmptyEmbeddingsForAllBatchesWhenInterrupted() {
+        List<PageInfo> chunks = chunks(9, 4);
+        CountDownLatch release = new CountDownLatch(1);
+        EmbeddingBatcher.EmbeddingFunction blocking = (inputs, context) -> {
+            release.await();
+            return embedByNumber(inputs, context);
+        };
+        List<EmbeddingBatcher.EmbeddedChunk> results;
+        Thread.currentThread().interrupt();
+        try {
+            results = new EmbeddingBatcher(blocking, 3, 10_000, 1, rateLimiter, executor)
+                    .embed(chunks, index -> {}, context);
+            // 中断の状態は呼び出し元に残す
+            assertTrue(Thread.currentThread().isInterrupted());
+        } finally {
+            Thread.interrupted();
+            release.countDown();
+        }
+
+        assertEquals(chunks.size(), results.size());
+        for (int i = 0; i < chunks.size(); i++) {
+            assertEquals(i, results.get(i).index());
+            assertEquals(0, results.get(i).embedding().length);
+        }
+    }
+
+    // 各テキストの番号を 1 次元のベクター配列として返す
+    private List<float[]> embedByNumber(List<String> inputs, ExecutionContext context) {
+        batches.add(inputs);
+        List<float[]> embeddings = new ArrayList<>(inputs.size());
+        inputs.forEach(input -> embeddings.add(new float[] {number(input)}));
+        return embeddings;
+    }
+
+    // 呼び出されたバッチを入力順に並べる (バッチは並列に呼び出されるため)
+    private List<List<String>> inputOrder() {
+        List<List<String>> ordered = new ArrayList<>(batches);
+        ordered.sort((a, b) -> Integer.compare(number(a.get(0)), number(b.get(0))));
+        return ordered;
+    }
+
+    private static int tokens(List<String> batch) {
+        return batch.stream().mapToInt(TokenCounter::count).sum();
+    }
+
+    private static int number(String text) {
+        return Integer.parseInt(text.substring("chunk ".length(), text.indexOf(':')));
+    }
+
+    private static List<PageInfo> chunks(int count, int words) {
+        List<PageInfo> chunks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            // トークン数が異なるよう、番号によって単語数を変える
+            chunks.add(chunk(i, words + i % 5));
+        }
+        return chunks;
+    }
+
+    private static PageInfo chunk(int number, int words) {
+        StringBuilder text = new StringBuilder("chunk " + number + ":");
+        for (int i = 0; i < words; i++) {
+            text.append(" word");
+        }
+        return new PageInfo(number + 1, 0, text.toString());
+    }
+}
@@ -0,0 +1,108 @@
+package com.yoshio3;
+
+import com.microsoft.azure.functions.ExecutionContext;
+import com.yoshio3.models.CosmosDBDocument;
+import com.yoshio3.models.CosmosDBDocumentStatus;
+import com.yoshio3.models.IngestionJobDocument;
+import com.yoshio3.models.IngestionJobStatus;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Cosmos DB を利用せずに StatusTracker の動作を確認するための StatusStore
+// 書き込まれたドキュメントをメモリ上に保持し、書き込み回数を数えます。
+class InMemoryStatusStore implements StatusStore {
+
+    private final Map<String, CosmosDBDocument> documents = new ConcurrentHashMap<>();
+    private final Map<String, IngestionJobDocument> jobs = new ConcurrentHashMap<>();
+    private final AtomicInteger writeCount = new AtomicInteger();
+    private final AtomicInteger operationCount = new AtomicInteger();
+
+    @Override
+    public void write(List<CosmosDBDocument> created, Map<String, CosmosDBDocumentStatus> statuses,
+            ExecutionContext context) {
+        writeCount.incrementAndGet();
+        operationCount.addAndGet(created.size() + statuses.size());
+        created.forEach(document -> documents.put(document.id(), document));
+        statuses.forEach((id, status) -> documents.computeIfPresent(id,
+                (key, document) -> new CosmosDBDocument(document.id(), document.fileName(), status,
+                        document.pageNumber())));
+    }
+
+    @Override
+    public void writeJob(IngestionJobDocument job, ExecutionContext context) {
+        writeCount.incrementAndGet();
+        operationCount.incrementAndGet();
+        jobs.put(job.id(), job);
+    }
+
+    @Override
+    public IngestionJobDocument addJobProgress(IngestionJobDocument delta,
+            ExecutionContext context) {
+        writeCount.incrementAndGet();
+        operationCount.incrementAndGet();
+        return jobs.computeIfPresent(delta.id(),
+                (id, job) -> add(job, delta, job.completedRangeIndexes()));
+    }
+
+    @Override
+    public IngestionJobDocument addRangeProgress(IngestionJobDocument delta, int rangeIndex,
+            ExecutionContext context) {
+        writeCount.incrementAndGet();
+        operationCount.incrementAndGet();
+        return jobs.computeIfPresent(delta.id(), (id, job) -> {
+            if (job.completedRangeIndexes().contains(rangeIndex)) {
+                return job;
+            }
+            List<Integer> completedRangeIndexes = new ArrayList<>(job.completedRangeIndexes());
+            completedRangeIndexes.add(rangeIndex);
+            return add(job, delta, completedRangeIndexes);
+        });
+    }
+
+    @Override
+    public void writeJobStatus(String jobId, IngestionJobStatus status, ExecutionContext context) {
+        writeCount.incrementAndGet();
+        operationCount.incrementAndGet();
+        jobs.computeIfPresent(jobId, (id, job) -> new IngestionJobDocument(id, job.type(),
+                job.fileName(), status, job.totalChunks(), job.embeddedChunks(),
+                job.insertedChunks(), job.failedChunks(), job.totalRanges(),
+                job.completedRanges(), job.extractionMillis(), job.embeddingMillis(),
+                job.insertionMillis(), job.startedAt(), System.currentTimeMillis(),
+                job.completedRangeIndexes()));
+    }
+
+    private static IngestionJobDocument add(IngestionJobDocument job, IngestionJobDocument delta,
+            List<Integer> completedRangeIndexes) {
+        return new IngestionJobDocument(job.id(), job.type(), job.fileName(), job.status(),
+                job.totalChunks() + delta.totalChunks(),
+                job.embeddedChunks() + delta.embeddedChunks(),
+                job.insertedChunks() + delta.insertedChunks(),
+                job.failedChunks() + delta.failedChunks(), job.totalRanges(),
+                job.completedRanges() + delta.completedRanges(),
+                job.extractionMillis() + delta.extractionMillis(),
+                job.embeddingMillis() + delta.embeddingMillis(),
+                job.insertionMillis() + delta.insertionMillis(), job.startedAt(),
+                delta.updatedAt(), completedRangeIndexes);
+    }
+
+    public CosmosDBDocument get(String id) {
+        return documents.get(id);
+    }
+
+    public IngestionJobDocument getJob(String fileName) {
+        return jobs.get(IngestionJobDocument.jobId(fileName));
+    }
+
+    // write(), writeJob() が呼び出された回数 (Cosmos DB の bulk 呼び出し回数に相当)
+    public int getWriteCount() {
+        return writeCount.get();
+    }
+
+    // 書き込んだドキュメント数の合計 (Cosmos DB の操作数に相当)
+    public int getOperationCount() {
+        return operationCount.get();
+    }
+}
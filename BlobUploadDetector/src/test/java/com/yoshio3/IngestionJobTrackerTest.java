@@ -0,0 +1,63 @@
+package com.yoshio3;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.yoshio3.models.IngestionJobDocument;
+import com.yoshio3.models.IngestionJobStatus;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class IngestionJobTrackerTest {
+
+    private final TestExecutionContext context = new TestExecutionContext();
+    private final InMemoryStatusStore store = new InMemoryStatusStore();
+
+    @Test
+    void redeliveredRangeIsCountedOnce() {
+        new IngestionJobTracker(store, "a.pdf", context).startRanges(2);
+
+        finishRange(0, 3);
+        // 同じ範囲のメッセージが再度配信された場合は、件数も処理済みの範囲の数も加算しない
+        finishRange(0, 3);
+
+        IngestionJobDocument job = store.getJob("a.pdf");
+        assertEquals(IngestionJobStatus.RUNNING, job.status());
+        assertEquals(1, job.completedRanges());
+        assertEquals(3, job.totalChunks());
+        assertEquals(3, job.insertedChunks());
+
+        finishRange(1, 2);
+
+        job = store.getJob("a.pdf");
+        assertEquals(IngestionJobStatus.COMPLETED, job.status());
+        assertEquals(2, job.completedRanges());
+        assertEquals(5, job.totalChunks());
+        assertEquals(5, job.insertedChunks());
+        assertEquals(List.of(0, 1), job.completedRangeIndexes());
+    }
+
+    @Test
+    void redeliveredLastRangeWritesStatusLeftRunning() {
+        new IngestionJobTracker(store, "a.pdf", context).startRanges(1);
+        // 最後の範囲の加算後、終了状態を書き込む前に中断した場合を再現する
+        store.addRangeProgress(new IngestionJobDocument(IngestionJobDocument.jobId("a.pdf"),
+                IngestionJobDocument.TYPE, "a.pdf", IngestionJobStatus.RUNNING, 1, 1, 1, 0, 1, 1,
+                0, 0, 0, 0, System.currentTimeMillis(), List.of()), 0, context);
+        assertEquals(IngestionJobStatus.RUNNING, store.getJob("a.pdf").status());
+
+        finishRange(0, 1);
+
+        IngestionJobDocument job = store.getJob("a.pdf");
+        assertEquals(IngestionJobStatus.COMPLETED, job.status());
+        assertEquals(1, job.totalChunks());
+    }
+
+    private void finishRange(int rangeIndex, int chunks) {
+        IngestionJobTracker tracker = IngestionJobTracker.forRange(store, "a.pdf", rangeIndex,
+                context);
+        tracker.addTotal(chunks);
+        tracker.addEmbedded(chunks, 0);
+        tracker.addInserted(chunks, 0, 0);
+        tracker.finish();
+    }
+}
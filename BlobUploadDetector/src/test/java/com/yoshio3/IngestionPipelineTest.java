@@ -0,0 +1,146 @@
+package com.yoshio3;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+// IngestionPipeline のテストと、逐次処理との比較の計測
+// 計測では Embedding の呼び出しを、1 バッチ (EMBEDDING_BATCH 件) 毎に EMBEDDING_LATENCY_MILLIS 待機する処理で置き換え、
+// Function と同じく EMBEDDING_CONCURRENCY 件のバッチを並列に呼び出す。(結果は標準出力に出力する)
+class IngestionPipelineTest {
+
+    private static final int PAGES = 200;
+    private static final int EMBEDDING_BATCH = 16;
+    private static final int EMBEDDING_CONCURRENCY = 4;
+    private static final long EMBEDDING_LATENCY_MILLIS = 200;
+
+    private static ExecutorService embeddingExecutor;
+    private static byte[] pdf;
+
+    private final TestExecutionContext context = new TestExecutionContext();
+    private final PdfTextExtractor extractor =
+            new PdfTextExtractor(TextChunker.create("token", 7000, 0));
+
+    @BeforeAll
+    static void setUp() throws Exception {
+        embeddingExecutor = Executors.newFixedThreadPool(EMBEDDING_CONCURRENCY);
+        pdf = TestPdfs.create(PAGES, 40);
+    }
+
+    @AfterAll
+    static void tearDown() {
+        embeddingExecutor.shutdownNow();
+    }
+
+    @Test
+    void deliversEveryPageInBatchesOfAtMostBatchSize() throws Exception {
+        IngestionPipeline pipeline = new IngestionPipeline(extractor, 4, 16, 8, 10, 50);
+        List<PageInfo> received = Collections.synchronizedList(new ArrayList<>());
+        List<Integer> batchSizes = new ArrayList<>();
+        try (PdfSource source = PdfSource.create(pdf, Long.MAX_VALUE, 0, context)) {
+            pipeline.run(source, batch -> {
+                batchSizes.add(batch.size());
+                received.addAll(batch);
+            }, context);
+        }
+        Set<Integer> pages = new TreeSet<>();
+        received.forEach(pageInfo -> pages.add(pageInfo.pageNumber()));
+        assertEquals(PAGES, pages.size());
+        assertEquals(PAGES, received.size());
+        assertTrue(batchSizes.stream().allMatch(size -> size > 0 && size <= 10));
+    }
+
+    @Test
+    void measurePipelineAgainstSequentialExtraction() throws Exception {
+        // JIT のウォームアップ
+        extractAll();
+        // 逐次処理: 全ページを抽出してから Embedding を呼び出す (PdfPipelineEnabled=false の場合)
+        long start = System.nanoTime();
+        List<PageInfo> all = extractAll();
+        long sequentialFirst = System.nanoTime() - start;
+        embed(all);
+        long sequentialTotal = System.nanoTime() - start;
+
+        long[] oneBatch = runPipeline(EMBEDDING_BATCH);
+        long[] concurrentBatches = runPipeline(EMBEDDING_BATCH * EMBEDDING_CONCURRENCY);
+
+        System.out.printf("IngestionPipeline (%d pages, embedding %d ms per %d chunks, "
+                + "concurrency %d)%n", PAGES, EMBEDDING_LATENCY_MILLIS, EMBEDDING_BATCH,
+                EMBEDDING_CONCURRENCY);
+        System.out.printf("  sequential            : first batch %4d ms, total %5d ms%n",
+                millis(sequentialFirst), millis(sequentialTotal));
+        System.out.printf("  pipeline batch %3d    : first batch %4d ms, total %5d ms%n",
+                EMBEDDING_BATCH, millis(oneBatch[0]), millis(oneBatch[1]));
+        System.out.printf("  pipeline batch %3d    : first batch %4d ms, total %5d ms%n",
+                EMBEDDING_BATCH * EMBEDDING_CONCURRENCY, millis(concurrentBatches[0]),
+                millis(concurrentBatches[1]));
+        assertEquals(PAGES, all.size());
+    }
+
+    private List<PageInfo> extractAll() throws Exception {
+        List<PageInfo> all = new ArrayList<>();
+        try (PdfSource source = PdfSource.create(pdf, Long.MAX_VALUE, 0, context);
+                var document = source.load()) {
+            var stripper = extractor.createTextStripper();
+            for (int page = 1; page <= document.getNumberOfPages(); page++) {
+                all.addAll(extractor.extractPage(document, stripper, page, context));
+            }
+        }
+        return all;
+    }
+
+    // パイプラインで処理し、最初のバッチを受け取るまでの時間と全体の時間を返す
+    private long[] runPipeline(int batchSize) throws Exception {
+        IngestionPipeline pipeline = new IngestionPipeline(extractor, 4, 64, 8, batchSize, 200);
+        long start = System.nanoTime();
+        long[] first = {-1};
+        int[] count = {0};
+        Consumer<List<PageInfo>> consumer = batch -> {
+            if (first[0] < 0) {
+                first[0] = System.nanoTime() - start;
+            }
+            count[0] += batch.size();
+            embed(batch);
+        };
+        try (PdfSource source = PdfSource.create(pdf, Long.MAX_VALUE, 0, context)) {
+            pipeline.run(source, consumer, context);
+        }
+        assertEquals(PAGES, count[0]);
+        return new long[] {first[0], System.nanoTime() - start};
+    }
+
+    // EmbeddingBatcher と同じく、EMBEDDING_BATCH 件毎のバッチを並列に呼び出して完了を待つ
+    private static void embed(List<PageInfo> chunks) {
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < chunks.size(); i += EMBEDDING_BATCH) {
+            futures.add(embeddingExecutor.submit(() -> {
+                TimeUnit.MILLISECONDS.sleep(EMBEDDING_LATENCY_MILLIS);
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private static long millis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+}
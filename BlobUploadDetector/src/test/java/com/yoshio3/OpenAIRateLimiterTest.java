@@ -0,0 +1,68 @@
+package com.yoshio3;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+// OpenAIRateLimiter の待機時間のテスト (バケットの容量は 1 分あたりの値の 10 秒分)
+class OpenAIRateLimiterTest {
+
+    // 1 分あたり 60,000 トークン: 容量 10,000 トークン、1 ミリ秒あたり 1 トークンを補充
+    private static final int TOKENS_PER_MINUTE = 60_000;
+    private static final int REQUESTS_PER_MINUTE = 60_000;
+
+    @Test
+    void waitsForTokensToRefill() throws Exception {
+        OpenAIRateLimiter limiter = new OpenAIRateLimiter(TOKENS_PER_MINUTE, REQUESTS_PER_MINUTE);
+        assertTrue(elapsedMillis(() -> limiter.acquire(10_000)) < 100);
+        // バケットが空のため、200 トークン分 (約 200 ミリ秒) の補充を待つ
+        long waited = elapsedMillis(() -> limiter.acquire(200));
+        assertTrue(waited >= 150 && waited < 1000, "waited: " + waited);
+    }
+
+    @Test
+    void waitsForRequestsToRefill() throws Exception {
+        // 1 分あたり 600 リクエスト: 容量 100 リクエスト、100 ミリ秒毎に 1 リクエストを補充
+        OpenAIRateLimiter limiter = new OpenAIRateLimiter(TOKENS_PER_MINUTE, 600);
+        assertTrue(elapsedMillis(() -> {
+            for (int i = 0; i < 100; i++) {
+                limiter.acquire(1);
+            }
+        }) < 100);
+        long waited = elapsedMillis(() -> limiter.acquire(1));
+        assertTrue(waited >= 50 && waited < 1000, "waited: " + waited);
+    }
+
+    @Test
+    void pauseStopsCallsAndDiscardsStoredCapacity() throws Exception {
+        OpenAIRateLimiter limiter = new OpenAIRateLimiter(TOKENS_PER_MINUTE, REQUESTS_PER_MINUTE);
+        limiter.pause(300);
+        long waited = elapsedMillis(() -> limiter.acquire(1));
+        assertTrue(waited >= 250 && waited < 1500, "waited: " + waited);
+        // 短い停止で、より長い停止を上書きしない
+        limiter.pause(400);
+        limiter.pause(10);
+        waited = elapsedMillis(() -> limiter.acquire(1));
+        assertTrue(waited >= 350 && waited < 1500, "waited: " + waited);
+    }
+
+    @Test
+    void requestLargerThanCapacityRunsWhenBucketIsFull() throws Exception {
+        OpenAIRateLimiter limiter = new OpenAIRateLimiter(TOKENS_PER_MINUTE, REQUESTS_PER_MINUTE);
+        // 容量 (10,000) を超えるリクエストも、満杯であれば待たずに実行する
+        assertTrue(elapsedMillis(() -> limiter.acquire(50_000)) < 100);
+        // 容量分を使い切るため、次のリクエストは補充を待つ
+        long waited = elapsedMillis(() -> limiter.acquire(300));
+        assertTrue(waited >= 250 && waited < 1500, "waited: " + waited);
+    }
+
+    private interface Acquire {
+        void run() throws InterruptedException;
+    }
+
+    private static long elapsedMillis(Acquire acquire) throws InterruptedException {
+        long start = System.nanoTime();
+        acquire.run();
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+}
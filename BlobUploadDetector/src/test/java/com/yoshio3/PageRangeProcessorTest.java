@@ -0,0 +1,104 @@
+package com.yoshio3;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.yoshio3.models.IngestionJobDocument;
+import com.yoshio3.models.IngestionJobStatus;
+import com.yoshio3.models.PageRangeWorkItem;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class PageRangeProcessorTest {
+
+    private final TestExecutionContext context = new TestExecutionContext();
+    private final InMemoryStatusStore store = new InMemoryStatusStore();
+    private final List<String> deletedRanges = new ArrayList<>();
+    private final PageRangeProcessor processor = new PageRangeProcessor(store,
+            new PdfTextExtractor(TextChunker.create("token", 7000, 0)), Long.MAX_VALUE, 0,
+            (rangeBlobName, context) -> deletedRanges.add(rangeBlobName));
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void splitsEveryRangeIncludingTheLastPartialRange() throws Exception {
+        byte[] pdf = TestPdfs.create(40, 3);
+        List<PageRangeWorkItem> ranges = PageRangeProcessor.plan("a.pdf", 40, 16, "upload");
+        assertEquals(3, ranges.size());
+        assertEquals("upload/2.pdf", ranges.get(2).rangeBlobName());
+
+        int[] expectedPages = {16, 16, 8};
+        try (PDDocument document = PDDocument.load(pdf)) {
+            for (PageRangeWorkItem range : ranges) {
+                Path file = tempDir.resolve(range.rangeIndex() + ".pdf");
+                PageRangeProcessor.writeRange(document, range.startPage(), range.endPage(), file);
+                try (PDDocument part = PDDocument.load(file.toFile())) {
+                    assertEquals(expectedPages[range.rangeIndex()], part.getNumberOfPages());
+                    assertEquals(3, range.totalRanges());
+                    PDFTextStripper stripper = new PDFTextStripper();
+                    for (int page = 1; page <= part.getNumberOfPages(); page++) {
+                        stripper.setStartPage(page);
+                        stripper.setEndPage(page);
+                        int originalPage = range.startPage() + page - 1;
+                        assertTrue(stripper.getText(part)
+                                .startsWith("Page " + originalPage + " line 1."));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void processedRangeIsCountedAndDeleted() throws Exception {
+        new IngestionJobTracker(store, "a.pdf", context).startRanges(2);
+        PageRangeWorkItem range = PageRangeProcessor.plan("a.pdf", 6, 3, "upload").get(1);
+        Path file = tempDir.resolve("range.pdf");
+        try (PDDocument document = PDDocument.load(TestPdfs.create(6, 3))) {
+            PageRangeProcessor.writeRange(document, range.startPage(), range.endPage(), file);
+        }
+
+        List<Integer> pageNumbers = new ArrayList<>();
+        processor.process(range, Files.readAllBytes(file), (chunks, jobTracker) -> {
+            chunks.forEach(chunk -> pageNumbers.add(chunk.pageNumber()));
+            jobTracker.addTotal(chunks.size());
+            jobTracker.addInserted(chunks.size(), 0, 0);
+        }, context);
+
+        // ページ番号は元の PDF のページ番号になる
+        assertEquals(List.of(4, 5, 6), pageNumbers);
+        IngestionJobDocument job = store.getJob("a.pdf");
+        assertEquals(1, job.completedRanges());
+        assertEquals(3, job.totalChunks());
+        assertEquals(List.of(1), job.completedRangeIndexes());
+        assertEquals(List.of("upload/1.pdf"), deletedRanges);
+    }
+
+    @Test
+    void failedRangeIsRethrownWithoutCountingOrDeleting() {
+        new IngestionJobTracker(store, "a.pdf", context).startRanges(1);
+        PageRangeWorkItem range = PageRangeProcessor.plan("a.pdf", 3, 3, "upload").get(0);
+        List<List<PageInfo>> processed = new ArrayList<>();
+
+        // 読み込めない PDF はキューの再配信に任せるため、例外を送出する
+        assertThrows(UncheckedIOException.class, () -> processor.process(range,
+                "not a pdf".getBytes(StandardCharsets.UTF_8),
+                (chunks, jobTracker) -> processed.add(chunks), context));
+
+        assertTrue(processed.isEmpty());
+        assertTrue(deletedRanges.isEmpty());
+        IngestionJobDocument job = store.getJob("a.pdf");
+        assertEquals(IngestionJobStatus.RUNNING, job.status());
+        assertEquals(0, job.completedRanges());
+        assertTrue(job.completedRangeIndexes().isEmpty());
+    }
+}
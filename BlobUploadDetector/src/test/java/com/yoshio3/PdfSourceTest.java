@@ -0,0 +1,48 @@
+package com.yoshio3;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.junit.jupiter.api.Test;
+
+class PdfSourceTest {
+
+    private final TestExecutionContext context = new TestExecutionContext();
+
+    @Test
+    void loadsFromTemporaryFileAboveThresholdAndDeletesItOnClose() throws Exception {
+        byte[] pdf = TestPdfs.create(3, 5);
+        Path file;
+        try (PdfSource source = PdfSource.create(pdf, pdf.length - 1, 1024 * 1024, context)) {
+            file = tempFileOf(source);
+            assertTrue(Files.exists(file));
+            // 並列に開く場合もバッファの上限を等分して読み込める
+            try (PDDocument first = source.load(4); PDDocument second = source.load(4)) {
+                assertEquals(3, first.getNumberOfPages());
+                assertEquals(3, second.getNumberOfPages());
+            }
+        }
+        assertFalse(Files.exists(file));
+    }
+
+    @Test
+    void fromFileOwnsTheDownloadedFile() throws Exception {
+        Path file = Files.createTempFile("pdf-source-test-", ".pdf");
+        Files.write(file, TestPdfs.create(2, 5));
+        try (PdfSource source = PdfSource.fromFile(file, 1024 * 1024);
+                PDDocument document = source.load()) {
+            assertEquals(2, document.getNumberOfPages());
+        }
+        assertFalse(Files.exists(file));
+    }
+
+    private static Path tempFileOf(PdfSource source) throws Exception {
+        var field = PdfSource.class.getDeclaredField("file");
+        field.setAccessible(true);
+        return (Path) field.get(source);
+    }
+}
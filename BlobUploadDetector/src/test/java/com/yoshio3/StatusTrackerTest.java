@@ -0,0 +1,93 @@
+package com.yoshio3;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import com.yoshio3.models.CosmosDBDocumentStatus;
+import org.junit.jupiter.api.Test;
+
+class StatusTrackerTest {
+
+    private final TestExecutionContext context = new TestExecutionContext();
+    private final InMemoryStatusStore store = new InMemoryStatusStore();
+
+    @Test
+    void coalescesTransitionsIntoOneWritePerDocument() {
+        StatusTracker tracker = new StatusTracker(store, 100, context);
+        for (int i = 0; i < 3; i++) {
+            tracker.register("chunk-" + i, "a.pdf", i + 1);
+            tracker.transition("chunk-" + i, CosmosDBDocumentStatus.RETRY_OAI_INVOCATION);
+            tracker.transition("chunk-" + i, CosmosDBDocumentStatus.FINISH_OAI_INVOCATION);
+            tracker.transition("chunk-" + i, CosmosDBDocumentStatus.FINISH_DB_INSERTION);
+            tracker.transition("chunk-" + i, CosmosDBDocumentStatus.COMPLETED);
+        }
+        tracker.flush();
+
+        assertEquals(1, store.getWriteCount());
+        assertEquals(3, store.getOperationCount());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(CosmosDBDocumentStatus.COMPLETED, store.get("chunk-" + i).status());
+        }
+    }
+
+    @Test
+    void writesOnlyLatestStatusOfCreatedDocumentsOnNextFlush() {
+        StatusTracker tracker = new StatusTracker(store, 100, context);
+        tracker.register("chunk", "a.pdf", 1);
+        tracker.flush();
+        tracker.transition("chunk", CosmosDBDocumentStatus.FINISH_OAI_INVOCATION);
+        tracker.transition("chunk", CosmosDBDocumentStatus.COMPLETED);
+        tracker.flush();
+
+        assertEquals(2, store.getWriteCount());
+        assertEquals(2, store.getOperationCount());
+        assertEquals(CosmosDBDocumentStatus.COMPLETED, store.get("chunk").status());
+    }
+
+    @Test
+    void flushesAutomaticallyWhenPendingReachesLimit() {
+        StatusTracker tracker = new StatusTracker(store, 2, context);
+        tracker.register("chunk-1", "a.pdf", 1);
+        assertEquals(0, store.getWriteCount());
+        tracker.register("chunk-2", "a.pdf", 2);
+        assertEquals(1, store.getWriteCount());
+        tracker.flush();
+        assertEquals(1, store.getWriteCount());
+    }
+
+    @Test
+    void failuresOnlyWritesFailedChunksOnly() {
+        StatusTracker tracker = new StatusTracker(store, 100, true, context);
+        tracker.register("ok", "a.pdf", 1);
+        tracker.register("failed", "a.pdf", 2);
+        tracker.transition("ok", CosmosDBDocumentStatus.FINISH_OAI_INVOCATION);
+        tracker.transition("failed", CosmosDBDocumentStatus.FAILED_OAI_INVOCATION);
+        tracker.transition("ok", CosmosDBDocumentStatus.COMPLETED);
+        tracker.transition("failed", CosmosDBDocumentStatus.COMPLETED);
+        tracker.flush();
+
+        assertNull(store.get("ok"));
+        assertEquals(CosmosDBDocumentStatus.FAILED_OAI_INVOCATION, store.get("failed").status());
+        assertEquals(1, store.getOperationCount());
+    }
+
+    @Test
+    void failedStatusIsNotOverwrittenByLaterTransitions() {
+        StatusTracker tracker = new StatusTracker(store, 100, context);
+        tracker.register("before-flush", "a.pdf", 1);
+        tracker.register("after-flush", "a.pdf", 2);
+        tracker.transition("before-flush", CosmosDBDocumentStatus.FAILED_DB_INSERTION);
+        tracker.transition("before-flush", CosmosDBDocumentStatus.COMPLETED);
+        tracker.flush();
+        tracker.transition("after-flush", CosmosDBDocumentStatus.FAILED_DB_INSERTION);
+        tracker.flush();
+        tracker.transition("after-flush", CosmosDBDocumentStatus.COMPLETED);
+        tracker.flush();
+
+        assertEquals(CosmosDBDocumentStatus.FAILED_DB_INSERTION,
+                store.get("before-flush").status());
+        assertEquals(CosmosDBDocumentStatus.FAILED_DB_INSERTION,
+                store.get("after-flush").status());
+        assertEquals(2, store.getWriteCount());
+    }
+}
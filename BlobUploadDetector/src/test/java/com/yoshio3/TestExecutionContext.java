@@ -0,0 +1,25 @@
+package com.yoshio3;
+
+import com.microsoft.azure.functions.ExecutionContext;
+import java.util.logging.Logger;
+
+// テスト用の ExecutionContext (ログは java.util.logging に出力する)
+class TestExecutionContext implements ExecutionContext {
+
+    private static final Logger LOGGER = Logger.getLogger(TestExecutionContext.class.getName());
+
+    @Override
+    public Logger getLogger() {
+        return LOGGER;
+    }
+
+    @Override
+    public String getInvocationId() {
+        return "test-invocation";
+    }
+
+    @Override
+    public String getFunctionName() {
+        return "test-function";
+    }
+}
@@ -0,0 +1,39 @@
+package com.yoshio3;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+
+// テスト用の PDF を作成する (各ページに "Page <番号> line <行番号>" の行を linesPerPage 行書き込む)
+final class TestPdfs {
+
+    private TestPdfs() {
+    }
+
+    static byte[] create(int pages, int linesPerPage) throws IOException {
+        try (PDDocument document = new PDDocument();
+                ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            for (int pageNumber = 1; pageNumber <= pages; pageNumber++) {
+                PDPage page = new PDPage();
+                document.addPage(page);
+                try (PDPageContentStream stream = new PDPageContentStream(document, page)) {
+                    stream.beginText();
+                    stream.setFont(PDType1Font.HELVETICA, 8);
+                    stream.setLeading(10);
+                    stream.newLineAtOffset(40, 750);
+                    for (int line = 1; line <= linesPerPage; line++) {
+                        stream.showText("Page " + pageNumber + " line " + line
+                                + ". The quick brown fox jumps over the lazy dog.");
+                        stream.newLine();
+                    }
+                    stream.endText();
+                }
+            }
+            document.save(out);
+            return out.toByteArray();
+        }
+    }
+}
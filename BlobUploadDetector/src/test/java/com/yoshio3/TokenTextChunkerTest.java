@@ -0,0 +1,82 @@
+package com.yoshio3;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class TokenTextChunkerTest {
+
+    @Test
+    void keepsTextWithinLimitAsIs() {
+        String text = "This fits. Easily.";
+        assertEquals(List.of(text), new TokenTextChunker(100, 0).split(text));
+    }
+
+    @Test
+    void packsSentencesUpToTokenLimit() {
+        String text = sentences(1, 200);
+        List<String> chunks = new TokenTextChunker(50, 0).split(text);
+        assertTrue(chunks.size() > 1);
+        chunks.forEach(chunk -> assertTrue(TokenCounter.count(chunk) <= 50, chunk));
+        // 重複なしの場合は、全ての文がちょうど 1 回ずつ含まれる
+        assertEquals(text.replace(" ", ""), String.join("", chunks).replace(" ", ""));
+    }
+
+    @Test
+    void repeatsTrailingSentencesOfPreviousChunkAsOverlap() {
+        List<String> chunks = new TokenTextChunker(50, 12).split(sentences(1, 200));
+        assertTrue(chunks.size() > 1);
+        for (int i = 1; i < chunks.size(); i++) {
+            String previous = chunks.get(i - 1);
+            String lastSentence = previous.substring(previous.lastIndexOf("Sentence"));
+            assertTrue(chunks.get(i).startsWith(lastSentence),
+                    "chunk " + i + " should start with: " + lastSentence);
+            assertTrue(TokenCounter.count(chunks.get(i)) <= 50);
+        }
+    }
+
+    @Test
+    void cutsAtParagraphEndOnlyAfterHalfTheBudget() {
+        TokenTextChunker chunker = new TokenTextChunker(100, 0);
+
+        // 上限の半分を超えた位置の段落の終わりで区切る
+        String firstParagraph = sentences(1, 14);
+        String text = firstParagraph + "\n" + sentences(15, 60);
+        assertTrue(TokenCounter.count(firstParagraph) >= 50);
+        assertEquals(firstParagraph, chunker.split(text).get(0));
+
+        // 上限の半分に満たない位置の段落の終わりでは区切らない
+        String shortParagraph = sentences(1, 3);
+        text = shortParagraph + "\n" + sentences(4, 60);
+        String first = chunker.split(text).get(0);
+        assertTrue(first.length() > shortParagraph.length() + 1);
+        assertTrue(first.startsWith(shortParagraph + "\n"));
+    }
+
+    @Test
+    void doesNotSplitSurrogatePairsInLongSentence() {
+        String text = "😀".repeat(500);
+        List<String> chunks = new TokenTextChunker(7, 0).split(text);
+        assertTrue(chunks.size() > 1);
+        for (String chunk : chunks) {
+            assertFalse(Character.isLowSurrogate(chunk.charAt(0)), chunk);
+            assertFalse(Character.isHighSurrogate(chunk.charAt(chunk.length() - 1)), chunk);
+            assertTrue(TokenCounter.count(chunk) <= 7);
+        }
+        assertEquals(text, String.join("", chunks));
+    }
+
+    private static String sentences(int from, int to) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = from; i <= to; i++) {
+            if (i > from) {
+                builder.append(' ');
+            }
+            builder.append("Sentence number ").append(i).append(" is here.");
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,81 @@
+package com.yoshio3;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+// スキーマの変更など、運用者のみが実行する管理用のエンドポイント
+// テーブルやデータベースに負荷をかけるため、admin.endpoints.enabled=true の場合のみ登録します。(既定では無効)
+@Controller
+@Component
+@ConditionalOnProperty(name = "admin.endpoints.enabled", havingValue = "true")
+public class AdminController {
+
+    @Autowired
+    private FullTextIndexManager fullTextIndexManager;
+
+    @Autowired
+    private DocumentSearchRepository documentSearchRepository;
+
+    @Autowired(required = false)
+    private EmbeddedVectorSearchRepository embeddedVectorSearchRepository;
+
+    @Autowired
+    private QueryEmbeddingCache queryEmbeddingCache;
+
+    // 全文検索用の列・トリガー・インデックスを作成し、既存の行の値を作成する (ハイブリッド検索を利用する前に 1 度実行する)
+    @PostMapping("/admin/migrateFullTextColumn")
+    @ResponseBody
+    public Mono<FullTextIndexManager.Migration> migrateFullTextColumn() {
+        return Mono.fromCallable(fullTextIndexManager::migrate)
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    // ベクトル検索の再現率・所要時間とインデックスのサイズを計測 (storage.mode を変更する際の比較用)
+    // インデックスを利用しない全件の検索を samples 回実行するため、samples と k には上限がある
+    @GetMapping("/admin/vectorSearchBenchmark")
+    @ResponseBody
+    public Mono<DocumentSearchRepository.Benchmark> vectorSearchBenchmark(
+            @RequestParam(defaultValue = "20") int samples, @RequestParam(defaultValue = "5") int k) {
+        return documentSearchRepository.benchmark(samples, k);
+    }
+
+    // 検索文字列のベクター配列のキャッシュの統計情報 (ヒット率など)
+    @GetMapping("/admin/queryEmbeddingCacheStats")
+    @ResponseBody
+    public QueryEmbeddingCache.Stats queryEmbeddingCacheStats() {
+        return queryEmbeddingCache.getStats();
+    }
+
+    // プロセス内で検索するスナップショットを PostgreSQL から作成し直して読み込む (azure.search.backend=embedded の場合のみ)
+    @PostMapping("/admin/exportVectorSnapshot")
+    @ResponseBody
+    public Mono<Integer> exportVectorSnapshot() {
+        if (embeddedVectorSearchRepository == null) {
+            return Mono.error(new ResponseStatusException(HttpStatus.NOT_FOUND));
+        }
+        return embeddedVectorSearchRepository.exportAndReload();
+    }
+
+    // プロセス内の検索と PostgreSQL による検索の所要時間・スループットを比較 (azure.search.backend=embedded の場合のみ)
+    // samples, k, concurrency の上限は EmbeddedVectorSearchRepository.compareWithJdbc() で制限する
+    @GetMapping("/admin/searchBackendComparison")
+    @ResponseBody
+    public Mono<EmbeddedVectorSearchRepository.Comparison> searchBackendComparison(
+            @RequestParam(defaultValue = "100") int samples, @RequestParam(defaultValue = "5") int k,
+            @RequestParam(defaultValue = "8") int concurrency) {
+        if (embeddedVectorSearchRepository == null) {
+            return Mono.error(new ResponseStatusException(HttpStatus.NOT_FOUND));
+        }
+        return embeddedVectorSearchRepository.compareWithJdbc(samples, k, concurrency);
+    }
+}
@@ -3,9 +3,11 @@ package com.yoshio3;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.ComponentScan;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
 @ComponentScan({"com.yoshio3"}) 
+@EnableScheduling
 public class AppMain {
 
 	public static void main(String[] args) {
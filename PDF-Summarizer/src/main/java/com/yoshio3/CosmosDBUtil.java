@@ -4,10 +4,17 @@ import com.azure.cosmos.CosmosAsyncClient;
 import com.azure.cosmos.CosmosAsyncContainer;
 import com.azure.cosmos.CosmosAsyncDatabase;
 import com.azure.cosmos.CosmosClientBuilder;
+import com.azure.cosmos.models.CosmosBulkOperations;
+import com.azure.cosmos.models.CosmosItemOperation;
+import com.azure.cosmos.models.CosmosPatchOperations;
 import com.azure.cosmos.models.CosmosQueryRequestOptions;
+import com.azure.cosmos.models.FeedResponse;
+import com.azure.cosmos.models.PartitionKey;
 import com.azure.cosmos.models.SqlQuerySpec;
 import com.azure.cosmos.util.CosmosPagedFlux;
 import com.yoshio3.entities.CosmosDBDocument;
+import com.yoshio3.entities.IngestionJobDocument;
+import com.yoshio3.entities.StatusPage;
 import jakarta.annotation.PostConstruct;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
@@ -30,9 +37,20 @@ public class CosmosDBUtil {
     @Value("${azure.cosmos.db.container.name}")
     private String COSMOS_DB_CONTAINER_NAME;
 
-    private static final String RETRIVE_REGISTERED_DOCUMENTS_QUERY = "SELECT * FROM c WHERE c.status = 'COMPLETED' ORDER BY c.fileName ASC, c.pageNumber ASC";
+    // 一覧の 1 ページに表示する件数 (ストリーミングの場合は、Cosmos DB から 1 回に取得する件数)
+    @Value("${azure.cosmos.db.page.size:100}")
+    private int COSMOS_DB_PAGE_SIZE;
 
-    private static final String RETRIVE_FAILED_DOCUMENTS_QUERY = "SELECT * FROM c WHERE c.status != 'COMPLETED' ORDER BY c.fileName ASC, c.pageNumber ASC";
+    private static final int CONTINUATION_TOKEN_LIMIT_KB = 1;
+
+    // ファイル単位の進捗 (IngestionJobDocument) のみを取得するため、ファイル数分のドキュメントのみ読み込む
+    private static final String RETRIVE_REGISTERED_DOCUMENTS_QUERY = "SELECT * FROM c WHERE c.type = 'job' ORDER BY c.fileName ASC";
+
+    // チャンク毎のドキュメントは、失敗したチャンクのみ書き込まれる
+    private static final String RETRIVE_FAILED_DOCUMENTS_QUERY = "SELECT * FROM c WHERE NOT IS_DEFINED(c.type) AND c.status != 'COMPLETED' ORDER BY c.fileName ASC, c.pageNumber ASC";
+
+    // 登録に失敗したチャンクの再処理用のドキュメント (BlobUploadDetector の RetryDocument) の ID
+    private static final String RETRIVE_RETRY_IDS_QUERY = "SELECT VALUE c.id FROM c WHERE c.type = 'retry'";
 
     private CosmosAsyncContainer container = null;
     private CosmosAsyncClient client = null;
@@ -47,23 +65,62 @@ public class CosmosDBUtil {
         container = database.getContainer(COSMOS_DB_CONTAINER_NAME);
     }
 
-    // DB に登録が成功しているドキュメントを取得
-    public Mono<List<CosmosDBDocument>> getAllRegisteredDocuments() {
-        CosmosQueryRequestOptions options = new CosmosQueryRequestOptions();
-        options.setQueryMetricsEnabled(true);
-        SqlQuerySpec querySpec = new SqlQuerySpec(RETRIVE_REGISTERED_DOCUMENTS_QUERY);
+    // 登録したファイルの一覧と進捗を 1 ページ分取得 (continuationToken が null の場合は最初のページ)
+    public Mono<StatusPage<IngestionJobDocument>> getRegisteredDocumentsPage(String continuationToken) {
+        return getPage(RETRIVE_REGISTERED_DOCUMENTS_QUERY, IngestionJobDocument.class, continuationToken);
+    }
+
+    // DB の登録に失敗しているドキュメントを 1 ページ分取得
+    public Mono<StatusPage<CosmosDBDocument>> getFailedDocumentsPage(String continuationToken) {
+        return getPage(RETRIVE_FAILED_DOCUMENTS_QUERY, CosmosDBDocument.class, continuationToken);
+    }
 
-        CosmosPagedFlux<CosmosDBDocument> queryItems = container.queryItems(querySpec, options, CosmosDBDocument.class);
-        return queryItems.byPage().flatMap(page -> Flux.fromIterable(page.getResults())).collectList();
+    // 登録したファイルの一覧と進捗を、ページ単位で取得しながら順に返す (全件をメモリに保持しない)
+    public Flux<IngestionJobDocument> streamRegisteredDocuments() {
+        return stream(RETRIVE_REGISTERED_DOCUMENTS_QUERY, IngestionJobDocument.class);
     }
 
-    // DB の登録に失敗しているドキュメントを取得
-    public Mono<List<CosmosDBDocument>> getAllFailedDocuments() {
+    // DB の登録に失敗しているドキュメントを、ページ単位で取得しながら順に返す
+    public Flux<CosmosDBDocument> streamFailedDocuments() {
+        return stream(RETRIVE_FAILED_DOCUMENTS_QUERY, CosmosDBDocument.class);
+    }
+
+    // 登録に失敗した全てのチャンクを再処理の対象にする (再処理の回数と時刻をリセットし、対象にしたチャンク数を返す)
+    // 再処理は BlobUploadDetector の ReprocessFailedChunks が次回の実行時に行う
+    public Mono<Long> retryAllFailedDocuments() {
+        Flux<CosmosItemOperation> operations = container
+                .queryItems(new SqlQuerySpec(RETRIVE_RETRY_IDS_QUERY), createQueryOptions(), String.class)
+                .map(id -> CosmosBulkOperations.getPatchItemOperation(id, new PartitionKey(id),
+                        CosmosPatchOperations.create().set("/attempts", 0).set("/nextAttemptAt", 0L)));
+        return container.executeBulkOperations(operations)
+                .filter(response -> response.getException() == null
+                        && response.getResponse().isSuccessStatusCode())
+                .count();
+    }
+
+    private <T> Mono<StatusPage<T>> getPage(String query, Class<T> type, String continuationToken) {
+        CosmosPagedFlux<T> queryItems = container.queryItems(new SqlQuerySpec(query), createQueryOptions(), type);
+        Flux<FeedResponse<T>> pages = continuationToken == null || continuationToken.isBlank()
+                ? queryItems.byPage(COSMOS_DB_PAGE_SIZE)
+                : queryItems.byPage(continuationToken, COSMOS_DB_PAGE_SIZE);
+        // 1 ページ分のみ取得し、次のページは取得しない
+        return pages.next()
+                .map(page -> new StatusPage<>(page.getResults(), page.getContinuationToken()))
+                .defaultIfEmpty(new StatusPage<>(List.of(), null));
+    }
+
+    // concatMapIterable によりクライアントの受信に合わせて次のページを取得する
+    private <T> Flux<T> stream(String query, Class<T> type) {
+        return container.queryItems(new SqlQuerySpec(query), createQueryOptions(), type)
+                .byPage(COSMOS_DB_PAGE_SIZE)
+                .concatMapIterable(FeedResponse::getResults);
+    }
+
+    private CosmosQueryRequestOptions createQueryOptions() {
         CosmosQueryRequestOptions options = new CosmosQueryRequestOptions();
         options.setQueryMetricsEnabled(true);
-        SqlQuerySpec querySpec = new SqlQuerySpec(RETRIVE_FAILED_DOCUMENTS_QUERY);
-
-        CosmosPagedFlux<CosmosDBDocument> queryItems = container.queryItems(querySpec, options, CosmosDBDocument.class);
-        return queryItems.byPage().flatMap(page -> Flux.fromIterable(page.getResults())).collectList();
+        // continuationToken は URL のパラメータとして受け渡すため、サイズを制限する
+        options.setResponseContinuationTokenLimitInKb(CONTINUATION_TOKEN_LIMIT_KB);
+        return options;
     }
 }
@@ -0,0 +1,311 @@
+package com.yoshio3;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import com.yoshio3.entities.DocumentSummarizer;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+// PostgreSQL (pgvector) に対してベクトル検索を行うクラス
+// JDBC はブロッキング API のため、検索は専用のスレッド・プール (Scheduler) で実行し、
+// Netty のイベント・ループ (他の SSE の送信処理) を止めないようにします。
+// スレッド数はコネクション・プールのサイズと同じにし、空きコネクションを待つスレッドが溜まらないようにします。
+// ハイブリッド検索 (hybrid) の場合は、ベクトル検索と全文検索 (tsvector) の結果を Reciprocal Rank Fusion で統合し、
+// エラーコードや製品番号など、文字列の完全一致が重要な検索の取りこぼしを減らします。(統合まで 1 回の SQL で実行)
+// ベクトル検索の SQL は VectorIndexManager が作成します。(量子化したインデックスの場合は、候補を元の精度で並べ替える)
+@Component
+public class DocumentSearchRepository implements VectorSearchRepository {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(DocumentSearchRepository.class);
+
+    @Value("${azure.postgresql.jdbcurl}")
+    private String POSTGRESQL_JDBC_URL;
+
+    @Value("${azure.postgresql.user}")
+    private String POSTGRESQL_USER;
+
+    @Value("${azure.postgresql.password}")
+    private String POSTGRESQL_PASSWORD;
+
+    @Value("${azure.postgresql.db.table.name}")
+    private String POSTGRESQL_TABLE_NAME;
+
+    // コネクション・プールのサイズ (検索を同時に実行する数)
+    @Value("${azure.postgresql.max.pool.size:8}")
+    private int MAX_POOL_SIZE;
+
+    // プールのスレッドが全て使用中の場合に、待機させる検索の数の上限
+    @Value("${azure.postgresql.search.queue.size:1000}")
+    private int SEARCH_QUEUE_SIZE;
+
+    // 検索方法 (hybrid: ベクトル検索 + 全文検索、vector: ベクトル検索のみ)
+    @Value("${azure.postgresql.search.mode:vector}")
+    private String SEARCH_MODE;
+
+    // ハイブリッド検索で、ベクトル検索・全文検索のそれぞれから取得する候補の数
+    @Value("${azure.postgresql.search.vector.k:20}")
+    private int VECTOR_K;
+
+    @Value("${azure.postgresql.search.text.k:20}")
+    private int TEXT_K;
+
+    // 全文検索で順位 (ts_rank_cd) を計算する行数の上限 (多くの行に一致する検索文字列で全件の計算を避ける)
+    @Value("${azure.postgresql.search.text.candidates:1000}")
+    private int TEXT_CANDIDATES;
+
+    // Reciprocal Rank Fusion の定数 (スコア = Σ 1 / (k + 順位)。大きいほど下位の候補との差が小さくなる)
+    @Value("${azure.postgresql.search.rrf.k:60}")
+    private int RRF_K;
+
+    private static final String SEARCH_MODE_HYBRID = "hybrid";
+    // ベンチマークで利用するサンプル数と、各サンプルで取得する件数の上限
+    private static final int MAX_BENCHMARK_SAMPLES = 100;
+    private static final int MAX_BENCHMARK_K = 100;
+
+    // ベクトル検索の再現率 (正確な検索の上位 k 件のうち、インデックスを利用した検索で取得できた割合) と所要時間、
+    // テーブルとインデックスのサイズ (バイト)
+    public record Benchmark(String storageMode, int samples, int k, double recall,
+            double averageMillis, double exactAverageMillis, long tableBytes, long indexBytes) {}
+
+    @Autowired
+    private VectorIndexManager vectorIndexManager;
+
+    @Autowired
+    private FullTextIndexManager fullTextIndexManager;
+
+    private HikariDataSource dataSource;
+    private Scheduler scheduler;
+
+    @PostConstruct
+    public void init() {
+        HikariConfig config = new HikariConfig();
+        config.setJdbcUrl(POSTGRESQL_JDBC_URL);
+        config.setUsername(POSTGRESQL_USER);
+        config.setPassword(POSTGRESQL_PASSWORD);
+        config.setMaximumPoolSize(MAX_POOL_SIZE);
+        config.setPoolName("vector-search");
+        // PostgreSQL に接続できない環境 (スナップショットのみで検索する場合) でも起動できるよう、接続は初回の利用時に行う
+        config.setInitializationFailTimeout(-1);
+        dataSource = new HikariDataSource(config);
+        scheduler = Schedulers.newBoundedElastic(MAX_POOL_SIZE, SEARCH_QUEUE_SIZE, "vector-search");
+    }
+
+    @PreDestroy
+    public void destroy() {
+        scheduler.dispose();
+        dataSource.close();
+    }
+
+    @Override
+    public Mono<List<DocumentSummarizer>> findMostSimilar(String text, float[] embedding, int maxResult) {
+        return search(text, embedding, maxResult, isHybrid());
+    }
+
+    // 検索方法の設定に依らず、ベクトル検索のみを行う (スナップショットによる検索との比較用)
+    public Mono<List<DocumentSummarizer>> findMostSimilarByVector(float[] embedding, int maxResult) {
+        return search(null, embedding, maxResult, false);
+    }
+
+    private Mono<List<DocumentSummarizer>> search(String text, float[] embedding, int maxResult,
+            boolean hybrid) {
+        return Mono.fromCallable(() -> query(text, embedding, maxResult, hybrid))
+                .subscribeOn(scheduler)
+                .onErrorResume(SQLException.class, e -> {
+                    LOGGER.error("Connection failure: {}", e.getMessage());
+                    return Mono.just(List.of());
+                });
+    }
+
+    private boolean isHybrid() {
+        return SEARCH_MODE_HYBRID.equals(SEARCH_MODE.trim().toLowerCase()) && fullTextIndexManager.isReady();
+    }
+
+    // 各候補の順位を求め、RRF のスコアの高い順に maxResult 件を返す SQL
+    // ベクトル検索の候補は ORDER BY ... LIMIT でインデックス (HNSW / IVFFlat) を、全文検索の候補は GIN インデックスを利用する
+    private String hybridQuerySql(VectorIndexManager.SearchIndex searchIndex) {
+        String tsvColumn = fullTextIndexManager.columnName();
+        return "WITH search AS (SELECT " + fullTextIndexManager.queryExpression() + " AS query),"
+                + " vector_hits AS (SELECT id, row_number() OVER (ORDER BY distance) AS rank FROM"
+                + " (" + vectorIndexManager.nearestNeighborsSql(searchIndex) + ") AS nearest),"
+                + " text_hits AS (SELECT id, row_number() OVER (ORDER BY score DESC) AS rank FROM"
+                + " (SELECT id, ts_rank_cd(" + tsvColumn + ", query) AS score FROM"
+                + " (SELECT id, " + tsvColumn + ", search.query FROM " + POSTGRESQL_TABLE_NAME
+                + ", search WHERE " + tsvColumn + " @@ search.query LIMIT ?) AS candidates"
+                + " ORDER BY score DESC LIMIT ?) AS matched),"
+                + " fused AS (SELECT id, sum(1.0 / (? + rank)) AS score FROM"
+                + " (SELECT id, rank FROM vector_hits UNION ALL SELECT id, rank FROM text_hits) AS hits"
+                + " GROUP BY id)"
+                + " SELECT document.id, document.origntext, document.filename, document.pageNumber"
+                + " FROM fused JOIN " + POSTGRESQL_TABLE_NAME + " AS document ON document.id = fused.id"
+                + " ORDER BY fused.score DESC LIMIT ?";
+    }
+
+    private List<DocumentSummarizer> query(String text, float[] embedding, int maxResult,
+            boolean hybrid) throws SQLException {
+        List<DocumentSummarizer> docSummaryList = new ArrayList<>();
+        // SQL とパラメータの設定で同じインデックスの種類・形式を利用する
+        VectorIndexManager.SearchIndex searchIndex = vectorIndexManager.searchIndex();
+        String querySql = hybrid ? hybridQuerySql(searchIndex)
+                : "SELECT document.id, document.origntext, document.filename, document.pageNumber"
+                        + " FROM (" + vectorIndexManager.nearestNeighborsSql(searchIndex)
+                        + ") AS nearest JOIN "
+                        + POSTGRESQL_TABLE_NAME + " AS document ON document.id = nearest.id"
+                        + " ORDER BY nearest.distance";
+
+        try (Connection connection = dataSource.getConnection()) {
+            // ef_search / probes をこの検索のトランザクションのみに設定
+            connection.setAutoCommit(false);
+            // ベクター配列は文字列ではなく pgvector のバイナリ形式で送信する
+            PgVector.register(connection);
+            try {
+                vectorIndexManager.applySearchSettings(connection, searchIndex,
+                        hybrid ? VECTOR_K : maxResult);
+                try (PreparedStatement queryStatement = connection.prepareStatement(querySql)) {
+                    if (hybrid) {
+                        queryStatement.setString(1, text);
+                        int index = vectorIndexManager.bindNearestNeighbors(queryStatement, 2,
+                                searchIndex, new PgVector(embedding), VECTOR_K);
+                        queryStatement.setInt(index++, TEXT_CANDIDATES);
+                        queryStatement.setInt(index++, TEXT_K);
+                        queryStatement.setInt(index++, RRF_K);
+                        queryStatement.setInt(index, maxResult);
+                    } else {
+                        vectorIndexManager.bindNearestNeighbors(queryStatement, 1,
+                                searchIndex, new PgVector(embedding), maxResult);
+                    }
+                    try (ResultSet resultSet = queryStatement.executeQuery()) {
+                        while (resultSet.next()) {
+                            DocumentSummarizer documentSummarizer = new DocumentSummarizer(
+                                    UUID.fromString(resultSet.getString("id")),
+                                    null,
+                                    resultSet.getString("origntext"),
+                                    resultSet.getString("filename"),
+                                    resultSet.getInt("pageNumber"));
+                            docSummaryList.add(documentSummarizer);
+                            LOGGER.debug("DocumentSummarizer: {}", documentSummarizer);
+                        }
+                    }
+                }
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+        }
+        return docSummaryList;
+    }
+
+    // 登録済みのベクター配列から samples 件を無作為に選び、検索文字列の代わりに検索して、
+    // 現在のインデックス (形式: storage.mode) の再現率と所要時間を、インデックスを利用しない正確な検索と比較する
+    public Mono<Benchmark> benchmark(int samples, int k) {
+        int sampleCount = Math.max(1, Math.min(samples, MAX_BENCHMARK_SAMPLES));
+        int limit = Math.max(1, Math.min(k, MAX_BENCHMARK_K));
+        return Mono.fromCallable(() -> runBenchmark(sampleCount, limit))
+                .subscribeOn(scheduler);
+    }
+
+    private Benchmark runBenchmark(int samples, int k) throws SQLException {
+        String exactSql = "SELECT id FROM " + POSTGRESQL_TABLE_NAME
+                + " ORDER BY embedding <-> ? LIMIT ?";
+        VectorIndexManager.SearchIndex searchIndex = vectorIndexManager.searchIndex();
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            PgVector.register(connection);
+            try {
+                List<PgVector> embeddings = sampleEmbeddings(connection, samples);
+                double recallSum = 0;
+                long nanos = 0;
+                long exactNanos = 0;
+                for (PgVector embedding : embeddings) {
+                    vectorIndexManager.applySearchSettings(connection, searchIndex, k);
+                    setIndexScan(connection, true);
+                    long start = System.nanoTime();
+                    List<UUID> approximate;
+                    try (PreparedStatement statement = connection.prepareStatement(
+                            vectorIndexManager.nearestNeighborsSql(searchIndex))) {
+                        vectorIndexManager.bindNearestNeighbors(statement, 1, searchIndex,
+                                embedding, k);
+                        approximate = queryIds(statement);
+                    }
+                    nanos += System.nanoTime() - start;
+
+                    // インデックスを利用せずに全件の距離を計算した結果を正解とする
+                    setIndexScan(connection, false);
+                    start = System.nanoTime();
+                    List<UUID> exact;
+                    try (PreparedStatement statement = connection.prepareStatement(exactSql)) {
+                        statement.setObject(1, embedding);
+                        statement.setInt(2, k);
+                        exact = queryIds(statement);
+                    }
+                    exactNanos += System.nanoTime() - start;
+                    if (!exact.isEmpty()) {
+                        recallSum += (double) exact.stream().filter(approximate::contains).count()
+                                / exact.size();
+                    }
+                }
+                VectorIndexManager.RelationSizes sizes = vectorIndexManager.relationSizes(connection,
+                        searchIndex);
+                connection.commit();
+                int count = Math.max(1, embeddings.size());
+                Benchmark benchmark = new Benchmark(searchIndex.storageMode(),
+                        embeddings.size(), k, recallSum / count, nanos / 1_000_000.0 / count,
+                        exactNanos / 1_000_000.0 / count, sizes.tableBytes(), sizes.indexBytes());
+                LOGGER.info("Vector search benchmark: {}", benchmark);
+                return benchmark;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+        }
+    }
+
+    private List<PgVector> sampleEmbeddings(Connection connection, int samples)
+            throws SQLException {
+        List<PgVector> embeddings = new ArrayList<>(samples);
+        try (PreparedStatement statement = connection.prepareStatement("SELECT embedding FROM "
+                + POSTGRESQL_TABLE_NAME + " ORDER BY random() LIMIT ?")) {
+            statement.setInt(1, samples);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    embeddings.add((PgVector) resultSet.getObject(1));
+                }
+            }
+        }
+        return embeddings;
+    }
+
+    private static List<UUID> queryIds(PreparedStatement statement) throws SQLException {
+        List<UUID> ids = new ArrayList<>();
+        try (ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                ids.add(UUID.fromString(resultSet.getString("id")));
+            }
+        }
+        return ids;
+    }
+
+    // インデックス・スキャンの利用を現在のトランザクションのみで切り替える
+    private static void setIndexScan(Connection connection, boolean enabled) throws SQLException {
+        try (PreparedStatement statement =
+                connection.prepareStatement("SELECT set_config('enable_indexscan', ?, true)")) {
+            statement.setString(1, enabled ? "on" : "off");
+            statement.execute();
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.yoshio3;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Component;
+import com.yoshio3.entities.DocumentSummarizer;
+import jakarta.annotation.PostConstruct;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+// PostgreSQL に問い合わせず、エクスポートした HNSW のスナップショット (HnswSnapshot) をプロセス内で検索するクラス
+// azure.search.backend=embedded の場合に、DocumentSearchRepository の代わりに検索に利用します。(エッジ・オフライン環境向け)
+// 検索はベクトル検索のみで、ハイブリッド検索の全文検索は行いません。
+// スナップショットを読み込み直す場合は、新しいインスタンスに差し替えるため、検索中のスレッドを止めません。
+// スナップショットが存在しない場合は、起動後にバックグラウンドで PostgreSQL からエクスポートし、
+// 読み込むまでの検索は DocumentSearchRepository (PostgreSQL) で行います。
+@Component
+@Primary
+@ConditionalOnProperty(name = "azure.search.backend", havingValue = "embedded")
+public class EmbeddedVectorSearchRepository implements VectorSearchRepository {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(EmbeddedVectorSearchRepository.class);
+
+    // スナップショットのファイル (存在しない場合は起動後にバックグラウンドで PostgreSQL からエクスポートする)
+    @Value("${azure.search.embedded.snapshot.path:./vector-snapshot.hnsw}")
+    private String SNAPSHOT_PATH;
+
+    // HNSW: 検索時の候補リストのサイズ (大きいほど再現率が上がり、遅くなる)
+    @Value("${azure.search.embedded.hnsw.ef.search:40}")
+    private int HNSW_EF_SEARCH;
+
+    // 比較で利用するサンプル数、各サンプルで取得する件数、同時に実行する検索の数の上限
+    private static final int MAX_COMPARISON_SAMPLES = 100;
+    private static final int MAX_COMPARISON_K = 100;
+    private static final int MAX_COMPARISON_CONCURRENCY = 32;
+
+    // PostgreSQL による検索との比較結果 (overlap: 両方の上位 k 件に含まれる割合、所要時間はミリ秒、スループットは件/秒)
+    public record Comparison(int samples, int k, int concurrency, double overlap,
+            double embeddedAverageMillis, double jdbcAverageMillis,
+            double embeddedQueriesPerSecond, double jdbcQueriesPerSecond) {}
+
+    @Autowired
+    private VectorSnapshotExporter vectorSnapshotExporter;
+
+    @Autowired
+    private DocumentSearchRepository documentSearchRepository;
+
+    private volatile HnswSnapshot snapshot;
+
+    // エクスポートの実行中か否か (同じファイルへのエクスポートを同時に行わない)
+    private final AtomicBoolean exporting = new AtomicBoolean();
+
+    // 全件のエクスポートとグラフの作成には時間がかかるため、起動処理では待たない
+    @PostConstruct
+    public void init() {
+        Path path = Paths.get(SNAPSHOT_PATH);
+        if (Files.exists(path)) {
+            reload();
+            return;
+        }
+        LOGGER.info("HNSW snapshot not found. Exporting from PostgreSQL in background: {}", path);
+        exportAndReload().subscribe(size -> {
+        }, e -> LOGGER.error("Failed to export HNSW snapshot: {}", e.getMessage()));
+    }
+
+    // スナップショットを読み込み直し、件数を返す (読み込めない場合は以前のスナップショットのまま -1 を返す)
+    public int reload() {
+        try {
+            HnswSnapshot loaded = HnswSnapshot.open(Paths.get(SNAPSHOT_PATH));
+            snapshot = loaded;
+            LOGGER.info("Loaded HNSW snapshot: {} ({} vectors)", SNAPSHOT_PATH, loaded.size());
+            return loaded.size();
+        } catch (IOException e) {
+            LOGGER.error("Failed to load HNSW snapshot: {}", e.getMessage());
+            return -1;
+        }
+    }
+
+    // PostgreSQL からスナップショットを作成し直して読み込む
+    public Mono<Integer> exportAndReload() {
+        return Mono.fromCallable(() -> {
+            if (!exporting.compareAndSet(false, true)) {
+                throw new IllegalStateException("HNSW snapshot export is already running");
+            }
+            try {
+                vectorSnapshotExporter.export(Paths.get(SNAPSHOT_PATH));
+            } finally {
+                exporting.set(false);
+            }
+            return reload();
+        }).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    // 検索は CPU のみを使用するため、parallel スケジューラで実行する
+    // スナップショットを読み込むまでは PostgreSQL で検索する
+    @Override
+    public Mono<List<DocumentSummarizer>> findMostSimilar(String text, float[] embedding,
+            int maxResult) {
+        HnswSnapshot current = snapshot;
+        if (current == null) {
+            return documentSearchRepository.findMostSimilar(text, embedding, maxResult);
+        }
+        return Mono.fromCallable(() -> search(current, embedding, maxResult))
+                .subscribeOn(Schedulers.parallel());
+    }
+
+    private List<DocumentSummarizer> search(HnswSnapshot current, float[] embedding,
+            int maxResult) {
+        List<DocumentSummarizer> documents = new ArrayList<>(maxResult);
+        current.search(embedding, maxResult, HNSW_EF_SEARCH)
+                .forEach(hit -> documents.add(hit.document()));
+        return documents;
+    }
+
+    // スナップショットの samples 件のベクター配列で検索し、PostgreSQL による検索と結果・所要時間・スループットを比較する
+    // スループットは concurrency 件ずつ同時に検索して計測する (PostgreSQL はコネクション・プールのサイズが上限)
+    // PostgreSQL 側は、検索方法 (search.mode) の設定に依らずベクトル検索のみで比較する
+    public Mono<Comparison> compareWithJdbc(int requestedSamples, int requestedK,
+            int requestedConcurrency) {
+        int samples = Math.max(1, Math.min(requestedSamples, MAX_COMPARISON_SAMPLES));
+        int k = Math.max(1, Math.min(requestedK, MAX_COMPARISON_K));
+        int concurrency = Math.max(1, Math.min(requestedConcurrency, MAX_COMPARISON_CONCURRENCY));
+        return Mono.fromCallable(() -> {
+            HnswSnapshot current = snapshot;
+            if (current == null || current.size() == 0) {
+                throw new IllegalStateException("HNSW snapshot is not loaded: " + SNAPSHOT_PATH);
+            }
+            List<float[]> queries = new ArrayList<>(samples);
+            int step = Math.max(1, current.size() / Math.max(1, samples));
+            for (int node = 0; node < current.size() && queries.size() < samples; node += step) {
+                queries.add(current.vector(node));
+            }
+
+            double overlapSum = 0;
+            long embeddedNanos = 0;
+            long jdbcNanos = 0;
+            for (float[] query : queries) {
+                long start = System.nanoTime();
+                List<DocumentSummarizer> embedded = search(current, query, k);
+                embeddedNanos += System.nanoTime() - start;
+                start = System.nanoTime();
+                List<DocumentSummarizer> jdbc =
+                        documentSearchRepository.findMostSimilarByVector(query, k).block();
+                jdbcNanos += System.nanoTime() - start;
+                Set<UUID> jdbcIds = new HashSet<>();
+                jdbc.forEach(document -> jdbcIds.add(document.id()));
+                if (!jdbcIds.isEmpty()) {
+                    overlapSum += (double) embedded.stream()
+                            .filter(document -> jdbcIds.contains(document.id())).count()
+                            / jdbcIds.size();
+                }
+            }
+            double embeddedQps = throughput(queries, concurrency,
+                    query -> findMostSimilar("", query, k));
+            double jdbcQps = throughput(queries, concurrency,
+                    query -> documentSearchRepository.findMostSimilarByVector(query, k));
+            int count = queries.size();
+            Comparison comparison = new Comparison(count, k, concurrency, overlapSum / count,
+                    embeddedNanos / 1_000_000.0 / count, jdbcNanos / 1_000_000.0 / count,
+                    embeddedQps, jdbcQps);
+            LOGGER.info("Search backend comparison: {}", comparison);
+            return comparison;
+        }).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    private static double throughput(List<float[]> queries, int concurrency,
+            Function<float[], Mono<List<DocumentSummarizer>>> search) {
+        long start = System.nanoTime();
+        Flux.fromIterable(queries)
+                .flatMap(search, concurrency)
+                .blockLast();
+        return queries.size() / ((System.nanoTime() - start) / 1_000_000_000.0);
+    }
+}
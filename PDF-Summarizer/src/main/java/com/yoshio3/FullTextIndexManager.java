@@ -0,0 +1,386 @@
+package com.yoshio3;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.UUID;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import jakarta.annotation.PostConstruct;
+
+// origntext の全文検索用の列 (tsvector) と GIN インデックスを管理するクラス
+// 列の値は登録・更新時にトリガーで作成するため、登録側 (BlobUploadDetector) の変更は不要です。
+// 字句の分割方法は次の 2 種類から選択します。
+// tsvector: PostgreSQL のテキスト検索設定 (simple, english など) で分割する (空白で区切られた言語向け)
+// bigram: 2 文字ずつ分割する (空白で区切られない日本語向け。拡張機能は不要)
+// 起動時と定期的 (ready.check.interval.millis 毎) に準備ができているかを確認するのみで、テーブルは変更しません。
+// (他のインスタンスで移行した場合や、分割方法を変更した場合も、次の確認で全文検索の利用を切り替える)
+// 列の追加や分割方法の変更は、管理用の migrate() (POST /admin/migrateFullTextColumn) で行います。
+// (生成列 (GENERATED ALWAYS ... STORED) の追加・削除はテーブル全体を書き換え、その間は検索もできなくなるため、
+// NULL を許可する通常の列を追加し、既存の行の値は少しずつ更新します)
+@Component
+public class FullTextIndexManager {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(FullTextIndexManager.class);
+
+    private static final String COLUMN_NAME = "origntext_tsv";
+    private static final String PARSER_BIGRAM = "bigram";
+
+    // 移行の結果 (値を更新した行数と所要時間)
+    public record Migration(String parser, long updatedRows, long elapsedMillis) {}
+
+    @Value("${azure.postgresql.jdbcurl}")
+    private String POSTGRESQL_JDBC_URL;
+
+    @Value("${azure.postgresql.user}")
+    private String POSTGRESQL_USER;
+
+    @Value("${azure.postgresql.password}")
+    private String POSTGRESQL_PASSWORD;
+
+    @Value("${azure.postgresql.db.table.name}")
+    private String POSTGRESQL_TABLE_NAME;
+
+    // 字句の分割方法 (tsvector, bigram)
+    @Value("${azure.postgresql.fulltext.parser:bigram}")
+    private String PARSER;
+
+    // parser が tsvector の場合のテキスト検索設定
+    @Value("${azure.postgresql.fulltext.config:simple}")
+    private String CONFIG;
+
+    // 既存の行の値を作成する際に、1 回の UPDATE (1 トランザクション) で処理する行数
+    @Value("${azure.postgresql.fulltext.backfill.batch.size:1000}")
+    private int BACKFILL_BATCH_SIZE;
+
+    // ALTER TABLE などでテーブルのロックを待つ時間の上限
+    // (長い検索の終了を待つ間は後続の検索も待たされるため、超えた場合は移行を失敗させる)
+    @Value("${azure.postgresql.fulltext.lock.timeout:5s}")
+    private String LOCK_TIMEOUT;
+
+    // テーブルは VectorIndexManager で作成するため、先に初期化させる
+    @Autowired
+    private VectorIndexManager vectorIndexManager;
+
+    private volatile boolean ready;
+
+    @PostConstruct
+    public void init() {
+        if (!isValidConfig()) {
+            LOGGER.error("Invalid text search config: {}", CONFIG);
+            return;
+        }
+        try {
+            refreshReady();
+            if (!ready) {
+                LOGGER.warn("Full text column {} is not ready ({}). Run POST /admin/migrateFullTextColumn"
+                        + " to use hybrid search", COLUMN_NAME, parserDescription());
+            }
+        } catch (SQLException e) {
+            LOGGER.error("Failed to check full text index: {}", e.getMessage());
+        }
+    }
+
+    // 準備ができているかを定期的に確認し直す (状態が変わった場合のみログに出力する)
+    @Scheduled(initialDelayString = "${azure.postgresql.fulltext.ready.check.interval.millis:60000}",
+            fixedDelayString = "${azure.postgresql.fulltext.ready.check.interval.millis:60000}")
+    public void checkReady() {
+        if (!isValidConfig()) {
+            return;
+        }
+        boolean previous = ready;
+        try {
+            refreshReady();
+        } catch (SQLException e) {
+            LOGGER.debug("Failed to check full text index: {}", e.getMessage());
+            return;
+        }
+        if (ready != previous) {
+            LOGGER.info("Full text column {} is {} ({})", COLUMN_NAME,
+                    ready ? "ready" : "not ready", parserDescription());
+        }
+    }
+
+    // 移行の途中の状態で ready を上書きしないよう、migrate() と排他にする
+    private synchronized void refreshReady() throws SQLException {
+        try (Connection connection = DriverManager.getConnection(POSTGRESQL_JDBC_URL,
+                POSTGRESQL_USER, POSTGRESQL_PASSWORD)) {
+            ready = parserDescription().equals(currentParser(connection))
+                    && triggerExists(connection) && isIndexValid(connection);
+        }
+    }
+
+    // 列・トリガー・インデックスを作成し、既存の行の値を作成する (途中で失敗した場合は、再度実行すると続きから処理する)
+    // 1. NULL を許可する通常の列を追加 (既存の行は書き換えない)。以前の生成列は、値を残したまま通常の列に変更
+    // 2. 登録・更新される行の値を作成するトリガーを作成
+    // 3. 既存の行の値を、主キーの順に BACKFILL_BATCH_SIZE 件ずつ別のトランザクションで更新
+    // 4. GIN インデックスを CONCURRENTLY で作成 (登録を止めない)
+    // 5. 列のコメントに分割方法を記録 (記録されるまでは、どのインスタンスも起動時に全文検索を利用しない)
+    public synchronized Migration migrate() throws SQLException {
+        if (!isValidConfig()) {
+            throw new IllegalStateException("Invalid text search config: " + CONFIG);
+        }
+        long start = System.nanoTime();
+        try (Connection connection = DriverManager.getConnection(POSTGRESQL_JDBC_URL,
+                POSTGRESQL_USER, POSTGRESQL_PASSWORD)) {
+            setLockTimeout(connection);
+            String current = currentParser(connection);
+            if (current != null && !parserDescription().equals(current)) {
+                // 値を作り直すまでは、異なる分割方法の値が混在するため全文検索を利用しない
+                LOGGER.info("Full text parser changed ({} -> {}). Rebuilding values of {}", current,
+                        parserDescription(), COLUMN_NAME);
+                ready = false;
+            }
+            if (isBigram()) {
+                createBigramFunction(connection);
+            }
+            addColumnIfNotExists(connection, current != null);
+            if (!parserDescription().equals(current)) {
+                setParser(connection, "");
+            }
+            createTrigger(connection);
+            long updatedRows = backfill(connection);
+            createIndexIfNotExists(connection);
+            setParser(connection, parserDescription());
+            ready = true;
+            Migration migration = new Migration(parserDescription(), updatedRows,
+                    (System.nanoTime() - start) / 1_000_000);
+            LOGGER.info("Full text column migrated: {}", migration);
+            return migration;
+        }
+    }
+
+    // 列とインデックスの準備ができているか否か (できていない場合はベクトル検索のみを行う)
+    public boolean isReady() {
+        return ready;
+    }
+
+    public String columnName() {
+        return COLUMN_NAME;
+    }
+
+    // 検索文字列 (パラメータ 1 つ) から tsquery を作成する SQL の式
+    // ハイブリッド検索では、一部の語のみを含むドキュメントも候補にするため、語を OR でつなぐ
+    // 2-gram では、ほとんどの行に一致しないよう、語 (空白区切り) 内の 2 文字の組を AND でつなぎ、語同士を OR でつなぐ
+    public String queryExpression() {
+        if (isBigram()) {
+            return "(SELECT coalesce(string_agg(word_query, ' | '), '')::tsquery FROM"
+                    + " (SELECT '(' || string_agg('''' || replace(replace(bigram, '\\', '\\\\'), '''', '''''')"
+                    + " || '''', ' & ') || ')' AS word_query"
+                    + " FROM regexp_split_to_table(?, '\\s+') AS word, unnest(" + bigramFunctionName()
+                    + "(word)) AS bigram GROUP BY word) AS words)";
+        }
+        return "replace(plainto_tsquery('" + CONFIG + "'::regconfig, ?)::text, ' & ', ' | ')::tsquery";
+    }
+
+    // text (origntext などの SQL の式) から tsvector を作成する SQL の式
+    private String documentExpression(String text) {
+        if (isBigram()) {
+            return "array_to_tsvector(" + bigramFunctionName() + "(" + text + "))";
+        }
+        return "to_tsvector('" + CONFIG + "'::regconfig, coalesce(" + text + ", ''))";
+    }
+
+    private boolean isValidConfig() {
+        return isBigram() || CONFIG.matches("[A-Za-z_][A-Za-z0-9_.]*");
+    }
+
+    // 小文字に変換し、空白を含まない 2 文字の組を重複なく返す関数
+    private void createBigramFunction(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE OR REPLACE FUNCTION " + bigramFunctionName()
+                    + "(value text) RETURNS text[] LANGUAGE sql IMMUTABLE PARALLEL SAFE AS $$"
+                    + " SELECT coalesce(array_agg(DISTINCT substr(t, i, 2)), '{}')"
+                    + " FROM (SELECT lower(coalesce(value, '')) AS t) AS source,"
+                    + " generate_series(1, length(t) - 1) AS i"
+                    + " WHERE substr(t, i, 2) !~ '\\s' $$");
+        }
+    }
+
+    // NULL を許可し、既定値のない列の追加はカタログの変更のみで、テーブルを書き換えない
+    // 以前のバージョンで作成した生成列の場合は、式のみを削除する (保存済みの値は残り、書き換えない。PostgreSQL 13 以降)
+    private void addColumnIfNotExists(Connection connection, boolean exists) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            if (!exists) {
+                LOGGER.info("Adding full text column {} to {}", COLUMN_NAME, POSTGRESQL_TABLE_NAME);
+                statement.execute("ALTER TABLE " + POSTGRESQL_TABLE_NAME + " ADD COLUMN IF NOT EXISTS "
+                        + COLUMN_NAME + " tsvector");
+            } else if (isGeneratedColumn(connection)) {
+                LOGGER.info("Converting generated column {} to a plain column", COLUMN_NAME);
+                statement.execute("ALTER TABLE " + POSTGRESQL_TABLE_NAME + " ALTER COLUMN "
+                        + COLUMN_NAME + " DROP EXPRESSION");
+            }
+        }
+    }
+
+    // 登録・本文の更新時に列の値を作成するトリガー (分割方法を変更した場合は関数のみを置き換える)
+    private void createTrigger(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE OR REPLACE FUNCTION " + triggerName()
+                    + "() RETURNS trigger LANGUAGE plpgsql AS $$ BEGIN NEW." + COLUMN_NAME + " := "
+                    + documentExpression("NEW.origntext") + "; RETURN NEW; END $$");
+            if (!triggerExists(connection)) {
+                statement.execute("CREATE TRIGGER " + triggerName() + " BEFORE INSERT OR UPDATE OF"
+                        + " origntext ON " + POSTGRESQL_TABLE_NAME + " FOR EACH ROW EXECUTE FUNCTION "
+                        + triggerName() + "()");
+            }
+        }
+    }
+
+    // 既存の行の値を主キーの順に作成し、値を変更した行数を返す
+    // 各 UPDATE は autoCommit で実行し、行ロックを保持する時間を BACKFILL_BATCH_SIZE 件分に抑える
+    // (値が既に正しい行は更新しないため、中断後に再実行しても、同じ分割方法で作成済みの行は書き換えない)
+    private long backfill(Connection connection) throws SQLException {
+        String expression = documentExpression("origntext");
+        long updatedRows = 0;
+        UUID lower = null;
+        while (true) {
+            UUID upper = batchUpperBound(connection, lower);
+            String sql = "UPDATE " + POSTGRESQL_TABLE_NAME + " SET " + COLUMN_NAME + " = "
+                    + expression + " WHERE " + (lower == null ? "TRUE" : "id > ?")
+                    + (upper == null ? "" : " AND id <= ?") + " AND " + COLUMN_NAME
+                    + " IS DISTINCT FROM " + expression;
+            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                int index = 1;
+                if (lower != null) {
+                    statement.setObject(index++, lower);
+                }
+                if (upper != null) {
+                    statement.setObject(index, upper);
+                }
+                updatedRows += statement.executeUpdate();
+            }
+            if (upper == null) {
+                return updatedRows;
+            }
+            LOGGER.debug("Backfilled {} up to {} ({} rows updated)", COLUMN_NAME, upper, updatedRows);
+            lower = upper;
+        }
+    }
+
+    // lower より後の BACKFILL_BATCH_SIZE 件目の主キー (残りがそれより少ない場合は null)
+    private UUID batchUpperBound(Connection connection, UUID lower) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("SELECT id FROM "
+                + POSTGRESQL_TABLE_NAME + (lower == null ? "" : " WHERE id > ?")
+                + " ORDER BY id OFFSET ? LIMIT 1")) {
+            int index = 1;
+            if (lower != null) {
+                statement.setObject(index++, lower);
+            }
+            statement.setInt(index, Math.max(1, BACKFILL_BATCH_SIZE) - 1);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? resultSet.getObject(1, UUID.class) : null;
+            }
+        }
+    }
+
+    // CREATE INDEX CONCURRENTLY が途中で失敗したインデックスは無効のまま残るため、削除してから作成し直す
+    private void createIndexIfNotExists(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            if (indexExists(connection) && !isIndexValid(connection)) {
+                LOGGER.warn("Dropping invalid index {} to rebuild it", indexName());
+                statement.execute("DROP INDEX CONCURRENTLY IF EXISTS " + indexName());
+            }
+            statement.execute("CREATE INDEX CONCURRENTLY IF NOT EXISTS " + indexName() + " ON "
+                    + POSTGRESQL_TABLE_NAME + " USING gin (" + COLUMN_NAME + ")");
+        }
+    }
+
+    // 分割方法は列のコメントに記録する (空の場合は移行の途中)
+    private void setParser(Connection connection, String parser) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("COMMENT ON COLUMN " + POSTGRESQL_TABLE_NAME + "." + COLUMN_NAME
+                    + " IS '" + parser + "'");
+        }
+    }
+
+    private void setLockTimeout(Connection connection) throws SQLException {
+        try (PreparedStatement statement =
+                connection.prepareStatement("SELECT set_config('lock_timeout', ?, false)")) {
+            statement.setString(1, LOCK_TIMEOUT);
+            statement.execute();
+        }
+    }
+
+    // 列が存在しない場合は null
+    private String currentParser(Connection connection) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT coalesce(col_description(attrelid, attnum), '') FROM pg_attribute"
+                        + " WHERE attrelid = to_regclass(?) AND attname = ? AND NOT attisdropped")) {
+            statement.setString(1, POSTGRESQL_TABLE_NAME.toLowerCase());
+            statement.setString(2, COLUMN_NAME);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? resultSet.getString(1) : null;
+            }
+        }
+    }
+
+    private boolean isGeneratedColumn(Connection connection) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT 1 FROM pg_attribute WHERE attrelid = to_regclass(?) AND attname = ?"
+                        + " AND NOT attisdropped AND attgenerated <> ''")) {
+            statement.setString(1, POSTGRESQL_TABLE_NAME.toLowerCase());
+            statement.setString(2, COLUMN_NAME);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next();
+            }
+        }
+    }
+
+    private boolean triggerExists(Connection connection) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT 1 FROM pg_trigger WHERE tgrelid = to_regclass(?) AND tgname = ?")) {
+            statement.setString(1, POSTGRESQL_TABLE_NAME.toLowerCase());
+            statement.setString(2, triggerName());
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next();
+            }
+        }
+    }
+
+    private boolean indexExists(Connection connection) throws SQLException {
+        return indexValidity(connection) != null;
+    }
+
+    private boolean isIndexValid(Connection connection) throws SQLException {
+        return Boolean.TRUE.equals(indexValidity(connection));
+    }
+
+    // インデックスが存在しない場合は null
+    private Boolean indexValidity(Connection connection) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT indisvalid FROM pg_index WHERE indexrelid = to_regclass(?)")) {
+            statement.setString(1, indexName());
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? resultSet.getBoolean(1) : null;
+            }
+        }
+    }
+
+    private boolean isBigram() {
+        return PARSER_BIGRAM.equals(PARSER.trim().toLowerCase());
+    }
+
+    private String parserDescription() {
+        return isBigram() ? PARSER_BIGRAM : "tsvector:" + CONFIG;
+    }
+
+    private String bigramFunctionName() {
+        return (POSTGRESQL_TABLE_NAME + "_bigrams").toLowerCase();
+    }
+
+    private String triggerName() {
+        return (POSTGRESQL_TABLE_NAME + "_" + COLUMN_NAME + "_update").toLowerCase();
+    }
+
+    private String indexName() {
+        return (POSTGRESQL_TABLE_NAME + "_" + COLUMN_NAME + "_gin_idx").toLowerCase();
+    }
+}
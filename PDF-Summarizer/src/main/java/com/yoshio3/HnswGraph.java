@@ -0,0 +1,106 @@
+package com.yoshio3;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.IntPredicate;
+
+// HNSW (Hierarchical Navigable Small World) のグラフを探索する処理
+// グラフの保持方法 (スナップショットの作成時はヒープ上、検索時はメモリ・マップしたファイル) に依らない探索の処理をまとめ、
+// スナップショットの作成 (HnswSnapshotWriter) と検索 (HnswSnapshot) で共有します。
+// 距離は pgvector の "<->" と同じ順序になるよう、L2 距離の 2 乗を利用します。
+abstract class HnswGraph {
+
+    record Candidate(int node, float distance) {}
+
+    static final Comparator<Candidate> NEAREST_FIRST =
+            Comparator.comparingDouble(Candidate::distance);
+
+    // query と node のベクター配列の距離
+    abstract float distance(float[] query, int node);
+
+    abstract int neighbourCount(int node, int level);
+
+    abstract int neighbour(int node, int level, int index);
+
+    // 上位の層から 1 件ずつ近いノードをたどり、最下層 (0) で ef 件の候補から近い順に返す
+    List<Candidate> search(float[] query, int entryPoint, int maxLevel, int ef,
+            IntPredicate visit) {
+        int current = entryPoint;
+        for (int level = maxLevel; level > 0; level--) {
+            current = greedySearch(query, current, level);
+        }
+        return searchLayer(query, current, ef, 0, visit);
+    }
+
+    // level の層で、entryPoint から近いノードがなくなるまでたどる
+    int greedySearch(float[] query, int entryPoint, int level) {
+        int current = entryPoint;
+        float currentDistance = distance(query, current);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            int count = neighbourCount(current, level);
+            for (int i = 0; i < count; i++) {
+                int candidate = neighbour(current, level, i);
+                float candidateDistance = distance(query, candidate);
+                if (candidateDistance < currentDistance) {
+                    current = candidate;
+                    currentDistance = candidateDistance;
+                    changed = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    // level の層で query に近い ef 件のノードを近い順に返す
+    // visit: ノードを初めて訪れた場合に true を返す (探索毎に新しい状態を渡す)
+    List<Candidate> searchLayer(float[] query, int entryPoint, int ef, int level,
+            IntPredicate visit) {
+        PriorityQueue<Candidate> candidates = new PriorityQueue<>(NEAREST_FIRST);
+        PriorityQueue<Candidate> results = new PriorityQueue<>(NEAREST_FIRST.reversed());
+        Candidate entry = new Candidate(entryPoint, distance(query, entryPoint));
+        visit.test(entryPoint);
+        candidates.add(entry);
+        results.add(entry);
+        while (!candidates.isEmpty()) {
+            Candidate closest = candidates.poll();
+            if (results.size() >= ef && closest.distance() > results.peek().distance()) {
+                break;
+            }
+            int count = neighbourCount(closest.node(), level);
+            for (int i = 0; i < count; i++) {
+                int node = neighbour(closest.node(), level, i);
+                if (!visit.test(node)) {
+                    continue;
+                }
+                float nodeDistance = distance(query, node);
+                if (results.size() < ef || nodeDistance < results.peek().distance()) {
+                    Candidate candidate = new Candidate(node, nodeDistance);
+                    candidates.add(candidate);
+                    results.add(candidate);
+                    if (results.size() > ef) {
+                        results.poll();
+                    }
+                }
+            }
+        }
+        List<Candidate> sorted = new ArrayList<>(results);
+        sorted.sort(NEAREST_FIRST);
+        return sorted;
+    }
+
+    // vectors に次元数 dimensions で並べたベクター配列のうち、node のものと query の距離
+    static float distance(FloatBuffer vectors, int dimensions, float[] query, int node) {
+        int base = node * dimensions;
+        float sum = 0;
+        for (int i = 0; i < dimensions; i++) {
+            float difference = query[i] - vectors.get(base + i);
+            sum += difference * difference;
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,180 @@
+package com.yoshio3;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.UUID;
+import com.yoshio3.entities.DocumentSummarizer;
+
+// PostgreSQL のテーブルからエクスポートした HNSW インデックスのスナップショット (HnswSnapshotWriter で作成)
+// ファイルをメモリ・マップして参照するため、ベクター配列とグラフはヒープに読み込まず、OS のページ・キャッシュに置かれます。
+// 読み込み後は変更しないため、検索はロックなしで複数のスレッドから同時に実行できます。
+// (バッファは絶対位置の読み込みのみを行い、position などの状態を変更しない)
+//
+// ファイルの形式 (ビッグ・エンディアン):
+// ヘッダ (64 バイト): MAGIC, VERSION, 次元数, 件数, m, 最上位の層, 入口のノード, 上位層のブロック数 (int)、メタデータのバイト数 (long)
+// ベクター配列: 件数 x 次元数 (float)
+// 最下層の隣接リスト: 件数 x (1 + 2m) (int。先頭は隣接ノード数)
+// ノード情報: 件数 x 2 (int。層の数、上位層の最初のブロックの番号)
+// 上位層の隣接リスト: ブロック数 x (1 + m) (int。ノード毎に層 1 から順に並べる)
+// メタデータの位置: 件数 (long)
+// メタデータ: ID (long x 2)、ページ番号 (int)、ファイル名、本文 (int の長さ + UTF-8)
+public final class HnswSnapshot extends HnswGraph {
+
+    static final int MAGIC = 0x484E5357;
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 64;
+
+    public record Hit(DocumentSummarizer document, float distance) {}
+
+    private final int dimensions;
+    private final int size;
+    private final int m;
+    private final int maxLevel;
+    private final int entryPoint;
+    private final FloatBuffer vectors;
+    private final IntBuffer layer0;
+    private final IntBuffer nodes;
+    private final IntBuffer upperLayers;
+    private final LongBuffer metadataOffsets;
+    private final ByteBuffer metadata;
+
+    private HnswSnapshot(ByteBuffer header, FileChannel channel) throws IOException {
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            throw new IOException("Unsupported snapshot format");
+        }
+        dimensions = header.getInt(8);
+        size = header.getInt(12);
+        m = header.getInt(16);
+        maxLevel = header.getInt(20);
+        entryPoint = header.getInt(24);
+        int upperBlocks = header.getInt(28);
+        long metadataBytes = header.getLong(32);
+
+        long offset = HEADER_BYTES;
+        long vectorsBytes = (long) size * dimensions * Float.BYTES;
+        vectors = map(channel, offset, vectorsBytes).asFloatBuffer();
+        offset += vectorsBytes;
+        long layer0Bytes = (long) size * (1 + 2 * m) * Integer.BYTES;
+        layer0 = map(channel, offset, layer0Bytes).asIntBuffer();
+        offset += layer0Bytes;
+        long nodesBytes = (long) size * 2 * Integer.BYTES;
+        nodes = map(channel, offset, nodesBytes).asIntBuffer();
+        offset += nodesBytes;
+        long upperBytes = (long) upperBlocks * (1 + m) * Integer.BYTES;
+        upperLayers = map(channel, offset, upperBytes).asIntBuffer();
+        offset += upperBytes;
+        long offsetsBytes = (long) size * Long.BYTES;
+        metadataOffsets = map(channel, offset, offsetsBytes).asLongBuffer();
+        offset += offsetsBytes;
+        metadata = map(channel, offset, metadataBytes);
+    }
+
+    // スナップショットのファイルをメモリ・マップして開く (マップはファイルを閉じた後も有効)
+    public static HnswSnapshot open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            if (channel.read(header, 0) < HEADER_BYTES) {
+                throw new IOException("Snapshot is truncated: " + path);
+            }
+            return new HnswSnapshot(header, channel);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // query に近い順に k 件を返す (ef: 最下層で探索する候補の数。大きいほど再現率が上がり、遅くなる)
+    public List<Hit> search(float[] query, int k, int ef) {
+        if (entryPoint < 0) {
+            return List.of();
+        }
+        if (query.length != dimensions) {
+            throw new IllegalArgumentException("Dimensions mismatch: " + query.length
+                    + " (snapshot: " + dimensions + ")");
+        }
+        BitSet visited = new BitSet(size);
+        List<Candidate> candidates = search(query, entryPoint, maxLevel, Math.max(ef, k), node -> {
+            if (visited.get(node)) {
+                return false;
+            }
+            visited.set(node);
+            return true;
+        });
+        List<Hit> hits = new ArrayList<>(Math.min(k, candidates.size()));
+        for (Candidate candidate : candidates.subList(0, Math.min(k, candidates.size()))) {
+            hits.add(new Hit(document(candidate.node()), candidate.distance()));
+        }
+        return hits;
+    }
+
+    // node のベクター配列 (ベンチマークの検索条件に利用)
+    public float[] vector(int node) {
+        float[] vector = new float[dimensions];
+        vectors.get(node * dimensions, vector);
+        return vector;
+    }
+
+    @Override
+    float distance(float[] query, int node) {
+        return distance(vectors, dimensions, query, node);
+    }
+
+    @Override
+    int neighbourCount(int node, int level) {
+        return layerBuffer(level).get(blockStart(node, level));
+    }
+
+    @Override
+    int neighbour(int node, int level, int index) {
+        return layerBuffer(level).get(blockStart(node, level) + 1 + index);
+    }
+
+    private IntBuffer layerBuffer(int level) {
+        return level == 0 ? layer0 : upperLayers;
+    }
+
+    private int blockStart(int node, int level) {
+        if (level == 0) {
+            return node * (1 + 2 * m);
+        }
+        return (nodes.get(node * 2 + 1) + level - 1) * (1 + m);
+    }
+
+    private DocumentSummarizer document(int node) {
+        int offset = (int) metadataOffsets.get(node);
+        UUID id = new UUID(metadata.getLong(offset), metadata.getLong(offset + 8));
+        int pageNumber = metadata.getInt(offset + 16);
+        offset += 20;
+        String fileName = readString(offset);
+        offset += Integer.BYTES + metadata.getInt(offset);
+        String text = readString(offset);
+        return new DocumentSummarizer(id, null, text, fileName, pageNumber);
+    }
+
+    private String readString(int offset) {
+        byte[] bytes = new byte[metadata.getInt(offset)];
+        metadata.get(offset + Integer.BYTES, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // MappedByteBuffer は 1 つあたり 2GB までのため、各部分がそれを超える場合はエラーとする
+    private static MappedByteBuffer map(FileChannel channel, long offset, long bytes)
+            throws IOException {
+        if (bytes > Integer.MAX_VALUE) {
+            throw new IOException("Snapshot section is too large to map: " + bytes + " bytes");
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, offset, bytes);
+    }
+}
@@ -0,0 +1,315 @@
+package com.yoshio3;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+// HNSW インデックスのスナップショット (HnswSnapshot) を作成するクラス
+// add() で追加したベクター配列とメタデータは一時ファイルに書き出し、commit() でそれをメモリ・マップして
+// グラフを作成します。(ヒープに保持するのは隣接リストのみ) 作成したファイルは置き換えで公開するため、
+// 作成中も以前のスナップショットで検索できます。
+public class HnswSnapshotWriter implements Closeable {
+
+    // 層の数の上限
+    private static final int MAX_LEVEL = 16;
+
+    private final Path target;
+    private final int m;
+    private final int efConstruction;
+    private final Path vectorsFile;
+    private final Path metadataFile;
+    private final DataOutputStream vectorsOut;
+    private final DataOutputStream metadataOut;
+
+    private int dimensions = -1;
+    private int size;
+    private long metadataBytes;
+    private long[] metadataOffsets = new long[1024];
+
+    public HnswSnapshotWriter(Path target, int m, int efConstruction) throws IOException {
+        this.target = target.toAbsolutePath();
+        this.m = Math.max(2, m);
+        this.efConstruction = Math.max(this.m, efConstruction);
+        Path directory = this.target.getParent();
+        Files.createDirectories(directory);
+        this.vectorsFile = Files.createTempFile(directory, "hnsw-vectors-", ".tmp");
+        this.metadataFile = Files.createTempFile(directory, "hnsw-metadata-", ".tmp");
+        this.vectorsOut = open(vectorsFile);
+        this.metadataOut = open(metadataFile);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // 1 件分のベクター配列とメタデータを追加 (次元数は最初に追加したものに合わせる)
+    public void add(UUID id, float[] embedding, String text, String fileName, int pageNumber)
+            throws IOException {
+        if (dimensions < 0) {
+            dimensions = embedding.length;
+        } else if (embedding.length != dimensions) {
+            throw new IllegalArgumentException("Dimensions mismatch: " + embedding.length
+                    + " (expected: " + dimensions + ")");
+        }
+        for (float value : embedding) {
+            vectorsOut.writeFloat(value);
+        }
+        if (size == metadataOffsets.length) {
+            metadataOffsets = Arrays.copyOf(metadataOffsets, size * 2);
+        }
+        metadataOffsets[size++] = metadataBytes;
+        byte[] fileNameBytes = bytes(fileName);
+        byte[] textBytes = bytes(text);
+        metadataOut.writeLong(id.getMostSignificantBits());
+        metadataOut.writeLong(id.getLeastSignificantBits());
+        metadataOut.writeInt(pageNumber);
+        metadataOut.writeInt(fileNameBytes.length);
+        metadataOut.write(fileNameBytes);
+        metadataOut.writeInt(textBytes.length);
+        metadataOut.write(textBytes);
+        metadataBytes += 28 + fileNameBytes.length + textBytes.length;
+    }
+
+    // グラフを作成してスナップショットのファイルを書き込み、target に置き換える
+    public void commit() throws IOException {
+        vectorsOut.close();
+        metadataOut.close();
+        Graph graph = new Graph();
+        Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+        try (DataOutputStream out = open(temporary)) {
+            out.writeInt(HnswSnapshot.MAGIC);
+            out.writeInt(HnswSnapshot.VERSION);
+            out.writeInt(Math.max(0, dimensions));
+            out.writeInt(size);
+            out.writeInt(m);
+            out.writeInt(graph.maxLevel);
+            out.writeInt(graph.entryPoint);
+            out.writeInt(graph.upperBlocks);
+            out.writeLong(metadataBytes);
+            out.write(new byte[HnswSnapshot.HEADER_BYTES - 40]);
+
+            Files.copy(vectorsFile, out);
+            for (int value : graph.layer0) {
+                out.writeInt(value);
+            }
+            int block = 0;
+            for (int node = 0; node < size; node++) {
+                out.writeInt(graph.levels[node]);
+                out.writeInt(block);
+                block += graph.levels[node];
+            }
+            for (int node = 0; node < size; node++) {
+                if (graph.upperLayers[node] != null) {
+                    for (int value : graph.upperLayers[node]) {
+                        out.writeInt(value);
+                    }
+                }
+            }
+            for (int node = 0; node < size; node++) {
+                out.writeLong(metadataOffsets[node]);
+            }
+            Files.copy(metadataFile, out);
+        }
+        Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // 一時ファイルを削除
+    @Override
+    public void close() throws IOException {
+        vectorsOut.close();
+        metadataOut.close();
+        Files.deleteIfExists(vectorsFile);
+        Files.deleteIfExists(metadataFile);
+    }
+
+    private static DataOutputStream open(Path path) throws IOException {
+        OutputStream out = Files.newOutputStream(path);
+        return new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+    }
+
+    private static byte[] bytes(String value) {
+        return (value == null ? "" : value).getBytes(StandardCharsets.UTF_8);
+    }
+
+    // 作成中のグラフ (ベクター配列は一時ファイルをメモリ・マップして参照する)
+    private final class Graph extends HnswGraph {
+
+        private final FloatBuffer vectors;
+        private final int[] levels = new int[size];
+        // 最下層の隣接リスト (ノード毎に 1 + 2m 個。先頭は隣接ノード数)
+        private final int[] layer0 = new int[size * (1 + 2 * m)];
+        // 上位層の隣接リスト (層 1 以上のノードのみ。層毎に 1 + m 個)
+        private final int[][] upperLayers = new int[size][];
+        // 探索で訪れたノード (探索毎に stamp を増やし、配列の初期化を省く)
+        private final int[] visited = new int[size];
+        private int stamp;
+        private int entryPoint = -1;
+        private int maxLevel;
+        private int upperBlocks;
+
+        private Graph() throws IOException {
+            try (FileChannel channel = FileChannel.open(vectorsFile, StandardOpenOption.READ)) {
+                long bytes = channel.size();
+                if (bytes > Integer.MAX_VALUE) {
+                    throw new IOException("Too many vectors for a snapshot: " + size);
+                }
+                vectors = channel.map(FileChannel.MapMode.READ_ONLY, 0, bytes).asFloatBuffer();
+            }
+            // 層は 1 / ln(m) を係数とした指数分布で決める (同じデータからは同じグラフを作成する)
+            Random random = new Random(size);
+            double levelMultiplier = 1 / Math.log(m);
+            for (int node = 0; node < size; node++) {
+                levels[node] = Math.min(MAX_LEVEL,
+                        (int) (-Math.log(1 - random.nextDouble()) * levelMultiplier));
+                if (levels[node] > 0) {
+                    upperLayers[node] = new int[levels[node] * (1 + m)];
+                    upperBlocks += levels[node];
+                }
+            }
+            for (int node = 0; node < size; node++) {
+                insert(node);
+            }
+        }
+
+        private void insert(int node) {
+            int level = levels[node];
+            if (entryPoint < 0) {
+                entryPoint = node;
+                maxLevel = level;
+                return;
+            }
+            float[] query = vector(node);
+            int current = entryPoint;
+            for (int l = maxLevel; l > level; l--) {
+                current = greedySearch(query, current, l);
+            }
+            for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+                int currentStamp = ++stamp;
+                List<Candidate> candidates = searchLayer(query, current, efConstruction, l,
+                        visitedNode -> {
+                            if (visited[visitedNode] == currentStamp) {
+                                return false;
+                            }
+                            visited[visitedNode] = currentStamp;
+                            return true;
+                        });
+                List<Candidate> selected = selectNeighbours(candidates, maxNeighbours(l));
+                setNeighbours(node, l, selected);
+                for (Candidate neighbour : selected) {
+                    connect(neighbour.node(), l, node, neighbour.distance());
+                }
+                current = candidates.get(0).node();
+            }
+            if (level > maxLevel) {
+                entryPoint = node;
+                maxLevel = level;
+            }
+        }
+
+        // neighbour の隣接リストに node を追加 (上限を超える場合は選び直す)
+        private void connect(int neighbour, int level, int node, float distance) {
+            int count = neighbourCount(neighbour, level);
+            if (count < maxNeighbours(level)) {
+                int[] block = block(level, neighbour);
+                int start = blockStart(level, neighbour);
+                block[start + 1 + count] = node;
+                block[start] = count + 1;
+                return;
+            }
+            float[] neighbourVector = vector(neighbour);
+            List<Candidate> candidates = new ArrayList<>(count + 1);
+            for (int i = 0; i < count; i++) {
+                int existing = neighbour(neighbour, level, i);
+                candidates.add(new Candidate(existing, distance(neighbourVector, existing)));
+            }
+            candidates.add(new Candidate(node, distance));
+            candidates.sort(NEAREST_FIRST);
+            setNeighbours(neighbour, level, selectNeighbours(candidates, maxNeighbours(level)));
+        }
+
+        // 近い順の候補から、既に選んだノードより対象に近いものを優先して選ぶ (HNSW の近傍選択のヒューリスティック)
+        // 同じ方向に偏った接続を減らし、離れたクラスタへの経路を残す。足りない場合は残りを近い順に追加する
+        private List<Candidate> selectNeighbours(List<Candidate> candidates, int max) {
+            if (candidates.size() <= max) {
+                return candidates;
+            }
+            List<Candidate> selected = new ArrayList<>(max);
+            List<Candidate> skipped = new ArrayList<>();
+            for (Candidate candidate : candidates) {
+                if (selected.size() >= max) {
+                    break;
+                }
+                float[] candidateVector = vector(candidate.node());
+                boolean diverse = true;
+                for (Candidate chosen : selected) {
+                    if (distance(candidateVector, chosen.node()) < candidate.distance()) {
+                        diverse = false;
+                        break;
+                    }
+                }
+                (diverse ? selected : skipped).add(candidate);
+            }
+            for (int i = 0; i < skipped.size() && selected.size() < max; i++) {
+                selected.add(skipped.get(i));
+            }
+            return selected;
+        }
+
+        private void setNeighbours(int node, int level, List<Candidate> neighbours) {
+            int[] block = block(level, node);
+            int start = blockStart(level, node);
+            block[start] = neighbours.size();
+            for (int i = 0; i < neighbours.size(); i++) {
+                block[start + 1 + i] = neighbours.get(i).node();
+            }
+        }
+
+        private int maxNeighbours(int level) {
+            return level == 0 ? 2 * m : m;
+        }
+
+        private int[] block(int level, int node) {
+            return level == 0 ? layer0 : upperLayers[node];
+        }
+
+        private int blockStart(int level, int node) {
+            return level == 0 ? node * (1 + 2 * m) : (level - 1) * (1 + m);
+        }
+
+        private float[] vector(int node) {
+            float[] vector = new float[dimensions];
+            vectors.get(node * dimensions, vector);
+            return vector;
+        }
+
+        @Override
+        float distance(float[] query, int node) {
+            return distance(vectors, dimensions, query, node);
+        }
+
+        @Override
+        int neighbourCount(int node, int level) {
+            return block(level, node)[blockStart(level, node)];
+        }
+
+        @Override
+        int neighbour(int node, int level, int index) {
+            return block(level, node)[blockStart(level, node) + 1 + index];
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.yoshio3;
+
+import java.text.Normalizer;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import jakarta.annotation.PostConstruct;
+import reactor.core.publisher.Mono;
+
+// 検索文字列のベクター配列をプロセス内に保持するキャッシュ
+// 検索文字列は正規化 (NFKC、連続する空白を 1 つに) したものをキーとし、件数の上限と有効期限で破棄します。
+// 同じ検索文字列の Embedding 呼び出しが実行中の場合は、新たに呼び出さずにその結果を共有します。
+@Component
+public class QueryEmbeddingCache {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(QueryEmbeddingCache.class);
+
+    // キャッシュの統計情報 (inFlightHits: 呼び出しの完了前に取得し、結果を共有した件数)
+    public record Stats(long hits, long inFlightHits, long misses, long evictions, int size,
+            double hitRate) {}
+
+    // completed: Embedding の呼び出しが完了しているか否か
+    private record Entry(Mono<float[]> embedding, long expiresAtNanos, AtomicBoolean completed) {}
+
+    // キャッシュに保持する検索文字列の数
+    @Value("${azure.openai.query.embedding.cache.max.size:1000}")
+    private int MAX_SIZE;
+
+    // キャッシュの有効期限 (秒)
+    @Value("${azure.openai.query.embedding.cache.ttl.seconds:600}")
+    private long TTL_SECONDS;
+
+    private Map<String, Entry> entries;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong inFlightHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                boolean remove = size() > MAX_SIZE;
+                if (remove) {
+                    evictions.incrementAndGet();
+                }
+                return remove;
+            }
+        };
+    }
+
+    // キャッシュにない場合のみ loader で Embedding を取得する (loader には正規化した文字列を渡す)
+    public Mono<float[]> get(String text, Function<String, Mono<float[]>> loader) {
+        String key = normalize(text);
+        long now = System.nanoTime();
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry != null && entry.expiresAtNanos() - now > 0) {
+                hits.incrementAndGet();
+                if (!entry.completed().get()) {
+                    inFlightHits.incrementAndGet();
+                }
+                return entry.embedding();
+            }
+            misses.incrementAndGet();
+            AtomicBoolean completed = new AtomicBoolean();
+            Entry[] created = new Entry[1];
+            // cache() により、完了前に取得した呼び出し元も同じ 1 回の呼び出し結果を受け取る
+            // 失敗した場合はキャッシュから削除し、次の呼び出しで再取得する
+            Mono<float[]> embedding = Mono.defer(() -> loader.apply(key))
+                    .doOnSuccess(value -> completed.set(true))
+                    .doOnError(error -> remove(key, created[0]))
+                    .cache(value -> Duration.ofSeconds(TTL_SECONDS), error -> Duration.ZERO,
+                            () -> Duration.ZERO);
+            created[0] = new Entry(embedding, now + Duration.ofSeconds(TTL_SECONDS).toNanos(),
+                    completed);
+            entries.put(key, created[0]);
+            entry = created[0];
+        }
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Query embedding cache: {}", getStats());
+        }
+        return entry.embedding();
+    }
+
+    public Stats getStats() {
+        long hitCount = hits.get();
+        long missCount = misses.get();
+        int size;
+        synchronized (entries) {
+            size = entries.size();
+        }
+        long total = hitCount + missCount;
+        return new Stats(hitCount, inFlightHits.get(), missCount, evictions.get(), size,
+                total == 0 ? 0 : (double) hitCount / total);
+    }
+
+    private void remove(String key, Entry entry) {
+        synchronized (entries) {
+            entries.remove(key, entry);
+        }
+    }
+
+    private static String normalize(String text) {
+        return Normalizer.normalize(text, Normalizer.Form.NFKC).replaceAll("\\s+", " ").strip();
+    }
+}
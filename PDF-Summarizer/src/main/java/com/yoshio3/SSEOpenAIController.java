@@ -1,30 +1,28 @@
 package com.yoshio3;
 
-import java.sql.DriverManager;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.sql.SQLException;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.TimeUnit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
 import org.springframework.http.MediaType;
+import org.springframework.http.server.reactive.ServerHttpResponse;
 import org.springframework.stereotype.Component;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.reactive.result.view.Rendering;
+import org.thymeleaf.spring6.context.webflux.ReactiveDataDriverContextVariable;
 import com.azure.ai.openai.OpenAIAsyncClient;
 import com.azure.ai.openai.OpenAIClientBuilder;
 import com.azure.ai.openai.models.ChatChoice;
@@ -36,14 +34,15 @@ import com.azure.ai.openai.models.ChatRole;
 import com.azure.ai.openai.models.EmbeddingsOptions;
 import com.azure.core.credential.AzureKeyCredential;
 import com.google.gson.Gson;
-import com.yoshio3.entities.CreateAreaInHTML;
+import com.yoshio3.entities.CosmosDBDocument;
 import com.yoshio3.entities.CreateLinkInHTML;
-import com.yoshio3.entities.CreateMessageInHTML;
+import com.yoshio3.UserSinkRegistry.UserSink;
 import com.yoshio3.entities.DocumentSummarizer;
+import com.yoshio3.entities.IngestionJobDocument;
+import com.yoshio3.entities.StatusPage;
 import jakarta.annotation.PostConstruct;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
-import reactor.core.publisher.Sinks;
 import reactor.core.publisher.Sinks.EmitResult;
 
 @Controller
@@ -64,24 +63,39 @@ public class SSEOpenAIController {
     @Value("${azure.openai.api.key}")
     private String OPENAI_API_KEY;
 
-    @Value("${azure.postgresql.jdbcurl}")
-    private String POSTGRESQL_JDBC_URL;
-
-    @Value("${azure.postgresql.user}")
-    private String POSTGRESQL_USER;
-
-    @Value("${azure.postgresql.password}")
-    private String POSTGRESQL_PASSWORD;
-
-    @Value("${azure.postgresql.db.table.name}")
-    private String POSTGRESQL_TABLE_NAME;
-
     @Value("${azure.blobstorage.name}")
     private String BLOB_STORAGE_NAME;
 
     @Value("${azure.blobstorage.container.name}")
     private String BLOB_STORAGE_CONTAINER_NAME;
 
+    // OpenAI から受信したトークンをまとめてクライアントに送信する間隔 (ミリ秒)
+    @Value("${sse.message.flush.interval.millis:50}")
+    private long SSE_FLUSH_INTERVAL_MILLIS;
+
+    // 1 回のイベントにまとめるトークン数の上限
+    @Value("${sse.message.max.batch.tokens:32}")
+    private int SSE_MAX_BATCH_TOKENS;
+
+    // 要約の作成方法
+    // per-document: 検索結果のドキュメント毎に OpenAI にリクエストを送信する
+    // multiplexed: 検索結果のドキュメントをまとめて 1 回のリクエストで送信し、回答をドキュメント毎に振り分ける
+    @Value("${azure.openai.summary.mode:per-document}")
+    private String SUMMARY_MODE;
+
+    private static final String SUMMARY_MODE_MULTIPLEXED = "multiplexed";
+
+    // SSE のイベント名
+    private static final String EVENT_CREATE = "create";
+    private static final String EVENT_CREATE_LINK = "createLink";
+    private static final String EVENT_ADD_MESSAGE = "addMessage";
+
+    // Gson はスレッド・セーフのため、インスタンスを共有する
+    private static final Gson GSON = new Gson();
+
+    // ストリーミングで一覧を表示する場合に、まとめて HTML に変換・送信する件数
+    private static final int STREAM_BUFFER_SIZE = 100;
+
     // Maximum number of results to be returned by the search process
     private static final int MAX_RESULT = 5;
 
@@ -93,16 +107,25 @@ public class SSEOpenAIController {
                 要約してその内容をユーザに提供します。
             """;
 
-    // クライアントからのリクエストを受け付けるためのSinks (1対1 で送受信するためのSinks)
-    private static Map<UUID, Sinks.Many<String>> userSinks;
+    @Autowired
+    private CosmosDBUtil cosmosDBUtil;
 
-    // Static Initializer
-    static {
-        userSinks = new ConcurrentHashMap<>();
-    }
+    // 検索の実行先 (azure.search.backend=embedded の場合は EmbeddedVectorSearchRepository)
+    @Autowired
+    private VectorSearchRepository vectorSearchRepository;
 
     @Autowired
-    private CosmosDBUtil cosmosDBUtil;
+    private QueryEmbeddingCache queryEmbeddingCache;
+
+    @Autowired
+    private SummaryCache summaryCache;
+
+    // クライアントからのリクエストを受け付けるためのSinks (1対1 で送受信するためのSinks)
+    @Autowired
+    private UserSinkRegistry userSinkRegistry;
+
+    @Autowired
+    private SseEventEncoder sseEventEncoder;
 
     private OpenAIAsyncClient client;
 
@@ -122,31 +145,55 @@ public class SSEOpenAIController {
     // and receiving)
     // This part of the process is unnecessary if you want to update the same
     // content (1-to-many) like a chat
+    // 再接続時はブラウザが Last-Event-ID ヘッダを送信するため、それ以降のイベントを再送する
+    // イベントは SseEventEncoder でレスポンスのバッファに直接書き込み、1 イベント毎に送信 (flush) する
     @GetMapping(path = "/openai-gpt4-sse-stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
-    @ResponseBody
-    public Flux<String> sseStream(@RequestParam UUID userId) {
-        Sinks.Many<String> userSink = getUserSink(userId);
-        if (userSink == null) {
-            userSink = createUserSink(userId);
-        }
+    public Mono<Void> sseStream(@RequestParam UUID userId,
+            @RequestHeader(name = "Last-Event-ID", required = false) String lastEventId,
+            ServerHttpResponse response) {
         LOGGER.trace("USER ID IS ADDED: {}}", userId);
-        return userSink.asFlux().delayElements(Duration.ofMillis(10));
+        response.getHeaders().setContentType(MediaType.TEXT_EVENT_STREAM);
+        response.getHeaders().setCacheControl(CacheControl.noCache());
+        var bufferFactory = response.bufferFactory();
+        return response.writeAndFlushWith(userSinkRegistry.subscribe(userId, parseLastEventId(lastEventId))
+                .map(event -> Mono.just(sseEventEncoder.encode(event, bufferFactory))));
+    }
+
+    private long parseLastEventId(String lastEventId) {
+        try {
+            return lastEventId == null ? -1 : Long.parseLong(lastEventId.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
     }
 
     @PostMapping("/openai-gpt4-sse-submit")
     @ResponseBody
     public void openaiGpt4Sse(@RequestBody String inputText, @RequestParam UUID userId) {
-        var userSink = getUserSink(userId);
+        // SSE の接続より先に送信された場合も、接続時に再送できるよう Sink を作成する
+        var userSink = userSinkRegistry.getOrCreate(userId);
         LOGGER.debug("InputText --------------: {}", inputText);
         // ユーザからの入力を受け取り、PostgreSQL の Vector DB からドキュメントを検索
         findMostSimilarString(inputText).subscribe(findMostSimilarString -> {
             // ドキュメントの検索結果を元に、OpenAI による要約を実施し結果をクライアントに送信
+            // OpenAI へのリクエストはユーザ毎のキューに追加し、同時に実行する数を制限する
+            if (SUMMARY_MODE_MULTIPLEXED.equals(SUMMARY_MODE)) {
+                submit(userId, userSink, requestOpenAIToGetMultiplexedSummaryAndSendMessageToClient(
+                        findMostSimilarString, inputText, userSink));
+                return;
+            }
             findMostSimilarString.forEach(docSummary -> {
-                requestOpenAIToGetSummaryAndSendMessageToClient(docSummary, inputText, userSink);
+                submit(userId, userSink, requestOpenAIToGetSummaryAndSendMessageToClient(docSummary, inputText, userSink));
             });
         });
     }
 
+    private void submit(UUID userId, UserSink userSink, Mono<Void> task) {
+        if (!userSink.submit(task)) {
+            LOGGER.error("Failed to submit the summary request. User ID: {}", userId);
+        }
+    }
+
     // チャットに送信するメッセージを作成
     private String createChatMessages(DocumentSummarizer docSummary, String inputText) {
         return String.format(
@@ -154,9 +201,48 @@ public class SSEOpenAIController {
                 docSummary.origntext(), inputText);
     }
 
+    // 複数のドキュメントをまとめて送信する場合のチャットに送信するメッセージを作成
+    // ドキュメントは ID (UUID) ではなく番号で区別し、回答の区切りに使用する
+    private String createMultiplexedChatMessages(List<DocumentSummarizer> docSummaries, String inputText) {
+        var message = new StringBuilder();
+        for (int i = 0; i < docSummaries.size(); i++) {
+            message.append("ドキュメント ").append(i + 1).append(":\n\"\"\" ")
+                    .append(docSummaries.get(i).origntext()).append(" \"\"\"\n\n");
+        }
+        message.append(String.format(
+                "上記の %d 件のドキュメントそれぞれの中から \"%s\" に関して説明している箇所を抜き出してください。\n"
+                        + "回答はドキュメント毎に、1 行目に [[ドキュメントの番号]] のみを記載し、2 行目以降に記載してください。\n"
+                        + "例:\n[[1]]\nドキュメント 1 の回答\n[[2]]\nドキュメント 2 の回答",
+                docSummaries.size(), inputText));
+        return message.toString();
+    }
+
+    // 同じチャンク・同じ質問の要約を作成済みの場合は、キャッシュした要約をクライアントに送信する
+    private boolean sendCachedSummary(DocumentSummarizer docSummary, String inputText, UserSink userSink) {
+        var cachedSummary = summaryCache.get(docSummary.id(), docSummary.origntext(), inputText);
+        if (cachedSummary == null) {
+            return false;
+        }
+        LOGGER.debug("Summary cache hit: {}", docSummary.id());
+        sendCreateAreaEvent(userSink, docSummary);
+        sendCreateLinkEvent(userSink, docSummary);
+        sendMessageEvent(userSink, docSummary.id().toString(), cachedSummary, inputText);
+        return true;
+    }
+
     // OpenAI に送信し検索結果のドキュメントの要約を作成し、クライアントに Stream で送信する
-    private void requestOpenAIToGetSummaryAndSendMessageToClient(DocumentSummarizer docSummary, String inputText, Sinks.Many<String> userSink) {
-        LOGGER.debug("Origin --------------: {}", docSummary.origntext());
+    // 同じチャンク・同じ質問の要約を作成済みの場合は、OpenAI を呼び出さずにキャッシュした要約を送信する
+    private Mono<Void> requestOpenAIToGetSummaryAndSendMessageToClient(DocumentSummarizer docSummary, String inputText, UserSink userSink) {
+        return Mono.defer(() -> {
+            LOGGER.debug("Origin --------------: {}", docSummary.origntext());
+            if (sendCachedSummary(docSummary, inputText, userSink)) {
+                return Mono.empty();
+            }
+            return requestOpenAIToGetSummary(docSummary, inputText, userSink);
+        });
+    }
+
+    private Mono<Void> requestOpenAIToGetSummary(DocumentSummarizer docSummary, String inputText, UserSink userSink) {
 
         var input = createChatMessages(docSummary, inputText);
         LOGGER.debug("User Sink: {}", userSink);
@@ -165,38 +251,100 @@ public class SSEOpenAIController {
         LOGGER.debug("OpenAI Model : {}", OPENAI_MODEL_NAME);
 
         // OpenAI にリクエストを送信し、結果をクライアントに送信する
-        client.getChatCompletionsStream(OPENAI_MODEL_NAME, new ChatCompletionsOptions(chatMessages))
+        // トークンは 1 つずつ送信せず、SSE_FLUSH_INTERVAL_MILLIS 毎 (もしくは SSE_MAX_BATCH_TOKENS 個毎) にまとめて送信する
+        // 送信した文字列は、最後まで受信できた場合のみ要約としてキャッシュする
+        var documentID = docSummary.id().toString();
+        var summary = new StringBuilder();
+        return client.getChatCompletionsStream(OPENAI_MODEL_NAME, new ChatCompletionsOptions(chatMessages))
                 .doOnSubscribe(subscription -> {
                     // HTML の中で、リンクと結果の文字列を表示するための DIV エリアを作成する為のリクエスト・イベントを送信
                     sendCreateAreaEvent(userSink, docSummary);
                     // HTML の中で、リンクを表示する為のリクエスト・イベントを送信
                     sendCreateLinkEvent(userSink, docSummary);
                 })
-                .subscribe(chatCompletions -> {
-                    // OpenAI からの結果をクライアントに Streaming で送信
-                    sendChatCompletionMessages(userSink, docSummary, chatCompletions, inputText);
-                }, error -> {
-                    LOGGER.error("Error Occurred: {}", error.getMessage());
-                    userSink.tryEmitError(error);
-                }, () -> {
+                .flatMapIterable(ChatCompletions::getChoices)
+                .mapNotNull(ChatChoice::getDelta)
+                .mapNotNull(ChatMessageDelta::getContent)
+                .doOnNext(summary::append)
+                .bufferTimeout(SSE_MAX_BATCH_TOKENS, Duration.ofMillis(SSE_FLUSH_INTERVAL_MILLIS))
+                .map(tokens -> String.join("", tokens))
+                // OpenAI からの結果をクライアントに Streaming で送信
+                .doOnNext(content -> sendMessageEvent(userSink, documentID, content, inputText))
+                .doOnComplete(() -> {
                     LOGGER.debug("Completed");
-                });
+                    summaryCache.put(docSummary.id(), docSummary.origntext(), inputText, summary.toString());
+                })
+                // 1 件の要約の失敗で、ユーザの SSE の接続全体を終了させない (エラーは UserSink でログに出力)
+                .then();
+    }
+
+    // 検索結果のドキュメントをまとめて OpenAI に送信し、Stream で受信した回答をドキュメント毎に振り分けてクライアントに送信する
+    // SYSTEM_DEFINITION の送信と OpenAI への接続が検索 1 回につき 1 回で済む
+    // 要約をキャッシュ済みのドキュメントはキャッシュから送信し、プロンプトには含めない
+    private Mono<Void> requestOpenAIToGetMultiplexedSummaryAndSendMessageToClient(List<DocumentSummarizer> docSummaries,
+            String inputText, UserSink userSink) {
+        return Mono.defer(() -> {
+            List<DocumentSummarizer> targets = new ArrayList<>();
+            for (var docSummary : docSummaries) {
+                if (!sendCachedSummary(docSummary, inputText, userSink)) {
+                    targets.add(docSummary);
+                }
+            }
+            if (targets.isEmpty()) {
+                return Mono.empty();
+            }
+            if (targets.size() == 1) {
+                return requestOpenAIToGetSummary(targets.get(0), inputText, userSink);
+            }
+
+            var input = createMultiplexedChatMessages(targets, inputText);
+            LOGGER.debug(input);
+            var chatMessages = createMessages(input);
+            var demultiplexer = new SummaryDemultiplexer(targets.size());
+            var summaries = new StringBuilder[targets.size()];
+            for (int i = 0; i < summaries.length; i++) {
+                summaries[i] = new StringBuilder();
+            }
+            return client.getChatCompletionsStream(OPENAI_MODEL_NAME, new ChatCompletionsOptions(chatMessages))
+                    .doOnSubscribe(subscription -> targets.forEach(docSummary -> {
+                        sendCreateAreaEvent(userSink, docSummary);
+                        sendCreateLinkEvent(userSink, docSummary);
+                    }))
+                    .flatMapIterable(ChatCompletions::getChoices)
+                    .mapNotNull(ChatChoice::getDelta)
+                    .mapNotNull(ChatMessageDelta::getContent)
+                    .bufferTimeout(SSE_MAX_BATCH_TOKENS, Duration.ofMillis(SSE_FLUSH_INTERVAL_MILLIS))
+                    .concatMapIterable(tokens -> demultiplexer.accept(String.join("", tokens)))
+                    .concatWith(Flux.defer(() -> Flux.fromIterable(demultiplexer.finish())))
+                    .doOnNext(segment -> {
+                        summaries[segment.index()].append(segment.text());
+                        var documentID = targets.get(segment.index()).id().toString();
+                        sendMessageEvent(userSink, documentID, segment.text(), inputText);
+                    })
+                    .doOnComplete(() -> {
+                        LOGGER.debug("Completed");
+                        for (int i = 0; i < summaries.length; i++) {
+                            // 回答に含まれなかったドキュメントはキャッシュしない
+                            if (summaries[i].length() > 0) {
+                                var docSummary = targets.get(i);
+                                summaryCache.put(docSummary.id(), docSummary.origntext(), inputText,
+                                        summaries[i].toString());
+                            }
+                        }
+                    })
+                    .then();
+        });
     }
 
     // HTML の中で、リンクと結果の文字列を表示するための DIV エリアを作成する為のリクエスト・イベントを送信する
-    private void sendCreateAreaEvent(Sinks.Many<String> userSink, DocumentSummarizer docSummary) {
+    private void sendCreateAreaEvent(UserSink userSink, DocumentSummarizer docSummary) {
         var documentID = docSummary.id().toString();
-        var createArea = new CreateAreaInHTML("create", documentID);
-        var gson = new Gson();
-        var jsonCreateArea = gson.toJson(createArea);
-        LOGGER.debug("jsonCreateArea: {}", jsonCreateArea);
-        userSink.tryEmitNext(jsonCreateArea);
-        // wait few mill seconds
-        intervalToSendClient();
+        LOGGER.debug("Create Area: {}", documentID);
+        emit(userSink, EVENT_CREATE, documentID, documentID);
     }
 
     // HTML の中で、リンクを表示する為のリクエスト・イベントを送信する
-    private void sendCreateLinkEvent(Sinks.Many<String> userSink, DocumentSummarizer docSummary) {
+    private void sendCreateLinkEvent(UserSink userSink, DocumentSummarizer docSummary) {
         var fileName = docSummary.filename();
         var pageNumber = docSummary.pageNumber();
         var documentID = docSummary.id().toString();
@@ -205,66 +353,91 @@ public class SSEOpenAIController {
                 + BLOB_STORAGE_CONTAINER_NAME + "/" + fileName + "#page="
                 + docSummary.pageNumber();
 
-        var createLinkRecord = new CreateLinkInHTML("createLink", documentID, URL, pageNumber, fileName);
-        var gson = new Gson();
-        var jsonLink = gson.toJson(createLinkRecord);
+        var createLinkRecord = new CreateLinkInHTML(EVENT_CREATE_LINK, documentID, URL, pageNumber, fileName);
+        var jsonLink = GSON.toJson(createLinkRecord);
         LOGGER.debug("JSON Create Link: {}", jsonLink);
-        userSink.tryEmitNext(jsonLink);
-        // wait few mill seconds
-        intervalToSendClient();
+        emit(userSink, EVENT_CREATE_LINK, jsonLink, documentID);
     }
 
-    // HTML の中で、メッセージを１文字づつ表示する為のリクエスト・イベントを送信する
-    private void sendChatCompletionMessages(Sinks.Many<String> userSink, DocumentSummarizer docSummary,
-            ChatCompletions chatCompletions, String inputText) {
-        var documentID = docSummary.id().toString();
+    // HTML の中で、メッセージを追加する為のリクエスト・イベントを送信する
+    // data の 1 行目がドキュメントの ID、2 行目以降がメッセージ (JSON に変換せず、空白もそのまま送信する)
+    private void sendMessageEvent(UserSink userSink, String documentID, String content, String inputText) {
+        LOGGER.debug(content);
+        emit(userSink, EVENT_ADD_MESSAGE, documentID + "\n" + content, inputText);
+    }
+
+    // ユーザの Sink にイベントを送信する
+    private void emit(UserSink userSink, String type, String data, String detail) {
+        var result = userSink.emit(type, data);
+        showDetailErrorReasonForSSE(result, data, detail);
+    }
+
+    // CosmosDB から 1 ページ分のドキュメントを取得し、Web ページに表示する
+    // 次のページは、レスポンスの continuationToken をパラメータに指定して取得する
+    @GetMapping("/listAllRegisteredContents")
+    public Mono<Rendering> listAllRegisteredContents(@RequestParam(required = false) String continuationToken) {
+        return cosmosDBUtil.getRegisteredDocumentsPage(continuationToken)
+                .map(page -> renderPage("listAllRegisteredContents", "/listAllRegisteredContents", page).build());
+    }
 
-        chatCompletions.getChoices().stream().map(ChatChoice::getDelta)
-                .map(ChatMessageDelta::getContent)
-                .filter(content -> content != null)
-                .forEach(content -> {
-                    if (content.contains(" ")) {
-                        content = content.replace(" ", "<SPECIAL_WHITE_SPACE>");
+    // retried: 「すべて再試行」で再処理の対象にしたチャンク数
+    @GetMapping("/listAllFailedContents")
+    public Mono<Rendering> listAllFailedContents(@RequestParam(required = false) String continuationToken,
+            @RequestParam(required = false) Long retried) {
+        return cosmosDBUtil.getFailedDocumentsPage(continuationToken)
+                .map(page -> {
+                    var rendering = renderPage("listAllFailedContents", "/listAllFailedContents", page);
+                    if (retried != null) {
+                        rendering.modelAttribute("retried", retried);
                     }
-                    LOGGER.debug(content);
-                    var createMessage = new CreateMessageInHTML("addMessage", documentID, content);
-                    var gson = new Gson();
-                    var jsonMessage = gson.toJson(createMessage);
-                    LOGGER.debug("JSON Message: {}", jsonMessage);
-                    var result = userSink.tryEmitNext(jsonMessage);
-                    showDetailErrorReasonForSSE(result, content, inputText);
-                    // wait few mill seconds
-                    intervalToSendClient();
+                    return rendering.build();
                 });
     }
 
-    @GetMapping("/listAllRegisteredContents")
-    public String listAllRegisteredContents(Model model) {
-        // CosmosDB から全てのドキュメントを取得し、Web ページに表示するため、Model に追加
-        // 将来的にはページング処理を実装する必要ある
-        model.addAttribute("list", cosmosDBUtil.getAllRegisteredDocuments());
+    // 登録に失敗した全てのチャンクを再処理の対象にする (PDF の再アップロードは不要)
+    @PostMapping("/retryAllFailedContents")
+    public Mono<String> retryAllFailedContents() {
+        return cosmosDBUtil.retryAllFailedDocuments()
+                .doOnNext(count -> LOGGER.info("Failed chunks scheduled for retry: {}", count))
+                .map(count -> "redirect:/listAllFailedContents?retried=" + count);
+    }
+
+    // 全件をページングせずに表示する場合は、Cosmos DB からページ単位で取得しながら HTML を分割して送信する (chunked)
+    @GetMapping("/listAllRegisteredContents/stream")
+    public String streamAllRegisteredContents(Model model) {
+        model.addAttribute("list", new ReactiveDataDriverContextVariable(
+                cosmosDBUtil.streamRegisteredDocuments(), STREAM_BUFFER_SIZE));
         return "listAllRegisteredContents";
     }
 
-    @GetMapping("/listAllFailedContents")
-    public String listAllFailedContents(Model model) {
-        // CosmosDB から全てのドキュメントを取得し、Web ページに表示するため、Model に追加
-        // 将来的にはページング処理を実装する必要ある
-        model.addAttribute("list", cosmosDBUtil.getAllFailedDocuments());
+    @GetMapping("/listAllFailedContents/stream")
+    public String streamAllFailedContents(Model model) {
+        model.addAttribute("list", new ReactiveDataDriverContextVariable(
+                cosmosDBUtil.streamFailedDocuments(), STREAM_BUFFER_SIZE));
         return "listAllFailedContents";
     }
 
-    // Create Sinks for accessed User
-    private Sinks.Many<String> createUserSink(UUID userId) {
-        Sinks.Many<String> userSink = Sinks.many().multicast().directBestEffort();
-        userSinks.put(userId, userSink);
-        LOGGER.debug("User ID: {} User Sink: {} is Added.", userId, userSink);
-        return userSink;
+    // 1 行 1 ドキュメントの JSON (NDJSON) で全件を送信する
+    @GetMapping(path = "/listAllRegisteredContents/ndjson", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    @ResponseBody
+    public Flux<IngestionJobDocument> listAllRegisteredContentsAsNdjson() {
+        return cosmosDBUtil.streamRegisteredDocuments();
+    }
+
+    @GetMapping(path = "/listAllFailedContents/ndjson", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    @ResponseBody
+    public Flux<CosmosDBDocument> listAllFailedContentsAsNdjson() {
+        return cosmosDBUtil.streamFailedDocuments();
     }
 
-    // Get User Sinks
-    private Sinks.Many<String> getUserSink(UUID userId) {
-        return userSinks.get(userId);
+    private Rendering.Builder<?> renderPage(String view, String path, StatusPage<?> page) {
+        var rendering = Rendering.view(view)
+                .modelAttribute("list", page.items())
+                .modelAttribute("path", path);
+        if (page.continuationToken() != null) {
+            rendering.modelAttribute("continuationToken", page.continuationToken());
+        }
+        return rendering;
     }
 
     /**
@@ -298,50 +471,28 @@ public class SSEOpenAIController {
     // 現時点では、Spring Data JPA を利用できない
     // 理由：Spring Data JPA では Native Query を利用したとしても、
     // PostgreSQL の vector 型を扱うことができなかったため JDBC を利用
+    // JDBC の呼び出しは DocumentSearchRepository の専用スレッドで行い、イベント・ループを止めない
+    // azure.search.backend=embedded の場合は、PostgreSQL に問い合わせずにプロセス内のスナップショットを検索する
     public Mono<List<DocumentSummarizer>> findMostSimilarString(String inputData) {
+        // 同じ検索文字列のベクター配列はキャッシュから取得する
+        return queryEmbeddingCache.get(inputData, this::getQueryEmbedding)
+                // Vector での検索 (ハイブリッド検索の場合は、検索文字列による全文検索の結果も統合する)
+                .flatMap(vector -> vectorSearchRepository.findMostSimilar(inputData, vector, MAX_RESULT));
+    }
+
+    // 検索文字列を OpenAI Text Embedding でベクター配列に変換
+    private Mono<float[]> getQueryEmbedding(String inputData) {
         EmbeddingsOptions embeddingsOptions = new EmbeddingsOptions(Arrays.asList(inputData));
 
         return client.getEmbeddings(TEXT_EMBEDDING_ADA, embeddingsOptions)
-                .flatMap(embeddings -> {
-                    List<DocumentSummarizer> docSummaryList = new ArrayList<>();
+                .map(embeddings -> {
                     List<Double> embedding = embeddings.getData().stream().findFirst().get().getEmbedding();
-
-                    try (var connection = DriverManager.getConnection(POSTGRESQL_JDBC_URL,
-                            POSTGRESQL_USER, POSTGRESQL_PASSWORD)) {
-                        String array = embedding.toString();
-                        LOGGER.debug("Embedding: \n{}", array);
-                        // Vector での検索 (LIMIT を変更し複数件取得可能だが、非同期 Non-Blocking の場合には回答が混ざる)
-
-                        String querySql = "SELECT id,origntext,filename,pageNumber FROM " + POSTGRESQL_TABLE_NAME
-                                + " ORDER BY embedding <-> ?::vector LIMIT " + MAX_RESULT + ";";
-
-                        PreparedStatement queryStatement = connection.prepareStatement(querySql);
-                        queryStatement.setString(1, array);
-                        ResultSet resultSet = queryStatement.executeQuery();
-                        LOGGER.debug("resultSet: {}", resultSet);
-                        while (resultSet.next()) {
-                            DocumentSummarizer documentSummarizer = new DocumentSummarizer(
-                                    UUID.fromString(resultSet.getString("id")),
-                                    null,
-                                    resultSet.getString("origntext"),
-                                    resultSet.getString("filename"),
-                                    resultSet.getInt("pageNumber"));
-                            docSummaryList.add(documentSummarizer);
-                            LOGGER.debug("DocumentSummarizer: {}", documentSummarizer);
-                        }
-                    } catch (SQLException e) {
-                        LOGGER.error("Connection failure: {}", e.getMessage());
+                    LOGGER.debug("Embedding: \n{}", embedding);
+                    float[] vector = new float[embedding.size()];
+                    for (int i = 0; i < vector.length; i++) {
+                        vector[i] = embedding.get(i).floatValue();
                     }
-                    return Mono.just(docSummaryList);
+                    return vector;
                 });
     }
-
-    private void intervalToSendClient() {
-        try {
-            TimeUnit.MILLISECONDS.sleep(20);
-        } catch (InterruptedException e) {
-            LOGGER.error("Error Occurred: {}", e.getMessage());
-            Thread.currentThread().interrupt();
-        }
-    }
 }
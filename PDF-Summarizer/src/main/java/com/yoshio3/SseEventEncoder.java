@@ -0,0 +1,56 @@
+package com.yoshio3;
+
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.stereotype.Component;
+import com.yoshio3.entities.SseEvent;
+
+// SseEvent を SSE の形式 ("id:", "event:", "data:" の各行と空行) に変換するクラス
+// レスポンスの DataBufferFactory (Netty のプールされたバッファ) から確保したバッファに直接書き込み、
+// JSON への変換や中間の文字列を作成しません。
+// "data:" の後には常に空白を 1 つ書き込むため (クライアントはこの空白のみを取り除く)、
+// 先頭が空白の文字列もそのまま送信できます。
+@Component
+public class SseEventEncoder {
+
+    private static final String ID = "id: ";
+    private static final String EVENT = "\nevent: ";
+    private static final String DATA = "\ndata: ";
+    private static final String END_OF_EVENT = "\n\n";
+
+    public DataBuffer encode(SseEvent event, DataBufferFactory bufferFactory) {
+        String data = event.data();
+        DataBuffer buffer = bufferFactory.allocateBuffer(estimateSize(event));
+        buffer.write(ID, StandardCharsets.US_ASCII);
+        buffer.write(Long.toString(event.id()), StandardCharsets.US_ASCII);
+        buffer.write(EVENT, StandardCharsets.US_ASCII);
+        buffer.write(event.type(), StandardCharsets.UTF_8);
+
+        // 改行 (\r\n, \r, \n) 毎に data: 行を分ける
+        int lineStart = 0;
+        int length = data.length();
+        for (int i = 0; i <= length; i++) {
+            char c = i < length ? data.charAt(i) : '\n';
+            if (c != '\n' && c != '\r') {
+                continue;
+            }
+            buffer.write(DATA, StandardCharsets.US_ASCII);
+            if (i > lineStart) {
+                buffer.write(CharBuffer.wrap(data, lineStart, i), StandardCharsets.UTF_8);
+            }
+            if (c == '\r' && i + 1 < length && data.charAt(i + 1) == '\n') {
+                i++;
+            }
+            lineStart = i + 1;
+        }
+        buffer.write(END_OF_EVENT, StandardCharsets.US_ASCII);
+        return buffer;
+    }
+
+    // 日本語 (UTF-8 で 3 バイト) を含む場合も、バッファの拡張が起きにくいサイズを確保する
+    private static int estimateSize(SseEvent event) {
+        return 48 + event.type().length() + event.data().length() * 3;
+    }
+}
@@ -0,0 +1,83 @@
+package com.yoshio3;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.Normalizer;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import jakarta.annotation.PostConstruct;
+
+// OpenAI が作成したドキュメントの要約をプロセス内に保持するキャッシュ
+// キーは「チャンクの ID + チャンクのテキストのハッシュ値 + 正規化した質問」とします。
+// チャンクが再登録されテキストが変わった場合はキーが変わるため、古い要約が返されることはありません。
+// (ID が変わる通常の登録の場合も、古いキーは参照されなくなり有効期限か件数の上限で破棄されます)
+@Component
+public class SummaryCache {
+
+    private record Entry(String summary, long expiresAtNanos) {}
+
+    // キャッシュに保持する要約の数
+    @Value("${azure.openai.summary.cache.max.size:1000}")
+    private int MAX_SIZE;
+
+    // キャッシュの有効期限 (秒)
+    @Value("${azure.openai.summary.cache.ttl.seconds:3600}")
+    private long TTL_SECONDS;
+
+    private Map<String, Entry> entries;
+
+    @PostConstruct
+    public void init() {
+        entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > MAX_SIZE;
+            }
+        };
+    }
+
+    // キャッシュされた要約を返す (ない場合は null)
+    public String get(UUID chunkId, String chunkText, String question) {
+        String key = key(chunkId, chunkText, question);
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.expiresAtNanos() - System.nanoTime() <= 0) {
+                entries.remove(key);
+                return null;
+            }
+            return entry.summary();
+        }
+    }
+
+    public void put(UUID chunkId, String chunkText, String question, String summary) {
+        String key = key(chunkId, chunkText, question);
+        long expiresAt = System.nanoTime() + Duration.ofSeconds(TTL_SECONDS).toNanos();
+        synchronized (entries) {
+            entries.put(key, new Entry(summary, expiresAt));
+        }
+    }
+
+    private static String key(UUID chunkId, String chunkText, String question) {
+        String normalized = Normalizer.normalize(question, Normalizer.Form.NFKC)
+                .replaceAll("\\s+", " ").strip();
+        return chunkId + ":" + sha256(chunkText) + ":" + normalized;
+    }
+
+    private static String sha256(String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(text.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
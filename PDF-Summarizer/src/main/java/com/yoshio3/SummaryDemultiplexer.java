@@ -0,0 +1,113 @@
+package com.yoshio3;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+// 複数のドキュメントを 1 回のリクエストで要約した場合に、Stream で受信した回答をドキュメント毎に振り分けるクラス
+// 回答の中の "[[ドキュメント番号]]" の行を区切りとして、以降の文字列をそのドキュメントの要約とします。
+// 区切りがトークンの途中で分割されて受信される場合もあるため、区切りの可能性がある文字列は次の受信まで保留します。
+public class SummaryDemultiplexer {
+
+    // index: プロンプトに記載したドキュメントの順番 (0 始まり)
+    public record Segment(int index, String text) {}
+
+    private static final String OPEN = "[[";
+    private static final String CLOSE = "]]";
+    // 区切りの途中 (数字と "]" のみ) の可能性がある文字列
+    private static final Pattern PARTIAL_MARKER = Pattern.compile("\\d{0,3}\\]?");
+    private static final Pattern MARKER_INDEX = Pattern.compile("\\d{1,3}");
+
+    private final int documentCount;
+    private final StringBuilder pending = new StringBuilder();
+    private int current = -1;
+    private boolean skipNewline;
+
+    public SummaryDemultiplexer(int documentCount) {
+        this.documentCount = documentCount;
+    }
+
+    // 受信した文字列を追加し、振り分けが確定した文字列を返す
+    public List<Segment> accept(String text) {
+        pending.append(text);
+        List<Segment> segments = new ArrayList<>();
+        parse(segments, false);
+        return segments;
+    }
+
+    // 受信の完了時に、保留している文字列を返す
+    public List<Segment> finish() {
+        List<Segment> segments = new ArrayList<>();
+        parse(segments, true);
+        return segments;
+    }
+
+    private void parse(List<Segment> segments, boolean last) {
+        int position = 0;
+        while (position < pending.length()) {
+            if (skipNewline) {
+                // 区切りの直後の改行は要約に含めない
+                if (pending.charAt(position) == '\n') {
+                    position++;
+                }
+                skipNewline = false;
+                continue;
+            }
+            int open = pending.indexOf(OPEN, position);
+            if (open < 0) {
+                // 末尾の "[" は区切りの開始の可能性があるため保留する
+                int end = pending.length();
+                if (!last && pending.charAt(end - 1) == '[') {
+                    end--;
+                }
+                add(segments, position, end);
+                position = end;
+                break;
+            }
+            add(segments, position, open);
+            int close = pending.indexOf(CLOSE, open + OPEN.length());
+            if (close < 0) {
+                if (!last && PARTIAL_MARKER.matcher(pending.substring(open + OPEN.length())).matches()) {
+                    position = open;
+                    break;
+                }
+                // 区切りではないため、そのまま要約として扱う
+                add(segments, open, open + OPEN.length());
+                position = open + OPEN.length();
+                continue;
+            }
+            int index = parseIndex(pending.substring(open + OPEN.length(), close));
+            if (index < 0) {
+                add(segments, open, open + OPEN.length());
+                position = open + OPEN.length();
+                continue;
+            }
+            current = index;
+            position = close + CLOSE.length();
+            skipNewline = true;
+        }
+        pending.delete(0, position);
+    }
+
+    private int parseIndex(String value) {
+        if (!MARKER_INDEX.matcher(value).matches()) {
+            return -1;
+        }
+        int number = Integer.parseInt(value);
+        return number >= 1 && number <= documentCount ? number - 1 : -1;
+    }
+
+    // 最初の区切りより前の文字列 (前置きなど) は、どのドキュメントにも振り分けない
+    private void add(List<Segment> segments, int from, int to) {
+        if (from >= to || current < 0) {
+            return;
+        }
+        String text = pending.substring(from, to);
+        int lastIndex = segments.size() - 1;
+        if (lastIndex >= 0 && segments.get(lastIndex).index() == current) {
+            segments.set(lastIndex, new Segment(current, segments.get(lastIndex).text() + text));
+        } else {
+            segments.add(new Segment(current, text));
+        }
+    }
+}
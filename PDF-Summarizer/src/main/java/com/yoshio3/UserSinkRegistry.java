@@ -0,0 +1,166 @@
+package com.yoshio3;
+
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import com.yoshio3.entities.SseEvent;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.publisher.Sinks.EmitResult;
+
+// クライアント (ユーザ) 毎の SSE の送信先 (Sink) を管理するクラス
+// 各 Sink は直近のイベントを保持し、再接続時はブラウザが送信する Last-Event-ID 以降のイベントを再送します。
+// 切断されたままの Sink・長時間イベントのない Sink は定期的に破棄し、Sink の数には上限を設けます。
+// また、ユーザ毎に OpenAI への要約のリクエストをキューに入れ、同時に実行する数を制限します。
+@Component
+public class UserSinkRegistry {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(UserSinkRegistry.class);
+
+    // 再接続時に再送するために保持するイベント数
+    @Value("${sse.user.replay.buffer.size:256}")
+    private int REPLAY_BUFFER_SIZE;
+
+    // 保持する Sink の数の上限 (超えた場合は最も長く使われていない Sink を破棄)
+    @Value("${sse.user.max.count:10000}")
+    private int MAX_USERS;
+
+    // 切断後、再接続を待つ時間 (秒)
+    @Value("${sse.user.disconnected.timeout.seconds:60}")
+    private long DISCONNECTED_TIMEOUT_SECONDS;
+
+    // 接続中でもイベントの送信がない場合に破棄するまでの時間 (秒)
+    @Value("${sse.user.idle.timeout.seconds:1800}")
+    private long IDLE_TIMEOUT_SECONDS;
+
+    // ユーザ毎に同時に実行する OpenAI への要約のリクエストの数 (超えた分はキューで待機)
+    // 0 以下の場合は制限しない (per-document の場合は、検索毎に MAX_RESULT 件を同時にリクエストする)
+    @Value("${azure.openai.summary.max.concurrency.per.user:0}")
+    private int MAX_CONCURRENT_SUMMARIES;
+
+    // イベント ID (Sink を作り直した場合も、再接続前の ID より大きくなるようにプロセス全体で採番する)
+    private final AtomicLong eventIds = new AtomicLong(System.currentTimeMillis() * 1000);
+
+    private final Map<UUID, UserSink> userSinks = new ConcurrentHashMap<>();
+
+    // 1 ユーザ分の Sink
+    public final class UserSink {
+
+        private final UUID userId;
+        private final Sinks.Many<SseEvent> sink =
+                Sinks.many().replay().limit(REPLAY_BUFFER_SIZE);
+        private final Sinks.Many<Mono<Void>> summaryTasks =
+                Sinks.many().unicast().onBackpressureBuffer();
+        private final Disposable summaryWorker;
+        private volatile long lastAccessNanos = System.nanoTime();
+        private int subscribers;
+
+        private UserSink(UUID userId) {
+            this.userId = userId;
+            this.summaryWorker = summaryTasks.asFlux()
+                    .flatMap(task -> task, MAX_CONCURRENT_SUMMARIES > 0
+                            ? MAX_CONCURRENT_SUMMARIES : Integer.MAX_VALUE)
+                    .subscribe();
+        }
+
+        // イベントを送信 (複数の要約を並行して送信するため、ID の採番と送信をまとめて排他する)
+        public synchronized EmitResult emit(String type, String data) {
+            lastAccessNanos = System.nanoTime();
+            return sink.tryEmitNext(new SseEvent(eventIds.incrementAndGet(), type, data));
+        }
+
+        // 要約のリクエストをキューに追加 (MAX_CONCURRENT_SUMMARIES 件を超える場合は、先に追加したものの完了後に実行)
+        // 1 件の失敗で後続のリクエストが実行されなくならないよう、エラーはここでログに出力して破棄する
+        public synchronized boolean submit(Mono<Void> task) {
+            lastAccessNanos = System.nanoTime();
+            return summaryTasks.tryEmitNext(task.onErrorResume(error -> {
+                LOGGER.error("Error Occurred: {}", error.getMessage());
+                return Mono.empty();
+            })).isSuccess();
+        }
+
+        private Flux<SseEvent> subscribe(long lastEventId) {
+            return sink.asFlux()
+                    .filter(event -> event.id() > lastEventId)
+                    .doOnSubscribe(subscription -> changeSubscribers(1))
+                    .doFinally(signal -> changeSubscribers(-1));
+        }
+
+        private synchronized void changeSubscribers(int delta) {
+            subscribers += delta;
+            lastAccessNanos = System.nanoTime();
+        }
+
+        private synchronized boolean isExpired(long now) {
+            long timeout = subscribers > 0 ? IDLE_TIMEOUT_SECONDS : DISCONNECTED_TIMEOUT_SECONDS;
+            return now - lastAccessNanos > Duration.ofSeconds(timeout).toNanos();
+        }
+
+        private synchronized void complete() {
+            sink.tryEmitComplete();
+            // 実行中・待機中の要約のリクエストも取り消す
+            summaryTasks.tryEmitComplete();
+            summaryWorker.dispose();
+        }
+    }
+
+    // Sink を取得 (存在しない場合は作成)
+    public UserSink getOrCreate(UUID userId) {
+        UserSink userSink = userSinks.get(userId);
+        if (userSink != null) {
+            return userSink;
+        }
+        if (userSinks.size() >= MAX_USERS) {
+            evictLeastRecentlyUsed();
+        }
+        return userSinks.computeIfAbsent(userId, id -> {
+            LOGGER.debug("User ID: {} User Sink is Added.", id);
+            return new UserSink(id);
+        });
+    }
+
+    // SSE の接続 (lastEventId が指定された場合は、それより後のイベントのみ再送する)
+    public Flux<SseEvent> subscribe(UUID userId, long lastEventId) {
+        return getOrCreate(userId).subscribe(lastEventId);
+    }
+
+    public int size() {
+        return userSinks.size();
+    }
+
+    // 切断されたまま・イベントの送信がないまま一定時間経過した Sink を破棄
+    @Scheduled(fixedDelayString = "${sse.user.eviction.interval.millis:10000}")
+    public void evictExpired() {
+        long now = System.nanoTime();
+        userSinks.values().removeIf(userSink -> {
+            if (!userSink.isExpired(now)) {
+                return false;
+            }
+            LOGGER.debug("User ID: {} User Sink is Removed.", userSink.userId);
+            userSink.complete();
+            return true;
+        });
+    }
+
+    private void evictLeastRecentlyUsed() {
+        userSinks.values().stream()
+                .min(Comparator.comparingLong(userSink -> userSink.lastAccessNanos))
+                .ifPresent(userSink -> {
+                    LOGGER.warn("User sinks reached the limit ({}). User ID: {} is evicted.",
+                            MAX_USERS, userSink.userId);
+                    if (userSinks.remove(userSink.userId, userSink)) {
+                        userSink.complete();
+                    }
+                });
+    }
+}
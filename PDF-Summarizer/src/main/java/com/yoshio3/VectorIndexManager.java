@@ -0,0 +1,521 @@
+package com.yoshio3;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import jakarta.annotation.PostConstruct;
+
+// DOCUMENT_SEARCH_VECTOR テーブルとベクトル検索用のインデックス (HNSW / IVFFlat) を管理するクラス
+// 起動時にテーブルを作成し、インデックスは起動後に定期的な確認 (checkIndex) で作成します。
+// (行数の多いテーブルでは CREATE INDEX CONCURRENTLY に時間がかかるため、起動処理では作成しない)
+// IVFFlat の場合は行数の増加に合わせてリスト数を見直して再作成します。
+// 複数のインスタンスで起動した場合は、アドバイザリ・ロックを取得したインスタンスのみがインデックスを変更します。
+// 検索時は applySearchSettings() で、ef_search / probes をそのトランザクションのみに設定します。
+// 検索には有効なインデックスの種類・形式 (searchIndex()) を利用し、設定を変更した場合も新しいインデックスが
+// 有効になるまでは既存のインデックスで検索します。(呼び出し元は 1 回の検索で同じ SearchIndex を利用すること)
+// 検索は "<->" (L2 距離) で行うため、インデックスの演算子クラスは vector_l2_ops を利用します。
+// storage.mode に halfvec / binary を指定した場合は、ベクター配列を量子化した式 (半精度 / 1 ビット) に
+// インデックスを作成し、インデックスのサイズを抑えます。(テーブルには従来通り元のベクター配列を保持するため、
+// 登録側 (BlobUploadDetector) の変更は不要です) 検索時は量子化した値で候補を取得し、元のベクター配列で並べ替えます。
+@Component
+public class VectorIndexManager {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(VectorIndexManager.class);
+
+    // IVFFlat のリスト数の目安 (100 万行までは 行数 / 1000、それ以上は 行数の平方根)
+    private static final long IVFFLAT_ROWS_PER_LIST = 1000;
+    private static final long IVFFLAT_SQRT_THRESHOLD_ROWS = 1_000_000;
+    // ベクター配列の次元数 (text-embedding-ada-002)
+    private static final int DIMENSIONS = 1536;
+    private static final String STORAGE_MODE_FULL = "full";
+    private static final List<String> STORAGE_MODES = List.of(STORAGE_MODE_FULL, "halfvec", "binary");
+    private static final List<String> INDEX_TYPES = List.of("hnsw", "ivfflat");
+
+    public record RelationSizes(long tableBytes, long indexBytes) {}
+
+    // 検索に利用するインデックスの種類 (hnsw, ivfflat, none) と形式 (full, halfvec, binary)
+    public record SearchIndex(String type, String storageMode) {}
+
+    // インデックスの状態 (valid: CREATE INDEX CONCURRENTLY が完了し、検索に利用できるか否か)
+    private record IndexState(boolean valid, String[] options) {}
+
+    @Value("${azure.postgresql.jdbcurl}")
+    private String POSTGRESQL_JDBC_URL;
+
+    @Value("${azure.postgresql.user}")
+    private String POSTGRESQL_USER;
+
+    @Value("${azure.postgresql.password}")
+    private String POSTGRESQL_PASSWORD;
+
+    @Value("${azure.postgresql.db.table.name}")
+    private String POSTGRESQL_TABLE_NAME;
+
+    // インデックスの種類 (hnsw, ivfflat, none)
+    @Value("${azure.postgresql.vector.index.type:hnsw}")
+    private String INDEX_TYPE;
+
+    // HNSW: 各ノードの接続数
+    @Value("${azure.postgresql.vector.index.hnsw.m:16}")
+    private int HNSW_M;
+
+    // HNSW: インデックス作成時の候補リストのサイズ
+    @Value("${azure.postgresql.vector.index.hnsw.ef.construction:64}")
+    private int HNSW_EF_CONSTRUCTION;
+
+    // HNSW: 検索時の候補リストのサイズ (大きいほど再現率が上がり、遅くなる)
+    @Value("${azure.postgresql.vector.index.hnsw.ef.search:40}")
+    private int HNSW_EF_SEARCH;
+
+    // IVFFlat: 検索時に調べるリスト数 (大きいほど再現率が上がり、遅くなる)
+    @Value("${azure.postgresql.vector.index.ivfflat.probes:10}")
+    private int IVFFLAT_PROBES;
+
+    // IVFFlat: この行数に達するまではインデックスを作成しない (少ない行数で学習したリストは精度が低いため)
+    @Value("${azure.postgresql.vector.index.ivfflat.min.rows:10000}")
+    private long IVFFLAT_MIN_ROWS;
+
+    // IVFFlat: 現在のリスト数と目安のリスト数の比がこの値を超えた場合にインデックスを再作成する
+    @Value("${azure.postgresql.vector.index.ivfflat.rebuild.ratio:2.0}")
+    private double IVFFLAT_REBUILD_RATIO;
+
+    // インデックスに格納するベクター配列の形式 (full: 元の精度、halfvec: 半精度、binary: 1 ビット)
+    // halfvec, binary は pgvector 0.7.0 以降で利用できます
+    @Value("${azure.postgresql.vector.storage.mode:full}")
+    private String STORAGE_MODE;
+
+    // halfvec, binary の場合に、量子化した値で取得し元のベクター配列で並べ替える候補の数
+    // (binary は距離の精度が低いため、halfvec より多めに取得する必要があります)
+    @Value("${azure.postgresql.vector.rerank.candidates:100}")
+    private int RERANK_CANDIDATES;
+
+    // 検索に利用するインデックス (null の場合は設定どおりの種類・形式)
+    private volatile SearchIndex searchIndex;
+
+    @PostConstruct
+    public void init() {
+        try (Connection connection = getConnection()) {
+            createTableIfNotExists(connection);
+            refreshSearchIndex(connection);
+        } catch (SQLException e) {
+            LOGGER.error("Failed to prepare vector table: {}", e.getMessage());
+        }
+    }
+
+    // 起動後と定期的にインデックスの状態を確認し、必要に応じて作成・再作成する
+    // 他のインスタンスが確認中 (ロックを取得済み) の場合は、検索に利用するインデックスのみ確認する
+    @Scheduled(initialDelayString = "${azure.postgresql.vector.index.check.initial.delay.millis:10000}",
+            fixedDelayString = "${azure.postgresql.vector.index.check.interval.millis:3600000}")
+    public void checkIndex() {
+        try (Connection connection = getConnection()) {
+            if (!tryLock(connection)) {
+                LOGGER.info("Skip vector index maintenance: locked by another instance");
+                refreshSearchIndex(connection);
+                return;
+            }
+            try {
+                maintainIndex(connection);
+            } finally {
+                unlock(connection);
+            }
+        } catch (SQLException e) {
+            LOGGER.error("Failed to maintain vector index: {}", e.getMessage());
+        }
+    }
+
+    // 検索用のパラメータを現在のトランザクションのみに設定する (autoCommit が false の接続で呼び出すこと)
+    // HNSW は ef_search 件までしか返さないため、インデックスから取得する件数 (並べ替え前の候補を含む) が
+    // 大きい場合は ef_search をその件数に合わせる
+    public void applySearchSettings(Connection connection, SearchIndex index, int limit)
+            throws SQLException {
+        String name;
+        int value;
+        switch (index.type()) {
+            case "hnsw" -> {
+                name = "hnsw.ef_search";
+                value = Math.max(HNSW_EF_SEARCH, candidateCount(index, limit));
+            }
+            case "ivfflat" -> {
+                name = "ivfflat.probes";
+                value = IVFFLAT_PROBES;
+            }
+            default -> {
+                return;
+            }
+        }
+        try (PreparedStatement statement =
+                connection.prepareStatement("SELECT set_config(?, ?, true)")) {
+            statement.setString(1, name);
+            statement.setString(2, Integer.toString(value));
+            statement.execute();
+        }
+    }
+
+    // 検索するベクター配列 (パラメータ 1 つ) に近い順に、id と L2 距離 (distance) を返す SQL
+    // 量子化したインデックスを利用する場合は、量子化した値の距離で候補を取得し、元のベクター配列との距離で並べ替える
+    // パラメータは bindNearestNeighbors() で設定する
+    public String nearestNeighborsSql(SearchIndex index) {
+        if (!isQuantized(index.storageMode())) {
+            return "SELECT id, embedding <-> ? AS distance FROM " + POSTGRESQL_TABLE_NAME
+                    + " ORDER BY distance LIMIT ?";
+        }
+        // ORDER BY の式はインデックスの式と一致させる (一致しない場合はインデックスが利用されない)
+        return "SELECT id, embedding <-> ? AS distance FROM (SELECT id, embedding FROM "
+                + POSTGRESQL_TABLE_NAME + " ORDER BY "
+                + quantizedExpression("embedding", index.storageMode()) + " "
+                + distanceOperator(index.storageMode()) + " "
+                + quantizedExpression("?", index.storageMode()) + " LIMIT ?) AS candidates"
+                + " ORDER BY distance LIMIT ?";
+    }
+
+    // nearestNeighborsSql() のパラメータを index から設定し、次のパラメータの位置を返す
+    public int bindNearestNeighbors(PreparedStatement statement, int index,
+            SearchIndex searchIndex, PgVector embedding, int limit) throws SQLException {
+        statement.setObject(index++, embedding);
+        if (isQuantized(searchIndex.storageMode())) {
+            statement.setObject(index++, embedding);
+            statement.setInt(index++, candidateCount(searchIndex, limit));
+        }
+        statement.setInt(index++, limit);
+        return index;
+    }
+
+    // 検索に利用するインデックス (設定を変更した場合は、新しいインデックスが有効になるまで既存のもの)
+    public SearchIndex searchIndex() {
+        SearchIndex index = searchIndex;
+        return index != null ? index : configuredIndex();
+    }
+
+    private String storageMode() {
+        String mode = STORAGE_MODE.trim().toLowerCase();
+        return STORAGE_MODES.contains(mode) ? mode : STORAGE_MODE_FULL;
+    }
+
+    // テーブル (TOAST を含む) と検索に利用するインデックスのサイズ (バイト)
+    public RelationSizes relationSizes(Connection connection, SearchIndex index)
+            throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT pg_table_size(to_regclass(?)), coalesce(pg_relation_size(to_regclass(?)), 0)")) {
+            statement.setString(1, POSTGRESQL_TABLE_NAME.toLowerCase());
+            statement.setString(2, indexName(index.type(), index.storageMode()));
+            try (ResultSet resultSet = statement.executeQuery()) {
+                resultSet.next();
+                return new RelationSizes(resultSet.getLong(1), resultSet.getLong(2));
+            }
+        }
+    }
+
+    private int candidateCount(SearchIndex index, int limit) {
+        return isQuantized(index.storageMode()) ? Math.max(RERANK_CANDIDATES, limit) : limit;
+    }
+
+    private static boolean isQuantized(String storageMode) {
+        return !STORAGE_MODE_FULL.equals(storageMode);
+    }
+
+    // インデックスを作成する式 (value は列名かパラメータ)
+    private static String quantizedExpression(String value, String storageMode) {
+        return switch (storageMode) {
+            case "halfvec" -> "(" + value + ")::halfvec(" + DIMENSIONS + ")";
+            case "binary" -> "binary_quantize(" + value + ")::bit(" + DIMENSIONS + ")";
+            default -> value;
+        };
+    }
+
+    private static String distanceOperator(String storageMode) {
+        return "binary".equals(storageMode) ? "<~>" : "<->";
+    }
+
+    private String operatorClass() {
+        return switch (storageMode()) {
+            case "halfvec" -> "halfvec_l2_ops";
+            case "binary" -> "bit_hamming_ops";
+            default -> "vector_l2_ops";
+        };
+    }
+
+    // インデックスの対象 (量子化する場合は式のため括弧で囲む)
+    private String indexTarget() {
+        String expression = quantizedExpression("embedding", storageMode());
+        return (isQuantized(storageMode()) ? "(" + expression + ")" : expression) + " "
+                + operatorClass();
+    }
+
+    private void createTableIfNotExists(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE EXTENSION IF NOT EXISTS \"uuid-ossp\"");
+            statement.execute("CREATE EXTENSION IF NOT EXISTS vector");
+            statement.execute("CREATE TABLE IF NOT EXISTS " + POSTGRESQL_TABLE_NAME
+                    + " (id uuid, embedding VECTOR(" + DIMENSIONS + "), origntext varchar(8192),"
+                    + " fileName varchar(2048), pageNumber integer, PRIMARY KEY (id))");
+        }
+    }
+
+    // 現在の種類・形式以外のインデックス (設定を変更する前のもの) は削除する
+    // 現在の種類・形式のインデックスを先に作成し、有効になるまでは既存のインデックスで検索する
+    // 既存のインデックスは、新しいインデックスが前回の確認の時点で有効だった場合のみ削除する
+    // (他のインスタンスも確認の度に検索に利用するインデックスを切り替えるため、切り替えの前に削除しない)
+    // IVFFlat の行数が min.rows に満たない場合など、インデックスを作成しない間は既存のインデックスを残す
+    private void maintainIndex(Connection connection) throws SQLException {
+        IndexState before = INDEX_TYPES.contains(indexType())
+                ? indexState(connection, indexName(indexType())) : null;
+        switch (indexType()) {
+            case "hnsw" -> createHnswIndexIfNotExists(connection);
+            case "ivfflat" -> maintainIvfflatIndex(connection);
+            default -> {
+            }
+        }
+        refreshSearchIndex(connection);
+        if (INDEX_TYPES.contains(indexType()) && (before == null || !before.valid())) {
+            return;
+        }
+        for (String storageMode : STORAGE_MODES) {
+            for (String type : INDEX_TYPES) {
+                if (!storageMode.equals(storageMode()) || !type.equals(indexType())) {
+                    dropIndexIfExists(connection, indexName(type, storageMode));
+                }
+            }
+        }
+    }
+
+    private void createHnswIndexIfNotExists(Connection connection) throws SQLException {
+        if (dropIfInvalid(connection, indexName("hnsw")) != null) {
+            return;
+        }
+        LOGGER.info("Creating HNSW index on {} (storage={}, m={}, ef_construction={})",
+                POSTGRESQL_TABLE_NAME, storageMode(), HNSW_M, HNSW_EF_CONSTRUCTION);
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE INDEX CONCURRENTLY IF NOT EXISTS " + indexName("hnsw")
+                    + " ON " + POSTGRESQL_TABLE_NAME + " USING hnsw (" + indexTarget() + ")"
+                    + " WITH (m = " + HNSW_M + ", ef_construction = " + HNSW_EF_CONSTRUCTION + ")");
+        }
+    }
+
+    // IVFFlat のリストは作成時のデータで学習するため、行数が大きく増えた場合は作り直す
+    private void maintainIvfflatIndex(Connection connection) throws SQLException {
+        long rows = estimateRowCount(connection);
+        if (rows < IVFFLAT_MIN_ROWS) {
+            LOGGER.debug("Skip IVFFlat index: {} rows (min {})", rows, IVFFLAT_MIN_ROWS);
+            return;
+        }
+        long targetLists = ivfflatLists(rows);
+        IndexState state = dropIfInvalid(connection, indexName("ivfflat"));
+        if (state != null && !state.valid()) {
+            // 作成中のため、完了後の確認でリスト数を見直す
+            return;
+        }
+        if (state != null) {
+            long currentLists = listsOf(state.options());
+            double ratio = currentLists > 0
+                    ? (double) Math.max(currentLists, targetLists) / Math.min(currentLists, targetLists)
+                    : Double.MAX_VALUE;
+            if (ratio < IVFFLAT_REBUILD_RATIO) {
+                return;
+            }
+            LOGGER.info("Rebuilding IVFFlat index on {}: {} rows, lists {} -> {}",
+                    POSTGRESQL_TABLE_NAME, rows, currentLists, targetLists);
+        } else {
+            LOGGER.info("Creating IVFFlat index on {}: {} rows, lists {}", POSTGRESQL_TABLE_NAME,
+                    rows, targetLists);
+        }
+
+        // 新しいインデックスを作成してから差し替え、作成中も既存のインデックスで検索できるようにする
+        // 名前の差し替えは 1 トランザクションで行い、既存のインデックスは差し替えた後に削除する
+        // (前回の作成・差し替えが途中で失敗した場合に残ったインデックスは、最初に削除する)
+        String indexName = indexName("ivfflat");
+        String newIndexName = indexName + "_new";
+        String oldIndexName = indexName + "_old";
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("DROP INDEX CONCURRENTLY IF EXISTS " + newIndexName);
+            statement.execute("DROP INDEX CONCURRENTLY IF EXISTS " + oldIndexName);
+            statement.execute("CREATE INDEX CONCURRENTLY " + newIndexName + " ON "
+                    + POSTGRESQL_TABLE_NAME + " USING ivfflat (" + indexTarget() + ")"
+                    + " WITH (lists = " + targetLists + ")");
+            connection.setAutoCommit(false);
+            try {
+                if (state != null) {
+                    statement.execute("ALTER INDEX " + indexName + " RENAME TO " + oldIndexName);
+                }
+                statement.execute("ALTER INDEX " + newIndexName + " RENAME TO " + indexName);
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+            statement.execute("DROP INDEX CONCURRENTLY IF EXISTS " + oldIndexName);
+        }
+    }
+
+    // 設定どおりのインデックスが有効な場合はそれを、無効な場合は有効な既存のインデックスを検索に利用する
+    private void refreshSearchIndex(Connection connection) throws SQLException {
+        SearchIndex configured = configuredIndex();
+        SearchIndex existing = INDEX_TYPES.contains(configured.type())
+                && !isValid(indexState(connection, indexName(configured.type())))
+                ? findValidIndex(connection) : null;
+        SearchIndex current = existing != null ? existing : configured;
+        if (!current.equals(searchIndex)) {
+            LOGGER.info("Vector search uses index type={} storage={}", current.type(),
+                    current.storageMode());
+        }
+        searchIndex = current;
+    }
+
+    // 有効なインデックスのうち最初に見つかったものを返す (存在しない場合は null)
+    private SearchIndex findValidIndex(Connection connection) throws SQLException {
+        for (String storageMode : STORAGE_MODES) {
+            for (String type : INDEX_TYPES) {
+                if (isValid(indexState(connection, indexName(type, storageMode)))) {
+                    return new SearchIndex(type, storageMode);
+                }
+            }
+        }
+        return null;
+    }
+
+    private SearchIndex configuredIndex() {
+        return new SearchIndex(indexType(), storageMode());
+    }
+
+    private static boolean isValid(IndexState state) {
+        return state != null && state.valid();
+    }
+
+    // インデックスの状態を返す (存在しない場合は null)
+    // CREATE INDEX CONCURRENTLY が途中で失敗したインデックスは、無効 (indisvalid = false) のまま残り
+    // 検索には利用されないため、削除して存在しないものとして扱う (呼び出し元で作成し直す)
+    // 作成中のインデックスも無効のため、pg_stat_progress_create_index に表示される場合は削除せず、
+    // 無効な状態のまま返す (呼び出し元では作成・再作成を行わない)
+    private IndexState dropIfInvalid(Connection connection, String indexName) throws SQLException {
+        IndexState state = indexState(connection, indexName);
+        if (state == null || state.valid()) {
+            return state;
+        }
+        if (isBeingBuilt(connection, indexName)) {
+            LOGGER.info("Index {} is being built by another session", indexName);
+            return state;
+        }
+        LOGGER.warn("Dropping invalid index {} to rebuild it", indexName);
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("DROP INDEX CONCURRENTLY IF EXISTS " + indexName);
+        }
+        return null;
+    }
+
+    private boolean isBeingBuilt(Connection connection, String indexName) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT 1 FROM pg_stat_progress_create_index WHERE index_relid = to_regclass(?)")) {
+            statement.setString(1, indexName);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next();
+            }
+        }
+    }
+
+    // インデックスの変更を 1 つのインスタンスのみで行うためのセッション単位のロック (テーブル名毎)
+    private boolean tryLock(Connection connection) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT pg_try_advisory_lock(hashtext(?))")) {
+            statement.setString(1, lockKey());
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() && resultSet.getBoolean(1);
+            }
+        }
+    }
+
+    private void unlock(Connection connection) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT pg_advisory_unlock(hashtext(?))")) {
+            statement.setString(1, lockKey());
+            statement.execute();
+        }
+    }
+
+    private String lockKey() {
+        return "vector_index:" + POSTGRESQL_TABLE_NAME.toLowerCase();
+    }
+
+    private void dropIndexIfExists(Connection connection, String indexName) throws SQLException {
+        if (indexState(connection, indexName) == null) {
+            return;
+        }
+        LOGGER.info("Dropping index {}", indexName);
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("DROP INDEX CONCURRENTLY IF EXISTS " + indexName);
+        }
+    }
+
+    // インデックスが有効か否かとオプション (例: {lists=100}) を返す。インデックスが存在しない場合は null
+    private IndexState indexState(Connection connection, String indexName) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT c.reloptions, i.indisvalid FROM pg_class c"
+                        + " JOIN pg_index i ON i.indexrelid = c.oid WHERE c.oid = to_regclass(?)")) {
+            statement.setString(1, indexName);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (!resultSet.next()) {
+                    return null;
+                }
+                Array options = resultSet.getArray(1);
+                return new IndexState(resultSet.getBoolean(2),
+                        options == null ? new String[0] : (String[]) options.getArray());
+            }
+        }
+    }
+
+    // 統計情報から行数の概算を取得 (COUNT(*) による全件走査を避ける)
+    private long estimateRowCount(Connection connection) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT reltuples::bigint FROM pg_class WHERE oid = to_regclass(?)")) {
+            statement.setString(1, POSTGRESQL_TABLE_NAME.toLowerCase());
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? Math.max(0, resultSet.getLong(1)) : 0;
+            }
+        }
+    }
+
+    private static long ivfflatLists(long rows) {
+        long lists = rows <= IVFFLAT_SQRT_THRESHOLD_ROWS ? rows / IVFFLAT_ROWS_PER_LIST
+                : (long) Math.sqrt(rows);
+        return Math.max(1, lists);
+    }
+
+    private static long listsOf(String[] options) {
+        for (String option : options) {
+            if (option.startsWith("lists=")) {
+                return Long.parseLong(option.substring("lists=".length()));
+            }
+        }
+        return 0;
+    }
+
+    private String indexType() {
+        return INDEX_TYPE.trim().toLowerCase();
+    }
+
+    private String indexName(String type) {
+        return indexName(type, storageMode());
+    }
+
+    // full の場合は従来のインデックス名とし、作成済みのインデックスをそのまま利用する
+    private String indexName(String type, String storageMode) {
+        String prefix = STORAGE_MODE_FULL.equals(storageMode) ? "_embedding_"
+                : "_embedding_" + storageMode + "_";
+        return (POSTGRESQL_TABLE_NAME + prefix + type + "_idx").toLowerCase();
+    }
+
+    private Connection getConnection() throws SQLException {
+        return DriverManager.getConnection(POSTGRESQL_JDBC_URL, POSTGRESQL_USER,
+                POSTGRESQL_PASSWORD);
+    }
+}
@@ -0,0 +1,15 @@
+package com.yoshio3;
+
+import java.util.List;
+import com.yoshio3.entities.DocumentSummarizer;
+import reactor.core.publisher.Mono;
+
+// 検索文字列 (とそのベクター配列) に近いドキュメントを取得する検索処理
+// PostgreSQL (pgvector) に問い合わせる DocumentSearchRepository と、
+// エクスポートしたスナップショットをプロセス内で検索する EmbeddedVectorSearchRepository があり、
+// azure.search.backend で切り替えます。
+public interface VectorSearchRepository {
+
+    // text (embedding はそのベクター配列) に近い順に maxResult 件のドキュメントを取得
+    Mono<List<DocumentSummarizer>> findMostSimilar(String text, float[] embedding, int maxResult);
+}
@@ -0,0 +1,79 @@
+package com.yoshio3;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.UUID;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+// PostgreSQL (pgvector) のテーブルの全行を読み込み、プロセス内で検索するための HNSW のスナップショットを作成するクラス
+// 行はカーソルで少しずつ取得し、ベクター配列をヒープに溜めずに一時ファイルへ書き出します。(HnswSnapshotWriter)
+// グラフの作成は件数と次元数に比例して時間がかかるため、m, ef.construction を小さくすると短くなります。(再現率は下がる)
+@Component
+public class VectorSnapshotExporter {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(VectorSnapshotExporter.class);
+
+    // カーソルで 1 度に取得する行数
+    private static final int FETCH_SIZE = 500;
+
+    @Value("${azure.postgresql.jdbcurl}")
+    private String POSTGRESQL_JDBC_URL;
+
+    @Value("${azure.postgresql.user}")
+    private String POSTGRESQL_USER;
+
+    @Value("${azure.postgresql.password}")
+    private String POSTGRESQL_PASSWORD;
+
+    @Value("${azure.postgresql.db.table.name}")
+    private String POSTGRESQL_TABLE_NAME;
+
+    // HNSW: 各ノードの接続数
+    @Value("${azure.search.embedded.hnsw.m:16}")
+    private int HNSW_M;
+
+    // HNSW: スナップショット作成時の候補リストのサイズ
+    @Value("${azure.search.embedded.hnsw.ef.construction:64}")
+    private int HNSW_EF_CONSTRUCTION;
+
+    // テーブルの全行から path にスナップショットを作成し、件数を返す
+    public int export(Path path) throws IOException, SQLException {
+        long start = System.nanoTime();
+        try (Connection connection = DriverManager.getConnection(POSTGRESQL_JDBC_URL,
+                POSTGRESQL_USER, POSTGRESQL_PASSWORD);
+                HnswSnapshotWriter writer =
+                        new HnswSnapshotWriter(path, HNSW_M, HNSW_EF_CONSTRUCTION)) {
+            // カーソルで取得するため、autoCommit を無効にする
+            connection.setAutoCommit(false);
+            PgVector.register(connection);
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "SELECT id, embedding, origntext, filename, pageNumber FROM "
+                            + POSTGRESQL_TABLE_NAME + " WHERE embedding IS NOT NULL")) {
+                statement.setFetchSize(FETCH_SIZE);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        PgVector embedding = (PgVector) resultSet.getObject("embedding");
+                        writer.add(UUID.fromString(resultSet.getString("id")),
+                                embedding.toArray(), resultSet.getString("origntext"),
+                                resultSet.getString("filename"), resultSet.getInt("pageNumber"));
+                    }
+                }
+            }
+            connection.commit();
+            LOGGER.info("Read {} vectors from {}. Building HNSW snapshot: {}", writer.size(),
+                    POSTGRESQL_TABLE_NAME, path);
+            writer.commit();
+            LOGGER.info("Exported HNSW snapshot: {} ({} vectors, {} ms)", path, writer.size(),
+                    (System.nanoTime() - start) / 1_000_000);
+            return writer.size();
+        }
+    }
+}
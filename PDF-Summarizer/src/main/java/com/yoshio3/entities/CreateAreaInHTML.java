@@ -1,3 +0,0 @@
-package com.yoshio3.entities;
-
-public record CreateAreaInHTML(String type, String id) {}  
\ No newline at end of file
@@ -1,3 +0,0 @@
-package com.yoshio3.entities;
-
-public record CreateMessageInHTML (String type, String id, String content) {} 
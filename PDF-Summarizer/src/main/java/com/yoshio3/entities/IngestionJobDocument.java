@@ -0,0 +1,10 @@
+package com.yoshio3.entities;
+
+import java.util.List;
+
+// ファイル毎の登録処理の進捗 (BlobUploadDetector がチャンク毎の CosmosDBDocument と同じコンテナに書き込む)
+public record IngestionJobDocument(String id, String type, String fileName,
+        IngestionJobStatus status, int totalChunks, int embeddedChunks, int insertedChunks,
+        int failedChunks, int totalRanges, int completedRanges, long extractionMillis,
+        long embeddingMillis, long insertionMillis, long startedAt, long updatedAt,
+        List<Integer> completedRangeIndexes) {}
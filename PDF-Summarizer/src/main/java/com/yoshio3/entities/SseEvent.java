@@ -0,0 +1,5 @@
+package com.yoshio3.entities;
+
+// クライアントに送信する SSE のイベント (event: type, id: id, data: data)
+// data に改行を含む場合は、複数の data: 行として送信します。
+public record SseEvent(long id, String type, String data) {}
@@ -0,0 +1,6 @@
+package com.yoshio3.entities;
+
+import java.util.List;
+
+// Cosmos DB から取得した 1 ページ分の結果 (continuationToken: 次のページを取得するためのトークン。最後のページの場合は null)
+public record StatusPage<T>(List<T> items, String continuationToken) {}
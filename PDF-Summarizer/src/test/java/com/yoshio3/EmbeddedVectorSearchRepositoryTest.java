@@ -0,0 +1,92 @@
+package com.yoshio3;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.UUID;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import com.yoshio3.entities.DocumentSummarizer;
+import reactor.core.publisher.Mono;
+
+// スナップショットの読み込み直しと、読み込むまでの PostgreSQL (DocumentSearchRepository) による検索のテスト
+class EmbeddedVectorSearchRepositoryTest {
+
+    private static final UUID JDBC_ID = new UUID(0, 0);
+    private static final float[] QUERY = {1f, 0f, 0f, 0f};
+
+    @TempDir
+    Path tempDir;
+
+    private Path snapshotPath;
+    private EmbeddedVectorSearchRepository repository;
+
+    @BeforeEach
+    void setUp() {
+        snapshotPath = tempDir.resolve("vector-snapshot.hnsw");
+        repository = new EmbeddedVectorSearchRepository();
+        ReflectionTestUtils.setField(repository, "SNAPSHOT_PATH", snapshotPath.toString());
+        ReflectionTestUtils.setField(repository, "HNSW_EF_SEARCH", 40);
+        ReflectionTestUtils.setField(repository, "documentSearchRepository",
+                new DocumentSearchRepository() {
+                    @Override
+                    public Mono<List<DocumentSummarizer>> findMostSimilar(String text,
+                            float[] embedding, int maxResult) {
+                        return Mono.just(List.of(
+                                new DocumentSummarizer(JDBC_ID, null, "jdbc", "jdbc.pdf", 1)));
+                    }
+                });
+    }
+
+    @Test
+    void searchesPostgreSqlUntilSnapshotIsLoaded() {
+        assertEquals(-1, repository.reload());
+        assertEquals(List.of(JDBC_ID), ids(repository.findMostSimilar("text", QUERY, 1).block()));
+    }
+
+    @Test
+    void reloadSwapsInNewSnapshot() throws IOException {
+        UUID first = UUID.randomUUID();
+        writeSnapshot(first, "first.pdf", 3);
+        assertEquals(3, repository.reload());
+        assertEquals(List.of(first), ids(repository.findMostSimilar("text", QUERY, 1).block()));
+
+        UUID second = UUID.randomUUID();
+        writeSnapshot(second, "second.pdf", 5);
+        assertEquals(5, repository.reload());
+        List<DocumentSummarizer> documents = repository.findMostSimilar("text", QUERY, 1).block();
+        assertEquals(List.of(second), ids(documents));
+        assertEquals("second.pdf", documents.get(0).filename());
+    }
+
+    @Test
+    void keepsCurrentSnapshotWhenReloadFails() throws IOException {
+        UUID first = UUID.randomUUID();
+        writeSnapshot(first, "first.pdf", 2);
+        assertEquals(2, repository.reload());
+
+        ReflectionTestUtils.setField(repository, "SNAPSHOT_PATH",
+                tempDir.resolve("missing.hnsw").toString());
+        assertEquals(-1, repository.reload());
+        assertEquals(List.of(first), ids(repository.findMostSimilar("text", QUERY, 1).block()));
+    }
+
+    // QUERY と同じベクター配列の id と、QUERY から離れた count - 1 件のベクター配列を書き込む
+    private void writeSnapshot(UUID id, String fileName, int count) throws IOException {
+        try (HnswSnapshotWriter writer = new HnswSnapshotWriter(snapshotPath, 4, 16)) {
+            writer.add(id, QUERY, "text", fileName, 1);
+            for (int i = 1; i < count; i++) {
+                writer.add(UUID.randomUUID(), new float[] {-i, i, 0f, 0f}, "other", fileName, i + 1);
+            }
+            writer.commit();
+        }
+    }
+
+    private static List<UUID> ids(List<DocumentSummarizer> documents) {
+        return documents.stream().map(DocumentSummarizer::id).toList();
+    }
+}
@@ -0,0 +1,150 @@
+package com.yoshio3;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import com.yoshio3.entities.DocumentSummarizer;
+
+// HnswSnapshotWriter で作成したスナップショットの形式と、HnswSnapshot の検索の再現率 (全件の距離計算との比較) のテスト
+class HnswSnapshotTest {
+
+    private final Random random = new Random(42);
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void writesAndReadsHeaderVectorsAndMetadata() throws IOException {
+        Path path = tempDir.resolve("snapshot.hnsw");
+        List<float[]> vectors = randomVectors(50, 8);
+        List<UUID> ids = new ArrayList<>();
+        try (HnswSnapshotWriter writer = new HnswSnapshotWriter(path, 4, 16)) {
+            for (int i = 0; i < vectors.size(); i++) {
+                UUID id = UUID.randomUUID();
+                ids.add(id);
+                writer.add(id, vectors.get(i), "本文 " + i, "file-" + i + ".pdf", i + 1);
+            }
+            writer.commit();
+        }
+
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(path))) {
+            assertEquals(HnswSnapshot.MAGIC, in.readInt());
+            assertEquals(HnswSnapshot.VERSION, in.readInt());
+            assertEquals(8, in.readInt());
+            assertEquals(50, in.readInt());
+            assertEquals(4, in.readInt());
+        }
+
+        HnswSnapshot snapshot = HnswSnapshot.open(path);
+        assertEquals(50, snapshot.size());
+        for (int node = 0; node < vectors.size(); node++) {
+            assertArrayEquals(vectors.get(node), snapshot.vector(node));
+            // 全件を候補にして検索し、各ノードのメタデータの位置を確認する
+            HnswSnapshot.Hit hit = snapshot.search(vectors.get(node), 1, vectors.size()).get(0);
+            assertEquals(0f, hit.distance());
+            DocumentSummarizer document = hit.document();
+            assertEquals(ids.get(node), document.id());
+            assertEquals("本文 " + node, document.origntext());
+            assertEquals("file-" + node + ".pdf", document.filename());
+            assertEquals(node + 1, document.pageNumber());
+        }
+        assertThrows(IllegalArgumentException.class,
+                () -> snapshot.search(new float[4], 1, 10));
+    }
+
+    @Test
+    void rejectsMismatchedDimensionsAndSearchesEmptySnapshot() throws IOException {
+        Path path = tempDir.resolve("empty.hnsw");
+        try (HnswSnapshotWriter writer = new HnswSnapshotWriter(path, 4, 16)) {
+            writer.add(UUID.randomUUID(), new float[4], "text", "a.pdf", 1);
+            assertThrows(IllegalArgumentException.class,
+                    () -> writer.add(UUID.randomUUID(), new float[5], "text", "a.pdf", 1));
+        }
+        try (HnswSnapshotWriter writer = new HnswSnapshotWriter(path, 4, 16)) {
+            writer.commit();
+        }
+        HnswSnapshot snapshot = HnswSnapshot.open(path);
+        assertEquals(0, snapshot.size());
+        assertTrue(snapshot.search(new float[4], 5, 10).isEmpty());
+        // 一時ファイルは残さない
+        try (var files = Files.list(tempDir)) {
+            assertEquals(List.of(path), files.toList());
+        }
+    }
+
+    @Test
+    void searchRecallAgainstBruteForce() throws IOException {
+        int size = 2000;
+        int dimensions = 32;
+        int queries = 100;
+        int k = 10;
+        Path path = tempDir.resolve("recall.hnsw");
+        List<float[]> vectors = randomVectors(size, dimensions);
+        try (HnswSnapshotWriter writer = new HnswSnapshotWriter(path, 16, 64)) {
+            for (int i = 0; i < size; i++) {
+                writer.add(new UUID(0, i), vectors.get(i), "text", "a.pdf", i);
+            }
+            writer.commit();
+        }
+        HnswSnapshot snapshot = HnswSnapshot.open(path);
+
+        int hits = 0;
+        for (float[] query : randomVectors(queries, dimensions)) {
+            Set<Long> exact = new HashSet<>();
+            IntStream.range(0, size).boxed()
+                    .sorted(Comparator.comparingDouble(node -> distance(vectors.get(node), query)))
+                    .limit(k)
+                    .forEach(node -> exact.add((long) node));
+            List<HnswSnapshot.Hit> result = snapshot.search(query, k, 100);
+            assertEquals(k, result.size());
+            for (int i = 1; i < result.size(); i++) {
+                assertTrue(result.get(i - 1).distance() <= result.get(i).distance());
+            }
+            for (HnswSnapshot.Hit hit : result) {
+                hits += exact.contains(hit.document().id().getLeastSignificantBits()) ? 1 : 0;
+            }
+        }
+        double recall = (double) hits / (queries * k);
+        System.out.printf("HNSW snapshot %d x %d, recall@%d (ef 100): %.3f%n", size, dimensions,
+                k, recall);
+        assertTrue(recall >= 0.9, "recall: " + recall);
+    }
+
+    private List<float[]> randomVectors(int count, int dimensions) {
+        List<float[]> vectors = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            float[] vector = new float[dimensions];
+            for (int d = 0; d < dimensions; d++) {
+                vector[d] = (float) random.nextGaussian();
+            }
+            vectors.add(vector);
+        }
+        return vectors;
+    }
+
+    // HnswSnapshot と同じ L2 距離の 2 乗
+    private static double distance(float[] a, float[] b) {
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            double diff = a[i] - b[i];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,88 @@
+package com.yoshio3;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import com.google.gson.Gson;
+import com.yoshio3.entities.SseEvent;
+import io.netty.buffer.PooledByteBufAllocator;
+
+// SseEventEncoder の形式のテストと、従来の送信方法 (トークン毎に Gson を作成して JSON に変換し、
+// 空白を置き換えた文字列を data: 行として送信) との比較の計測 (結果は標準出力に出力する)
+class SseEventEncoderTest {
+
+    private static final int WARMUP = 20_000;
+    private static final int EVENTS = 200_000;
+    private static final String DOCUMENT_ID = "0b6f2f7e-7c35-4a55-9d0f-4c4b1f0a9e21";
+    private static final String[] TOKENS = {"こんにちは", " world", "。", " PDF", " の要約", "\n"};
+
+    // 従来の送信で JSON に変換していたイベント (CreateMessageInHTML)
+    private record LegacyMessage(String type, String id, String content) {}
+
+    private final SseEventEncoder encoder = new SseEventEncoder();
+
+    @Test
+    void writesIdEventAndOneDataLinePerLine() {
+        DataBuffer buffer = encoder.encode(new SseEvent(7, "addMessage", DOCUMENT_ID + "\n hello\r\n"),
+                DefaultDataBufferFactory.sharedInstance);
+        assertEquals("id: 7\nevent: addMessage\ndata: " + DOCUMENT_ID + "\ndata:  hello\ndata: \n\n",
+                buffer.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void measureAllocationsAndThroughputAgainstGsonPath() {
+        DataBufferFactory bufferFactory = new NettyDataBufferFactory(PooledByteBufAllocator.DEFAULT);
+        run(bufferFactory, WARMUP, true);
+        run(bufferFactory, WARMUP, false);
+
+        long[] legacy = run(bufferFactory, EVENTS, true);
+        long[] encoded = run(bufferFactory, EVENTS, false);
+        System.out.printf("SSE encoding of %d token events%n", EVENTS);
+        System.out.printf("  Gson + replace   : %6d bytes/event, %9.0f events/s%n",
+                legacy[0] / EVENTS, EVENTS / (legacy[1] / 1e9));
+        System.out.printf("  SseEventEncoder  : %6d bytes/event, %9.0f events/s%n",
+                encoded[0] / EVENTS, EVENTS / (encoded[1] / 1e9));
+        assertTrue(encoded[0] < legacy[0]);
+    }
+
+    // events 件を変換し、割り当てたヒープのバイト数と経過時間 (ナノ秒) を返す
+    private long[] run(DataBufferFactory bufferFactory, int events, boolean legacy) {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int i = 0; i < events; i++) {
+            String content = TOKENS[i % TOKENS.length];
+            DataBuffer buffer = legacy ? encodeLegacy(content, bufferFactory)
+                    : encoder.encode(new SseEvent(i, "addMessage", DOCUMENT_ID + "\n" + content),
+                            bufferFactory);
+            DataBufferUtils.release(buffer);
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        return new long[] {allocated, elapsed};
+    }
+
+    // 従来の送信方法 (Spring の SSE の変換で "data:" + 文字列 + 空行として書き込まれる)
+    private static DataBuffer encodeLegacy(String content, DataBufferFactory bufferFactory) {
+        if (content.contains(" ")) {
+            content = content.replace(" ", "<SPECIAL_WHITE_SPACE>");
+        }
+        var gson = new Gson();
+        var json = gson.toJson(new LegacyMessage("addMessage", DOCUMENT_ID, content));
+        String event = "data:" + json + "\n\n";
+        byte[] bytes = event.getBytes(StandardCharsets.UTF_8);
+        DataBuffer buffer = bufferFactory.allocateBuffer(bytes.length);
+        buffer.write(bytes);
+        return buffer;
+    }
+}
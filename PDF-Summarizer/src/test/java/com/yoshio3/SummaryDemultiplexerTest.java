@@ -0,0 +1,57 @@
+package com.yoshio3;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.junit.jupiter.api.Test;
+
+// Stream で受信した回答を、区切り "[[ドキュメント番号]]" でドキュメント毎に振り分けるテスト
+class SummaryDemultiplexerTest {
+
+    @Test
+    void joinsMarkerSplitAcrossChunks() {
+        Map<Integer, String> summaries = demultiplex(2,
+                "[[", "1]", "]\n", "first", " summary\n", "[", "[2", "]]", "\nsecond");
+        assertEquals(Map.of(0, "first summary\n", 1, "second"), summaries);
+    }
+
+    @Test
+    void keepsOutOfRangeAndNonNumericMarkersAsText() {
+        Map<Integer, String> summaries = demultiplex(2,
+                "[[1]]\na [[0]] b [[3]]", " c [[x]] d");
+        assertEquals(Map.of(0, "a [[0]] b [[3]] c [[x]] d"), summaries);
+    }
+
+    @Test
+    void flushesTrailingBracketAndPartialMarkerAtFinish() {
+        SummaryDemultiplexer demultiplexer = new SummaryDemultiplexer(1);
+        assertEquals(List.of(new SummaryDemultiplexer.Segment(0, "list ")),
+                demultiplexer.accept("[[1]]\nlist ["));
+        // 区切りの開始の可能性があるため保留した "[" は、完了時に要約として返す
+        assertEquals(List.of(new SummaryDemultiplexer.Segment(0, "[")), demultiplexer.finish());
+
+        assertEquals(Map.of(0, "x [[1"), demultiplex(1, "[[1]]\nx [[", "1"));
+    }
+
+    @Test
+    void dropsPreambleBeforeFirstMarker() {
+        Map<Integer, String> summaries = demultiplex(2,
+                "Here are the summaries:\n", "[[2]]", "\nB\n", "[[1]]\nA");
+        assertEquals(Map.of(0, "A", 1, "B\n"), summaries);
+    }
+
+    // 文字列を 1 つずつ受信させ、ドキュメント毎に振り分けた文字列を返す
+    private static Map<Integer, String> demultiplex(int documentCount, String... chunks) {
+        SummaryDemultiplexer demultiplexer = new SummaryDemultiplexer(documentCount);
+        Map<Integer, String> summaries = new TreeMap<>();
+        for (String chunk : chunks) {
+            demultiplexer.accept(chunk)
+                    .forEach(segment -> summaries.merge(segment.index(), segment.text(), String::concat));
+        }
+        demultiplexer.finish()
+                .forEach(segment -> summaries.merge(segment.index(), segment.text(), String::concat));
+        return summaries;
+    }
+}
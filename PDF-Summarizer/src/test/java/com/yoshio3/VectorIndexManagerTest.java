@@ -0,0 +1,275 @@
+package com.yoshio3;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+// pgvector を利用できる PostgreSQL に対して、インデックスの管理と再現率・検索時間を確認するテスト
+// 環境変数 PGVECTOR_TEST_JDBC_URL (と PGVECTOR_TEST_USER, PGVECTOR_TEST_PASSWORD) を設定した場合のみ実行します。
+// 例: docker run -e POSTGRES_PASSWORD=postgres -p 5432:5432 pgvector/pgvector:pg16
+//     PGVECTOR_TEST_JDBC_URL=jdbc:postgresql://localhost:5432/postgres PGVECTOR_TEST_USER=postgres
+//     PGVECTOR_TEST_PASSWORD=postgres mvn test
+// 計測する行数は PGVECTOR_TEST_ROWS で変更できます。(結果は標準出力に出力する)
+class VectorIndexManagerTest {
+
+    private static final String TABLE_NAME = "vector_index_manager_test";
+    private static final String HNSW_INDEX_NAME = TABLE_NAME + "_embedding_hnsw_idx";
+    private static final int DIMENSIONS = 1536;
+    private static final int QUERIES = 50;
+    private static final int K = 10;
+
+    private final String jdbcUrl = System.getenv("PGVECTOR_TEST_JDBC_URL");
+    private final String user = System.getenv().getOrDefault("PGVECTOR_TEST_USER", "postgres");
+    private final String password =
+            System.getenv().getOrDefault("PGVECTOR_TEST_PASSWORD", "postgres");
+    private final Random random = new Random(42);
+    private VectorIndexManager manager;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        assumeTrue(jdbcUrl != null && !jdbcUrl.isBlank(), "PGVECTOR_TEST_JDBC_URL is not set");
+        execute("DROP TABLE IF EXISTS " + TABLE_NAME);
+        manager = new VectorIndexManager();
+        ReflectionTestUtils.setField(manager, "POSTGRESQL_JDBC_URL", jdbcUrl);
+        ReflectionTestUtils.setField(manager, "POSTGRESQL_USER", user);
+        ReflectionTestUtils.setField(manager, "POSTGRESQL_PASSWORD", password);
+        ReflectionTestUtils.setField(manager, "POSTGRESQL_TABLE_NAME", TABLE_NAME);
+        ReflectionTestUtils.setField(manager, "INDEX_TYPE", "none");
+        ReflectionTestUtils.setField(manager, "HNSW_M", 16);
+        ReflectionTestUtils.setField(manager, "HNSW_EF_CONSTRUCTION", 64);
+        ReflectionTestUtils.setField(manager, "HNSW_EF_SEARCH", 40);
+        ReflectionTestUtils.setField(manager, "IVFFLAT_PROBES", 10);
+        ReflectionTestUtils.setField(manager, "IVFFLAT_MIN_ROWS", 1000L);
+        ReflectionTestUtils.setField(manager, "IVFFLAT_REBUILD_RATIO", 2.0);
+        ReflectionTestUtils.setField(manager, "STORAGE_MODE", "full");
+        ReflectionTestUtils.setField(manager, "RERANK_CANDIDATES", 100);
+        manager.init();
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        if (manager != null) {
+            execute("DROP TABLE IF EXISTS " + TABLE_NAME);
+        }
+    }
+
+    @Test
+    void rebuildsInvalidIndexLeftByFailedConcurrentBuild() throws SQLException {
+        insertRows(10);
+        execute("UPDATE " + TABLE_NAME + " SET pageNumber = 1");
+        // 重複する値に一意インデックスを CONCURRENTLY で作成し、無効なインデックスを残す
+        try {
+            execute("CREATE UNIQUE INDEX CONCURRENTLY " + HNSW_INDEX_NAME + " ON " + TABLE_NAME
+                    + " (pageNumber)");
+        } catch (SQLException expected) {
+            // 作成は失敗し、無効なインデックスが残る
+        }
+        assertEquals("f", indexValidity());
+
+        ReflectionTestUtils.setField(manager, "INDEX_TYPE", "hnsw");
+        manager.checkIndex();
+
+        assertEquals("t", indexValidity());
+        assertEquals("hnsw", queryString("SELECT am.amname FROM pg_class c"
+                + " JOIN pg_am am ON am.oid = c.relam WHERE c.oid = to_regclass(?)"));
+    }
+
+    @Test
+    void swapsRebuiltIvfflatIndexUnderSameName() throws SQLException {
+        insertRows(2000);
+        execute("ANALYZE " + TABLE_NAME);
+        ReflectionTestUtils.setField(manager, "INDEX_TYPE", "ivfflat");
+        manager.checkIndex();
+        String ivfflatIndex = TABLE_NAME + "_embedding_ivfflat_idx";
+        assertEquals("{lists=2}", queryString(
+                "SELECT reloptions::text FROM pg_class WHERE oid = to_regclass(?)", ivfflatIndex));
+
+        insertRows(4000);
+        execute("ANALYZE " + TABLE_NAME);
+        manager.checkIndex();
+        assertEquals("{lists=6}", queryString(
+                "SELECT reloptions::text FROM pg_class WHERE oid = to_regclass(?)", ivfflatIndex));
+        assertNull(queryString("SELECT to_regclass(?)::text", ivfflatIndex + "_old"));
+        assertNull(queryString("SELECT to_regclass(?)::text", ivfflatIndex + "_new"));
+    }
+
+    @Test
+    void keepsOldStorageModeIndexUntilNewIndexIsValid() throws SQLException {
+        insertRows(100);
+        ReflectionTestUtils.setField(manager, "INDEX_TYPE", "hnsw");
+        manager.checkIndex();
+        assertEquals(new VectorIndexManager.SearchIndex("hnsw", "full"), manager.searchIndex());
+
+        ReflectionTestUtils.setField(manager, "STORAGE_MODE", "halfvec");
+        // 有効になるまでは既存のインデックスで検索する
+        assertEquals(new VectorIndexManager.SearchIndex("hnsw", "full"), manager.searchIndex());
+        manager.checkIndex();
+        String halfvecIndex = TABLE_NAME + "_embedding_halfvec_hnsw_idx";
+        assertEquals(new VectorIndexManager.SearchIndex("hnsw", "halfvec"), manager.searchIndex());
+        assertEquals("t", queryString("SELECT i.indisvalid::text FROM pg_index i"
+                + " WHERE i.indexrelid = to_regclass(?)", halfvecIndex));
+        // 切り替えた確認では、既存のインデックスは削除しない
+        assertEquals(HNSW_INDEX_NAME, queryString("SELECT to_regclass(?)::text"));
+
+        manager.checkIndex();
+        assertNull(queryString("SELECT to_regclass(?)::text"));
+    }
+
+    @Test
+    void measureRecallAndLatencyOfHnswAgainstExactScan() throws SQLException {
+        int rows = Integer.parseInt(System.getenv().getOrDefault("PGVECTOR_TEST_ROWS", "5000"));
+        insertRows(rows);
+        ReflectionTestUtils.setField(manager, "INDEX_TYPE", "hnsw");
+        manager.checkIndex();
+        execute("ANALYZE " + TABLE_NAME);
+
+        List<float[]> queries = new ArrayList<>(QUERIES);
+        for (int i = 0; i < QUERIES; i++) {
+            queries.add(randomVector());
+        }
+        List<Set<UUID>> exact = new ArrayList<>(QUERIES);
+        long exactNanos = 0;
+        try (Connection connection = connect()) {
+            connection.setAutoCommit(false);
+            for (float[] query : queries) {
+                execute(connection, "SET LOCAL enable_indexscan = off");
+                long start = System.nanoTime();
+                try (PreparedStatement statement = connection.prepareStatement("SELECT id FROM "
+                        + TABLE_NAME + " ORDER BY embedding <-> ? LIMIT ?")) {
+                    statement.setObject(1, new PgVector(query));
+                    statement.setInt(2, K);
+                    exact.add(ids(statement));
+                }
+                exactNanos += System.nanoTime() - start;
+                connection.commit();
+            }
+        }
+
+        System.out.printf("HNSW on %d rows x %d dimensions, recall@%d over %d queries%n", rows,
+                DIMENSIONS, K, QUERIES);
+        System.out.printf("  exact scan       : avg %7.2f ms%n", exactNanos / 1e6 / QUERIES);
+        double lastRecall = 0;
+        for (int efSearch : new int[] {10, 40, 100, 200}) {
+            ReflectionTestUtils.setField(manager, "HNSW_EF_SEARCH", efSearch);
+            VectorIndexManager.SearchIndex searchIndex = manager.searchIndex();
+            long nanos = 0;
+            int hits = 0;
+            try (Connection connection = connect()) {
+                connection.setAutoCommit(false);
+                for (int i = 0; i < QUERIES; i++) {
+                    long start = System.nanoTime();
+                    manager.applySearchSettings(connection, searchIndex, K);
+                    try (PreparedStatement statement =
+                            connection.prepareStatement(manager.nearestNeighborsSql(searchIndex))) {
+                        manager.bindNearestNeighbors(statement, 1, searchIndex,
+                                new PgVector(queries.get(i)), K);
+                        for (UUID id : ids(statement)) {
+                            hits += exact.get(i).contains(id) ? 1 : 0;
+                        }
+                    }
+                    nanos += System.nanoTime() - start;
+                    connection.commit();
+                }
+            }
+            lastRecall = (double) hits / (QUERIES * K);
+            System.out.printf("  hnsw ef_search %3d: avg %7.2f ms, recall %.3f%n", efSearch,
+                    nanos / 1e6 / QUERIES, lastRecall);
+        }
+        assertTrue(lastRecall > 0.9, "recall at ef_search 200: " + lastRecall);
+    }
+
+    private void insertRows(int count) throws SQLException {
+        try (Connection connection = connect()) {
+            PgVector.register(connection);
+            connection.setAutoCommit(false);
+            try (PreparedStatement statement = connection.prepareStatement("INSERT INTO "
+                    + TABLE_NAME + " (id, embedding, origntext, fileName, pageNumber)"
+                    + " VALUES (?, ?, 'text', 'test.pdf', ?)")) {
+                for (int i = 0; i < count; i++) {
+                    statement.setObject(1, UUID.randomUUID());
+                    statement.setObject(2, new PgVector(randomVector()));
+                    statement.setInt(3, i);
+                    statement.addBatch();
+                    if (i % 500 == 499) {
+                        statement.executeBatch();
+                    }
+                }
+                statement.executeBatch();
+            }
+            connection.commit();
+        }
+    }
+
+    private float[] randomVector() {
+        float[] vector = new float[DIMENSIONS];
+        for (int i = 0; i < DIMENSIONS; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+
+    private String indexValidity() throws SQLException {
+        return queryString("SELECT i.indisvalid::text FROM pg_index i"
+                + " WHERE i.indexrelid = to_regclass(?)");
+    }
+
+    private String queryString(String sql) throws SQLException {
+        return queryString(sql, HNSW_INDEX_NAME);
+    }
+
+    private String queryString(String sql, String parameter) throws SQLException {
+        try (Connection connection = connect();
+                PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setString(1, parameter);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? resultSet.getString(1) : null;
+            }
+        }
+    }
+
+    private static Set<UUID> ids(PreparedStatement statement) throws SQLException {
+        Set<UUID> ids = new HashSet<>();
+        try (ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                ids.add(UUID.fromString(resultSet.getString(1)));
+            }
+        }
+        return ids;
+    }
+
+    private void execute(String sql) throws SQLException {
+        try (Connection connection = connect()) {
+            execute(connection, sql);
+        }
+    }
+
+    private static void execute(Connection connection, String sql) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+
+    private Connection connect() throws SQLException {
+        Connection connection = DriverManager.getConnection(jdbcUrl, user, password);
+        PgVector.register(connection);
+        return connection;
+    }
+}